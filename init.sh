@@ -16,4 +16,9 @@ java ConvertTxtToTbl CART
 java ConvertTxtToTbl CARTDETAILS
 java ConvertTxtToTbl CUSTOMER
 
+java Analyze BILL
+java Analyze CART
+java Analyze CARTDETAILS
+java Analyze CUSTOMER
+
 echo "Tables created"
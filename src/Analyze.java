@@ -0,0 +1,146 @@
+/*
+  analyzes a table, from the table file <tablename>.tbl created by
+  ConvertTxtToTbl, or its partition files if partitioned, into the
+  statistics file <tablename>.stat: the number of tuples, the number
+  of distinct values of each column, and the most common values and
+  an equi-depth histogram of each column
+
+  the most common values and the histograms are built from a sample
+  of the tuples, drawn uniformly from the whole table in one pass, and
+  the distinct values are counted by a HyperLogLog sketch of each column
+  of each table file, which is written alongside it and merged with the
+  sketches of the other partitions
+*/
+
+import qp.storage.Catalog;
+import qp.storage.PageFile;
+import qp.storage.Partitioning;
+import qp.utils.Batch;
+import qp.utils.Histogram;
+import qp.utils.HyperLogLog;
+import qp.utils.RandomNumberGenerator;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class Analyze {
+
+    /**
+     * Number of tuples sampled for the most common values and the histograms
+     **/
+    static final int SAMPLE_SIZE = 30000;
+
+    static final int DEFAULT_NUM_BUCKETS = 100;
+    static final int DEFAULT_NUM_MOST_COMMON = 100;
+
+    static final String BUCKETS_OPTION = "--buckets=";
+    static final String MOST_COMMON_OPTION = "--mcvs=";
+
+    public static void main(String[] arguments) throws IOException {
+        List<String> args = new ArrayList<>(Arrays.asList(arguments));
+        int numBuckets = DEFAULT_NUM_BUCKETS;
+        int numMostCommon = DEFAULT_NUM_MOST_COMMON;
+        try {
+            for (String arg : arguments) {
+                if (arg.startsWith(BUCKETS_OPTION)) {
+                    numBuckets = Integer.parseInt(arg.substring(BUCKETS_OPTION.length()));
+                    args.remove(arg);
+                } else if (arg.startsWith(MOST_COMMON_OPTION)) {
+                    numMostCommon = Integer.parseInt(arg.substring(MOST_COMMON_OPTION.length()));
+                    args.remove(arg);
+                }
+            }
+        } catch (NumberFormatException e) {
+            numBuckets = 0;
+        }
+        if (args.size() != 1 || numBuckets < 1 || numMostCommon < 0) {
+            System.out.println("usage: java Analyze <tablename> [--buckets=<count>] [--mcvs=<count>]"
+                    + " \n writes the statistics of the table into <tablename>.stat");
+            System.exit(1);
+        }
+        String tblname = args.get(0);
+        Schema schema = Catalog.getSchema(tblname);
+        int numCols = schema.getNumCols();
+
+        HyperLogLog[] tableSketches = new HyperLogLog[numCols];
+        Object[] minValues = new Object[numCols];
+        Object[] maxValues = new Object[numCols];
+        for (int i = 0; i < numCols; ++i) {
+            tableSketches[i] = new HyperLogLog();
+        }
+        List<Tuple> sample = new ArrayList<>();
+        long numTuples = 0;
+
+        Partitioning partitioning = schema.getPartitioning();
+        int numPartitions = partitioning == null ? 1 : partitioning.getNumPartitions();
+        for (int p = 0; p < numPartitions; ++p) {
+            String tblfile = partitioning == null ? tblname + ".tbl" : Partitioning.getFileName(tblname, p);
+            PageFile table = PageFile.open(tblfile);
+            HyperLogLog[] sketches = new HyperLogLog[numCols];
+            for (int i = 0; i < numCols; ++i) {
+                sketches[i] = new HyperLogLog();
+            }
+            for (int page = 0; page < table.getNumPages(); ++page) {
+                Batch batch = (Batch) table.readPage(page);
+                for (int slot = 0; slot < batch.size(); ++slot) {
+                    Tuple tuple = batch.getRecord(slot);
+                    for (int i = 0; i < numCols; ++i) {
+                        Object value = tuple.getData(i);
+                        if (value == null) {
+                            continue;
+                        }
+                        sketches[i].add(value);
+                        if (minValues[i] == null || Tuple.compareValues(value, minValues[i]) < 0) {
+                            minValues[i] = value;
+                        }
+                        if (maxValues[i] == null || Tuple.compareValues(value, maxValues[i]) > 0) {
+                            maxValues[i] = value;
+                        }
+                    }
+                    // reservoir sampling: each tuple read so far is in the sample with equal probability
+                    if (sample.size() < SAMPLE_SIZE) {
+                        sample.add(tuple);
+                    } else if (numTuples < Integer.MAX_VALUE) {
+                        int replaced = RandomNumberGenerator.randInt(0, (int) numTuples);
+                        if (replaced < SAMPLE_SIZE) {
+                            sample.set(replaced, tuple);
+                        }
+                    }
+                    numTuples++;
+                }
+            }
+            table.close();
+            Catalog.writeSketches(tblfile, sketches);
+            for (int i = 0; i < numCols; ++i) {
+                tableSketches[i].merge(sketches[i]);
+            }
+        }
+
+        long[] numDistinct = new long[numCols];
+        Histogram[] histograms = new Histogram[numCols];
+        for (int i = 0; i < numCols; ++i) {
+            numDistinct[i] = Math.max(1, Math.min(numTuples, tableSketches[i].estimate()));
+            List<Object> values = new ArrayList<>();
+            for (Tuple tuple : sample) {
+                if (tuple.getData(i) != null) {
+                    values.add(tuple.getData(i));
+                }
+            }
+            Histogram histogram = Histogram.build(values, numBuckets, numMostCommon);
+            Object[] bounds = histogram.getBounds();
+            if (bounds.length > 0 && numTuples > SAMPLE_SIZE) {
+                // the sample may have missed the smallest and the largest values
+                bounds[0] = minValues[i];
+                bounds[bounds.length - 1] = maxValues[i];
+            }
+            histograms[i] = histogram;
+        }
+        Catalog.writeStatistics(tblname, new Catalog.Statistics(numTuples, numDistinct, histograms));
+        System.out.println("analyzed " + numTuples + " tuples of table " + tblname);
+    }
+
+}
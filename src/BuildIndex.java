@@ -0,0 +1,56 @@
+/*
+  builds a B+-tree index on a column of a table, from the table file
+  <tablename>.tbl created by ConvertTxtToTbl, into the index file
+  <tablename>.<columnname>.idx, or with --bitmap a bitmap index into
+  the index file <tablename>.<columnname>.bmi
+*/
+
+import qp.index.BPlusTree;
+import qp.index.BitmapIndex;
+import qp.storage.Catalog;
+import qp.utils.Attribute;
+import qp.utils.Schema;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BuildIndex {
+
+    /**
+     * Number of bytes per node of the index if none is given
+     **/
+    static final int DEFAULT_PAGE_SIZE = 4096;
+
+    public static void main(String[] arguments) throws IOException {
+        List<String> args = new ArrayList<>(Arrays.asList(arguments));
+        boolean isBitmap = args.remove("--bitmap");
+        if (args.size() != 2 && args.size() != 3) {
+            System.out.println("usage: java BuildIndex <tablename> <columnname> [pagesize] [--bitmap] \n creates <tablename>.<columnname>.idx or .bmi files");
+            System.exit(1);
+        }
+        String tblname = args.get(0);
+        String colname = args.get(1);
+        int pagesize = args.size() == 3 ? Integer.parseInt(args.get(2)) : DEFAULT_PAGE_SIZE;
+
+        Schema schema = Catalog.getSchema(tblname);
+        if (schema.getPartitioning() != null) {
+            System.out.println("table " + tblname + " is partitioned, and cannot be indexed");
+            System.exit(1);
+        }
+        Attribute attr = new Attribute(tblname, colname);
+        int keyIndex = schema.indexOf(attr);
+        if (keyIndex < 0) {
+            System.out.println("column " + colname + " is not in table " + tblname);
+            System.exit(1);
+        }
+        if (isBitmap) {
+            BitmapIndex.build(tblname + ".tbl", keyIndex, BitmapIndex.getFileName(attr));
+            return;
+        }
+        int keySize = schema.getAttribute(keyIndex).getAttrSize();
+        BPlusTree.build(tblname + ".tbl", keyIndex, keySize, pagesize, BPlusTree.getFileName(attr));
+    }
+
+}
@@ -3,31 +3,92 @@
   attributes of the relation. each subsequent line represents 1
   tuple of the relation. also assume that the fields of each line
   is delimited by tabs ("\t")
+
+  the tuples are stored in pages of the given page size, which can
+  be read individually by their page numbers, followed by the zone
+  map of each page
+
+  with --clustered-by=<col>[,<col>...] the table is declared to be
+  stored in ascending order of the given columns, which is recorded
+  in the <tablename>.md file. the order of a clustered table is
+  verified as it is loaded
+
+  with --range-partitioned-by=<col>:<bound>[,<bound>...] or
+  --hash-partitioned-by=<col>:<count> the table is split into the
+  partition files <tablename>.p<partition>.tbl by the range or the
+  hash of the given column, which is recorded in the <tablename>.md
+  file
+
+  the indexes of the table are deleted, as they hold the record ids of
+  the table file loaded before, and so are the table files of the table
+  loaded before which are not overwritten, e.g., <tablename>.tbl once
+  the table is partitioned
+
+  the distinct values of each column of each table file are counted by
+  HyperLogLog sketches as the table is loaded, which are written into
+  the file <tablename>.hll or <tablename>.p<partition>.hll alongside
+  it; the sketches of the partitions are merged, and the number of
+  tuples and the distinct values of each column of the whole table are
+  written into the <tablename>.stat file
 */
 
+import qp.index.BPlusTree;
+import qp.index.BitmapIndex;
+import qp.storage.Catalog;
+import qp.storage.PageFile;
+import qp.storage.Partitioning;
+import qp.storage.ZoneMap;
 import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Histogram;
+import qp.utils.HyperLogLog;
 import qp.utils.Schema;
 import qp.utils.Tuple;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.StringTokenizer;
 
 public class ConvertTxtToTbl {
 
-    public static void main(String[] args) throws IOException {
+    /**
+     * Number of bytes per page of the table file if none is given
+     **/
+    static final int DEFAULT_PAGE_SIZE = 4096;
+
+    static final String CLUSTERED_BY_OPTION = "--clustered-by=";
+    static final String RANGE_PARTITIONED_BY_OPTION = "--range-partitioned-by=";
+    static final String HASH_PARTITIONED_BY_OPTION = "--hash-partitioned-by=";
+
+    public static void main(String[] arguments) throws IOException {
         // check the arguments
-        if (args.length != 1) {
-            System.out.println("usage: java ConvertTxtToTbl <tablename> \n creats <tablename>.tbl files");
+        List<String> args = new ArrayList<>(Arrays.asList(arguments));
+        String clusteredBy = null;
+        String rangePartitionedBy = null;
+        String hashPartitionedBy = null;
+        for (String arg : arguments) {
+            if (arg.startsWith(CLUSTERED_BY_OPTION)) {
+                clusteredBy = arg.substring(CLUSTERED_BY_OPTION.length());
+                args.remove(arg);
+            } else if (arg.startsWith(RANGE_PARTITIONED_BY_OPTION)) {
+                rangePartitionedBy = arg.substring(RANGE_PARTITIONED_BY_OPTION.length());
+                args.remove(arg);
+            } else if (arg.startsWith(HASH_PARTITIONED_BY_OPTION)) {
+                hashPartitionedBy = arg.substring(HASH_PARTITIONED_BY_OPTION.length());
+                args.remove(arg);
+            }
+        }
+        if ((args.size() != 1 && args.size() != 2) || (rangePartitionedBy != null && hashPartitionedBy != null)) {
+            System.out.println("usage: java ConvertTxtToTbl <tablename> [pagesize] [--clustered-by=<col>[,<col>...]]"
+                    + " [--range-partitioned-by=<col>:<bound>[,<bound>...] | --hash-partitioned-by=<col>:<count>]"
+                    + " \n creats <tablename>.tbl files, or <tablename>.p<partition>.tbl files if partitioned");
             System.exit(1);
         }
-        String tblname = args[0];
+        String tblname = args.get(0);
+        int pagesize = args.size() == 2 ? Integer.parseInt(args.get(1)) : DEFAULT_PAGE_SIZE;
         String mdfile = tblname + ".md";
-        String tblfile = tblname + ".tbl";
-
-        /** open the input and output streams **/
-        BufferedReader in = new BufferedReader(new FileReader(tblname + ".txt"));
-        ObjectOutputStream outtbl = new ObjectOutputStream(new FileOutputStream(tblfile));
 
         /** First Line is METADATA **/
         int linenum = 0;
@@ -36,12 +97,77 @@ public class ConvertTxtToTbl {
         try {
             ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
             schema = (Schema) ins.readObject();
+            ins.close();
         } catch (ClassNotFoundException ce) {
             System.out.println("class not found exception --- error in schema object file");
             System.exit(1);
         }
 
-        boolean flag = false;
+        Partitioning previousPartitioning = schema.getPartitioning();
+
+        /** The clustering key given, or else the one declared already **/
+        if (clusteredBy != null) {
+            List<Attribute> clusteringKey = new ArrayList<>();
+            for (String colname : clusteredBy.split(",")) {
+                clusteringKey.add(getAttribute(schema, tblname, colname));
+            }
+            schema.setClusteringKey(clusteringKey);
+        }
+        List<Integer> keyIndices = new ArrayList<>();
+        for (Attribute attr : schema.getClusteringKey()) {
+            keyIndices.add(schema.indexOf(attr));
+        }
+        Tuple previous = null;
+
+        /** The partitioning given, or else the one declared already **/
+        if (rangePartitionedBy != null) {
+            String[] columnAndBounds = rangePartitionedBy.split(":", 2);
+            Attribute attr = getAttribute(schema, tblname, columnAndBounds[0]);
+            String[] boundElements = columnAndBounds.length == 2 ? columnAndBounds[1].split(",") : new String[0];
+            Object[] bounds = new Object[boundElements.length];
+            for (int i = 0; i < bounds.length; ++i) {
+                bounds[i] = parseValue(boundElements[i], schema.typeOf(attr));
+                if (i > 0 && Tuple.compareValues(bounds[i - 1], bounds[i]) >= 0) {
+                    System.out.println("the bounds of the partitions must be increasing");
+                    System.exit(1);
+                }
+            }
+            schema.setPartitioning(Partitioning.byRange(attr, bounds));
+        } else if (hashPartitionedBy != null) {
+            String[] columnAndCount = hashPartitionedBy.split(":", 2);
+            Attribute attr = getAttribute(schema, tblname, columnAndCount[0]);
+            int numPartitions = columnAndCount.length == 2 ? Integer.parseInt(columnAndCount[1]) : 0;
+            if (numPartitions < 1) {
+                System.out.println("the number of partitions must be positive");
+                System.exit(1);
+            }
+            schema.setPartitioning(Partitioning.byHash(attr, numPartitions));
+        }
+        Partitioning partitioning = schema.getPartitioning();
+        int numPartitions = partitioning == null ? 1 : partitioning.getNumPartitions();
+        int partitionIndex = partitioning == null ? -1 : schema.indexOf(partitioning.getAttribute());
+
+        /** open the input and output streams **/
+        BufferedReader in = new BufferedReader(new FileReader(tblname + ".txt"));
+        String[] tblfiles = getTableFileNames(tblname, partitioning);
+        deleteStaleFiles(tblname, schema, getTableFileNames(tblname, previousPartitioning), tblfiles);
+        PageFile.Writer[] outtbls = new PageFile.Writer[numPartitions];
+        for (int p = 0; p < numPartitions; ++p) {
+            outtbls[p] = new PageFile.Writer(tblfiles[p]);
+        }
+
+        int tuplesPerPage = Math.max(1, pagesize / schema.getTupleSize());
+        Batch[] pages = new Batch[numPartitions];
+        List<List<ZoneMap>> zoneMaps = new ArrayList<>();
+        HyperLogLog[][] sketches = new HyperLogLog[numPartitions][schema.getNumCols()];
+        for (int p = 0; p < numPartitions; ++p) {
+            pages[p] = new Batch(tuplesPerPage);
+            zoneMaps.add(new ArrayList<>());
+            for (int i = 0; i < schema.getNumCols(); ++i) {
+                sketches[p][i] = new HyperLogLog();
+            }
+        }
+        long numTuples = 0;
         StringTokenizer tokenizer;
         while ((line = in.readLine()) != null) {
             linenum++;
@@ -52,24 +178,109 @@ public class ConvertTxtToTbl {
 
             while (tokenizer.hasMoreElements()) {
                 String dataElement = tokenizer.nextToken();
-                int datatype = schema.typeOf(attrIndex);
-                if (datatype == Attribute.INT) {
-                    data.add(Integer.valueOf(dataElement));
-                } else if (datatype == Attribute.REAL) {
-                    data.add(Float.valueOf(dataElement));
-                } else if (datatype == Attribute.STRING) {
-                    data.add(dataElement);
-                } else {
-                    System.err.println("Invalid data type");
-                    System.exit(1);
-                }
+                data.add(parseValue(dataElement, schema.typeOf(attrIndex)));
                 attrIndex++;
             }
             Tuple tuple = new Tuple(data);
-            outtbl.writeObject(tuple);
+            if (previous != null && Tuple.compare(previous, tuple, keyIndices) > 0) {
+                System.out.println("line " + linenum + " is out of the clustering order of table " + tblname);
+                for (int p = 0; p < numPartitions; ++p) {
+                    outtbls[p].close(null);
+                    new File(tblfiles[p]).delete();
+                }
+                System.exit(1);
+            }
+            previous = tuple;
+            int p = partitioning == null ? 0 : partitioning.getPartition(tuple.getData(partitionIndex));
+            pages[p].addRecord(tuple);
+            for (int i = 0; i < data.size(); ++i) {
+                sketches[p][i].add(data.get(i));
+            }
+            numTuples++;
+            if (pages[p].isFull()) {
+                outtbls[p].append(pages[p]);
+                zoneMaps.get(p).add(ZoneMap.of(pages[p], schema.getNumCols()));
+                pages[p] = new Batch(tuplesPerPage);
+            }
+        }
+        for (int p = 0; p < numPartitions; ++p) {
+            if (!pages[p].isEmpty()) {
+                outtbls[p].append(pages[p]);
+                zoneMaps.get(p).add(ZoneMap.of(pages[p], schema.getNumCols()));
+            }
+            outtbls[p].close(zoneMaps.get(p).toArray(new ZoneMap[0]));
+            Catalog.writeSketches(tblfiles[p], sketches[p]);
         }
-        outtbl.close();
         in.close();
+
+        /** the statistics of the whole table, from the merged sketches of its files **/
+        long[] numDistinct = new long[schema.getNumCols()];
+        for (int i = 0; i < numDistinct.length; ++i) {
+            HyperLogLog tableSketch = new HyperLogLog();
+            for (int p = 0; p < numPartitions; ++p) {
+                tableSketch.merge(sketches[p][i]);
+            }
+            numDistinct[i] = Math.max(1, Math.min(numTuples, tableSketch.estimate()));
+        }
+        Catalog.writeStatistics(tblname, new Catalog.Statistics(numTuples, numDistinct, new Histogram[numDistinct.length]));
+
+        if (clusteredBy != null || rangePartitionedBy != null || hashPartitionedBy != null) {
+            ObjectOutputStream outmd = new ObjectOutputStream(new FileOutputStream(mdfile));
+            outmd.writeObject(schema);
+            outmd.close();
+        }
+    }
+
+    private static String[] getTableFileNames(String tblname, Partitioning partitioning) {
+        if (partitioning == null) {
+            return new String[]{tblname + ".tbl"};
+        }
+        String[] tblfiles = new String[partitioning.getNumPartitions()];
+        for (int p = 0; p < tblfiles.length; ++p) {
+            tblfiles[p] = Partitioning.getFileName(tblname, p);
+        }
+        return tblfiles;
+    }
+
+    /**
+     * Deletes the indexes of the table, and the table files loaded before
+     * with their sketches unless they are about to be overwritten.
+     */
+    private static void deleteStaleFiles(String tblname, Schema schema, String[] previousTblfiles, String[] tblfiles) {
+        for (int i = 0; i < schema.getNumCols(); ++i) {
+            Attribute attr = new Attribute(tblname, schema.getAttribute(i).getColName());
+            new File(BPlusTree.getFileName(attr)).delete();
+            new File(BitmapIndex.getFileName(attr)).delete();
+        }
+        List<String> kept = Arrays.asList(tblfiles);
+        for (String previousTblfile : previousTblfiles) {
+            if (!kept.contains(previousTblfile)) {
+                new File(previousTblfile).delete();
+                new File(Catalog.getSketchFileName(previousTblfile)).delete();
+            }
+        }
+    }
+
+    private static Attribute getAttribute(Schema schema, String tblname, String colname) {
+        Attribute attr = new Attribute(tblname, colname);
+        if (schema.indexOf(attr) < 0) {
+            System.out.println("column " + colname + " is not in table " + tblname);
+            System.exit(1);
+        }
+        return schema.getAttribute(schema.indexOf(attr));
+    }
+
+    private static Object parseValue(String dataElement, int datatype) {
+        if (datatype == Attribute.INT) {
+            return Integer.valueOf(dataElement);
+        } else if (datatype == Attribute.REAL) {
+            return Float.valueOf(dataElement);
+        } else if (datatype == Attribute.STRING) {
+            return dataElement;
+        }
+        System.err.println("Invalid data type");
+        System.exit(1);
+        return null;
     }
 
 }
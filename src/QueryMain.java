@@ -1,14 +1,26 @@
 import qp.operators.Debug;
 import qp.operators.Operator;
+import qp.operators.Scan;
+import qp.operators.joins.ParallelHashJoin;
+import qp.operators.joins.RuntimeFilters;
+import qp.operators.joins.SortMergeJoin;
 import qp.optimizer.BufferManager;
+import qp.optimizer.DPOptimizer;
 import qp.optimizer.PlanCost;
+import qp.optimizer.PredicateInference;
 import qp.optimizer.RandomOptimizer;
+import qp.optimizer.TwoPhaseOptimizer;
 import qp.parser.Scaner;
 import qp.parser.parser;
+import qp.storage.BufferPool;
+import qp.storage.Catalog;
 import qp.utils.*;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The driver program of the query processor.
@@ -17,17 +29,54 @@ public class QueryMain {
 
     static PrintWriter out;
     static int numAtts;
+    /**
+     * Options given as {@code --name} or {@code --name=value}, mapped from name to value.
+     */
+    static Map<String, String> options;
 
     public static void main(String[] args) {
+        args = parseOptions(args);
         if (args.length < 2) {
-            System.out.println("usage: java QueryMain <queryfilename> <resultfile> <pagesize> <numbuffer>");
+            System.out.println("usage: java QueryMain <queryfilename> <resultfile> <pagesize> <numbuffer> [--pipelined-merge] [--no-runtime-filters] [--workers=<count>] [--scan-workers=<count>] [--replacement=clock|lru-<k>] [--optimizer=dp|random|2po] [--sa-temperature=<fraction>] [--sa-cooling=<rate>] [--sa-time=<ms>] [--optimizer-workers=<count>]");
             System.exit(1);
         }
+        SortMergeJoin.setPipelined(options.containsKey("pipelined-merge"));
+        RuntimeFilters.setEnabled(!options.containsKey("no-runtime-filters"));
+        if (options.containsKey("workers")) {
+            try {
+                ParallelHashJoin.setNumWorkers(Integer.parseInt(options.get("workers")));
+            } catch (NumberFormatException e) {
+                System.out.println("--workers must be given a number of worker threads");
+                System.exit(1);
+            }
+        }
+        if (options.containsKey("scan-workers")) {
+            try {
+                Scan.setNumWorkers(Integer.parseInt(options.get("scan-workers")));
+            } catch (NumberFormatException e) {
+                System.out.println("--scan-workers must be given a number of worker threads");
+                System.exit(1);
+            }
+        }
+        if (options.containsKey("replacement") && !BufferPool.setReplacementPolicy(options.get("replacement"))) {
+            System.out.println("--replacement must be given clock or lru-<k>");
+            System.exit(1);
+        }
+        if (options.containsKey("optimizer-workers")) {
+            try {
+                RandomOptimizer.setNumWorkers(Integer.parseInt(options.get("optimizer-workers")));
+            } catch (NumberFormatException e) {
+                System.out.println("--optimizer-workers must be given a number of worker threads");
+                System.exit(1);
+            }
+        }
+        configureAnnealing();
 
         BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
         Batch.setPageSize(getPageSize(args, in));
 
         SQLQuery sqlquery = getSQLQuery(args[0]);
+        PredicateInference.rewrite(sqlquery);
         configureBufferManager(sqlquery.getNumJoin(), args, in);
 
         verifySufficientPageSize(sqlquery.getFromList(), Batch.getPageSize());
@@ -37,6 +86,51 @@ public class QueryMain {
         executeQuery(root, args[1]);
     }
 
+    /**
+     * Separates the options from the positional arguments.
+     *
+     * @param args The command line arguments
+     * @return The positional arguments
+     */
+    private static String[] parseOptions(String[] args) {
+        options = new HashMap<>();
+        List<String> positionalArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                positionalArgs.add(arg);
+                continue;
+            }
+            int separatorIndex = arg.indexOf('=');
+            if (separatorIndex < 0) {
+                options.put(arg.substring(2), "");
+            } else {
+                options.put(arg.substring(2, separatorIndex), arg.substring(separatorIndex + 1));
+            }
+        }
+        return positionalArgs.toArray(new String[0]);
+    }
+
+    /**
+     * Sets the temperature schedule and the time budget of the annealing
+     * phase of two-phase optimization from the options.
+     */
+    private static void configureAnnealing() {
+        try {
+            double initialTemperature = Double.parseDouble(options.getOrDefault("sa-temperature", "0.1"));
+            double coolingRate = Double.parseDouble(options.getOrDefault("sa-cooling", "0.95"));
+            if (!TwoPhaseOptimizer.setSchedule(initialTemperature, coolingRate)) {
+                System.out.println("--sa-temperature must be positive and --sa-cooling between 0 and 1");
+                System.exit(1);
+            }
+            if (options.containsKey("sa-time")) {
+                TwoPhaseOptimizer.setTimeBudget(Long.parseLong(options.get("sa-time")));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("--sa-temperature, --sa-cooling and --sa-time must be given numbers");
+            System.exit(1);
+        }
+    }
+
     /**
      * Get page size from arguments, if not provided request as input
      **/
@@ -113,10 +207,8 @@ public class QueryMain {
     private static void verifySufficientPageSize(List<String> tables, int pageSize) {
         int cumulativeRecordSize = 0;
         for (String table : tables) {
-            try (BufferedReader file = new BufferedReader(new FileReader(table + ".det"))){
-                file.readLine();
-                int recordSize = Integer.parseInt(file.readLine().trim());
-                cumulativeRecordSize += recordSize;
+            try {
+                cumulativeRecordSize += Catalog.getSchema(table).getTupleSize();
             } catch(IOException e) {
                 e.printStackTrace();
                 System.exit(1);
@@ -136,14 +228,30 @@ public class QueryMain {
     public static Operator getQueryPlan(SQLQuery sqlquery) {
         Operator root = null;
 
-        RandomOptimizer optimizer = new RandomOptimizer(sqlquery);
-        Operator planroot = optimizer.getOptimizedPlan();
+        String optimizer = options.getOrDefault("optimizer", DPOptimizer.isApplicable(sqlquery) ? "dp" : "random");
+        Operator planroot = null;
+        if (optimizer.equals("dp")) {
+            planroot = new DPOptimizer(sqlquery).getOptimizedPlan();
+        } else if (optimizer.equals("random")) {
+            planroot = new RandomOptimizer(sqlquery).getOptimizedPlan();
+        } else if (optimizer.equals("2po")) {
+            planroot = new TwoPhaseOptimizer(sqlquery).getOptimizedPlan();
+        } else {
+            System.out.println("--optimizer must be given dp, random or 2po");
+            System.exit(1);
+        }
 
         if (planroot == null) {
-            System.out.println("DPOptimizer: query plan is null");
+            if (!DPOptimizer.isConnected(sqlquery)) {
+                System.out.println("no plan: join graph is disconnected, some table is not joined to the others by any condition");
+            } else {
+                System.out.println("no plan: too few buffers, " + BufferManager.getNumBuffer()
+                        + " buffer pages are not enough for any join method of the query");
+            }
             System.exit(1);
         }
 
+        PlanCost.allocateBuffers(planroot);
         root = RandomOptimizer.makeExecPlan(planroot);
 
         return root;
@@ -206,6 +314,9 @@ public class QueryMain {
         long endTime = System.currentTimeMillis();
         double executionTime = (endTime - startTime) / 1000.0;
         System.out.println("Execution time = " + executionTime);
+        BufferPool pool = BufferPool.getInstance();
+        System.out.println("Buffer pool hits = " + pool.getNumHits() + ", misses = " + pool.getNumMisses());
+        System.out.println("Peak buffer pages reserved = " + BufferManager.getPeakReserved() + " of " + BufferManager.getNumBuffer());
         return executionTime;
     }
 
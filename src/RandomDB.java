@@ -1,4 +1,5 @@
 import qp.utils.Attribute;
+import qp.utils.HyperLogLog;
 import qp.utils.Schema;
 
 import java.io.*;
@@ -7,7 +8,7 @@ import java.util.*;
 public class RandomDB {
 
     static boolean[] pk;
-    static HashMap<Integer, HashSet<Integer>> fk = new HashMap<>();
+    static HashMap<Integer, HyperLogLog> fk = new HashMap<>();
     private static Random random;
 
     public RandomDB() {
@@ -93,7 +94,7 @@ public class RandomDB {
                     pk = new boolean[range[i]];
                     typeofkey = Attribute.PK;
                 } else if (keytype[i].equals("FK")) {
-                    fk.put(i, new HashSet<Integer>());
+                    fk.put(i, new HyperLogLog());
                     typeofkey = Attribute.FK;
                 } else {
                     typeofkey = -1;
@@ -157,7 +158,7 @@ public class RandomDB {
                         int numdist = rdb.getnumdistinct(pk);
                         outstat.print(numdist + "\t");
                     } else if (keytype[i].equals("FK")) {
-                        int numdist = fk.get(i).size();
+                        long numdist = Math.min(numtuple, fk.get(i).estimate());
                         outstat.print(numdist + "\t");
                     } else {
                         if (numtuple < range[i])
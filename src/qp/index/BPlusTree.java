@@ -0,0 +1,266 @@
+package qp.index;
+
+import qp.storage.Catalog;
+import qp.storage.PageFile;
+import qp.storage.RecordId;
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Tuple;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A disk-resident B+-tree secondary index on an attribute of a table,
+ * mapping each key to the record ids of the tuples holding it.
+ * <p>
+ * The tree is bulk loaded offline from the table file into an index
+ * file named {@code <table>.<column>.idx}, one node per page, with the
+ * leaves first and chained in key order. A search reads one node per
+ * level down to the first leaf in range, and then the following leaves.
+ */
+public class BPlusTree {
+    private static final String FILE_EXTENSION = ".idx";
+
+    private final PageFile file;
+    private final Metadata metadata;
+
+    private BPlusTree(PageFile file) {
+        this.file = file;
+        this.metadata = (Metadata) file.getMetadata();
+    }
+
+    public static String getFileName(Attribute attribute) {
+        return attribute.getTabName() + "." + attribute.getColName() + FILE_EXTENSION;
+    }
+
+    /**
+     * Checks whether an index has been built on the attribute. An index
+     * of a partitioned table is never used, as its record ids are those
+     * of a single table file.
+     */
+    public static boolean exists(Attribute attribute) {
+        return new File(getFileName(attribute)).exists() && isSingleFile(attribute.getTabName());
+    }
+
+    /**
+     * Checks whether a table is stored in a single table file, which can
+     * therefore be indexed.
+     */
+    static boolean isSingleFile(String tabname) {
+        try {
+            return Catalog.getSchema(tabname).getPartitioning() == null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static BPlusTree open(Attribute attribute) throws IOException {
+        return new BPlusTree(PageFile.open(getFileName(attribute)));
+    }
+
+    /**
+     * Reads the shape of the index on the attribute without opening it.
+     */
+    public static Metadata readMetadata(Attribute attribute) throws IOException {
+        return (Metadata) PageFile.readMetadata(getFileName(attribute));
+    }
+
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Builds the index of a column of a table file.
+     *
+     * @param tableFileName The name of the table file, whose pages are {@code Batch}es
+     * @param keyIndex The index of the column in the tuples
+     * @param keySize The number of bytes of a key
+     * @param pageSize The number of bytes of a node
+     * @param indexFileName The name of the index file to write
+     */
+    public static void build(String tableFileName, int keyIndex, int keySize, int pageSize,
+                             String indexFileName) throws IOException {
+        List<Object> keys = new ArrayList<>();
+        List<RecordId> recordIds = new ArrayList<>();
+        PageFile table = PageFile.open(tableFileName);
+        for (int p = 0; p < table.getNumPages(); ++p) {
+            Batch page = (Batch) table.readPage(p);
+            for (int slot = 0; slot < page.size(); ++slot) {
+                keys.add(page.getRecord(slot).getData(keyIndex));
+                recordIds.add(new RecordId(p, slot));
+            }
+        }
+        table.close();
+
+        // sort the entries by key, and by record id among equal keys
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < keys.size(); ++i) {
+            order.add(i);
+        }
+        order.sort(Comparator.<Integer, Object>comparing(keys::get, Tuple::compareValues)
+                .thenComparing(recordIds::get));
+
+        // a leaf entry holds a key and a record id, and an internal entry a key and a page number
+        int leafCapacity = Math.max(4, pageSize / (keySize + 2 * Integer.BYTES));
+        int internalCapacity = Math.max(4, pageSize / (keySize + Integer.BYTES));
+        PageFile.Writer writer = new PageFile.Writer(indexFileName);
+
+        List<Object> levelFirstKeys = new ArrayList<>();
+        List<Integer> levelPages = new ArrayList<>();
+        int numLeaves = Math.max(1, (order.size() + leafCapacity - 1) / leafCapacity);
+        for (int leaf = 0; leaf < numLeaves; ++leaf) {
+            int from = leaf * leafCapacity;
+            int to = Math.min(order.size(), from + leafCapacity);
+            Object[] leafKeys = new Object[to - from];
+            int[] pageNumbers = new int[to - from];
+            int[] slots = new int[to - from];
+            for (int i = from; i < to; ++i) {
+                int entry = order.get(i);
+                leafKeys[i - from] = keys.get(entry);
+                pageNumbers[i - from] = recordIds.get(entry).getPageNumber();
+                slots[i - from] = recordIds.get(entry).getSlot();
+            }
+            // the leaves are the first pages, in order
+            int nextLeaf = leaf + 1 < numLeaves ? leaf + 1 : BPlusTreeNode.NO_PAGE;
+            levelPages.add(writer.append(BPlusTreeNode.leaf(leafKeys, pageNumbers, slots, nextLeaf)));
+            levelFirstKeys.add(leafKeys.length > 0 ? leafKeys[0] : null);
+        }
+
+        int height = 1;
+        while (levelPages.size() > 1) {
+            List<Object> parentFirstKeys = new ArrayList<>();
+            List<Integer> parentPages = new ArrayList<>();
+            for (int from = 0; from < levelPages.size(); from += internalCapacity) {
+                int to = Math.min(levelPages.size(), from + internalCapacity);
+                int[] children = new int[to - from];
+                Object[] separators = new Object[to - from - 1];
+                for (int i = from; i < to; ++i) {
+                    children[i - from] = levelPages.get(i);
+                    if (i > from) {
+                        separators[i - from - 1] = levelFirstKeys.get(i);
+                    }
+                }
+                parentPages.add(writer.append(BPlusTreeNode.internal(separators, children)));
+                parentFirstKeys.add(levelFirstKeys.get(from));
+            }
+            levelPages = parentPages;
+            levelFirstKeys = parentFirstKeys;
+            height++;
+        }
+
+        writer.close(new Metadata(levelPages.get(0), height, numLeaves, order.size(), leafCapacity));
+    }
+
+    /**
+     * Finds the records whose keys lie within the specified bounds.
+     *
+     * @param low The lower bound, or null if unbounded
+     * @param isLowInclusive Whether a key equal to the lower bound is in range
+     * @param high The upper bound, or null if unbounded
+     * @param isHighInclusive Whether a key equal to the upper bound is in range
+     * @return The record ids in key order
+     */
+    public List<RecordId> search(Object low, boolean isLowInclusive, Object high, boolean isHighInclusive)
+            throws IOException {
+        BPlusTreeNode node = (BPlusTreeNode) file.readPage(metadata.getRootPage());
+        while (!node.isLeaf) {
+            // a key equal to a separator may also end the child before it
+            int child = low == null ? 0 : countKeysBelow(node.keys, low);
+            node = (BPlusTreeNode) file.readPage(node.children[child]);
+        }
+
+        List<RecordId> recordIds = new ArrayList<>();
+        int i = low == null ? 0 : countKeysBelow(node.keys, low);
+        while (true) {
+            for (; i < node.keys.length; ++i) {
+                Object key = node.keys[i];
+                if (low != null && !isLowInclusive && Tuple.compareValues(key, low) == 0) {
+                    continue;
+                }
+                if (high != null) {
+                    int compareResult = Tuple.compareValues(key, high);
+                    if (compareResult > 0 || (compareResult == 0 && !isHighInclusive)) {
+                        return recordIds;
+                    }
+                }
+                recordIds.add(new RecordId(node.pageNumbers[i], node.slots[i]));
+            }
+            if (node.nextLeaf == BPlusTreeNode.NO_PAGE) {
+                return recordIds;
+            }
+            node = (BPlusTreeNode) file.readPage(node.nextLeaf);
+            i = 0;
+        }
+    }
+
+    /**
+     * Counts the sorted keys which are smaller than the specified key.
+     */
+    private static int countKeysBelow(Object[] keys, Object key) {
+        int from = 0;
+        int to = keys.length;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (Tuple.compareValues(keys[mid], key) < 0) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * The shape of an index, kept in the index file.
+     */
+    public static class Metadata implements Serializable {
+        private final int rootPage;
+        private final int height;
+        private final int numLeaves;
+        private final int numEntries;
+        private final int leafCapacity;
+
+        Metadata(int rootPage, int height, int numLeaves, int numEntries, int leafCapacity) {
+            this.rootPage = rootPage;
+            this.height = height;
+            this.numLeaves = numLeaves;
+            this.numEntries = numEntries;
+            this.leafCapacity = leafCapacity;
+        }
+
+        public int getRootPage() {
+            return rootPage;
+        }
+
+        /**
+         * The number of levels, counting the leaves.
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        public int getNumLeaves() {
+            return numLeaves;
+        }
+
+        public int getNumEntries() {
+            return numEntries;
+        }
+
+        /**
+         * The maximum number of entries of a leaf.
+         */
+        public int getLeafCapacity() {
+            return leafCapacity;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package qp.index;
+
+import java.io.Serializable;
+
+/**
+ * A node of a B+-tree, stored as one page of the index file.
+ * <p>
+ * An internal node holds the page numbers of its children, separated by
+ * the first key of every child but the first. A leaf holds its keys in
+ * order with the record id of each, and the page number of the next leaf.
+ */
+class BPlusTreeNode implements Serializable {
+    static final int NO_PAGE = -1;
+
+    final boolean isLeaf;
+    final Object[] keys;
+    final int[] children;     // Page numbers of the children of an internal node
+    final int[] pageNumbers;  // Table page numbers of the records of a leaf
+    final int[] slots;        // Slots of the records of a leaf
+    final int nextLeaf;       // Page number of the next leaf, or NO_PAGE
+
+    private BPlusTreeNode(boolean isLeaf, Object[] keys, int[] children, int[] pageNumbers, int[] slots,
+                          int nextLeaf) {
+        this.isLeaf = isLeaf;
+        this.keys = keys;
+        this.children = children;
+        this.pageNumbers = pageNumbers;
+        this.slots = slots;
+        this.nextLeaf = nextLeaf;
+    }
+
+    static BPlusTreeNode leaf(Object[] keys, int[] pageNumbers, int[] slots, int nextLeaf) {
+        return new BPlusTreeNode(true, keys, null, pageNumbers, slots, nextLeaf);
+    }
+
+    static BPlusTreeNode internal(Object[] separators, int[] children) {
+        return new BPlusTreeNode(false, separators, children, null, null, NO_PAGE);
+    }
+}
@@ -0,0 +1,345 @@
+package qp.index;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of non-negative integers, laid out in the manner of
+ * a Roaring bitmap.
+ * <p>
+ * The integers are grouped into chunks by their high 16 bits, and the low
+ * 16 bits of a chunk are kept in a container of one of two kinds: a sorted
+ * array for a sparse chunk of at most {@code 4096} integers, and a plain
+ * bitset of {@code 2^16} bits for a dense chunk. Either kind takes at most
+ * 8 KB, and the intersection and union of two bitmaps only combine the
+ * containers of the chunks the bitmaps share.
+ */
+public class Bitmap implements Serializable {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    /**
+     * The largest number of integers a container keeps in an array.
+     */
+    private static final int MAX_ARRAY_SIZE = 4096;
+
+    private int[] keys;               // High bits of the chunks, in increasing order
+    private Container[] containers;   // Low bits of the integers of each chunk
+    private int numChunks;
+
+    public Bitmap() {
+        keys = new int[4];
+        containers = new Container[4];
+        numChunks = 0;
+    }
+
+    /**
+     * Adds an integer to the set.
+     */
+    public void add(int value) {
+        int key = value >>> CHUNK_BITS;
+        char low = (char) value;
+        int chunk = Arrays.binarySearch(keys, 0, numChunks, key);
+        if (chunk >= 0) {
+            containers[chunk] = containers[chunk].add(low);
+            return;
+        }
+        chunk = -chunk - 1;
+        if (numChunks == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * numChunks);
+            containers = Arrays.copyOf(containers, 2 * numChunks);
+        }
+        System.arraycopy(keys, chunk, keys, chunk + 1, numChunks - chunk);
+        System.arraycopy(containers, chunk, containers, chunk + 1, numChunks - chunk);
+        keys[chunk] = key;
+        containers[chunk] = new ArrayContainer().add(low);
+        numChunks++;
+    }
+
+    public boolean contains(int value) {
+        int chunk = Arrays.binarySearch(keys, 0, numChunks, value >>> CHUNK_BITS);
+        return chunk >= 0 && containers[chunk].contains((char) value);
+    }
+
+    /**
+     * Gets the number of integers in the set.
+     */
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < numChunks; ++i) {
+            cardinality += containers[i].getCardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * Computes the intersection of this set and another.
+     */
+    public Bitmap and(Bitmap other) {
+        Bitmap result = new Bitmap();
+        int i = 0;
+        int j = 0;
+        while (i < numChunks && j < other.numChunks) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container container = containers[i].and(other.containers[j]);
+                if (container.getCardinality() > 0) {
+                    result.append(keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes the union of this set and another.
+     */
+    public Bitmap or(Bitmap other) {
+        Bitmap result = new Bitmap();
+        int i = 0;
+        int j = 0;
+        while (i < numChunks || j < other.numChunks) {
+            if (j >= other.numChunks || (i < numChunks && keys[i] < other.keys[j])) {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i >= numChunks || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.append(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Passes each integer of the set to the action, in increasing order.
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < numChunks; ++i) {
+            containers[i].forEach(keys[i] << CHUNK_BITS, action);
+        }
+    }
+
+    /**
+     * Adds a chunk after all the chunks of the set.
+     */
+    private void append(int key, Container container) {
+        if (numChunks == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * numChunks);
+            containers = Arrays.copyOf(containers, 2 * numChunks);
+        }
+        keys[numChunks] = key;
+        containers[numChunks] = container;
+        numChunks++;
+    }
+
+    /**
+     * The low 16 bits of the integers of a chunk.
+     */
+    private abstract static class Container implements Serializable {
+        abstract int getCardinality();
+
+        abstract boolean contains(char low);
+
+        /**
+         * Adds the low bits of an integer, returning the container which
+         * holds the result, either this or one of the other kind.
+         */
+        abstract Container add(char low);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container copy();
+
+        abstract void forEach(int high, IntConsumer action);
+    }
+
+    /**
+     * A container of a sparse chunk, as a sorted array.
+     */
+    private static class ArrayContainer extends Container {
+        private char[] values = new char[4];
+        private int size = 0;
+
+        @Override
+        int getCardinality() {
+            return size;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+        @Override
+        Container add(char low) {
+            int index = Arrays.binarySearch(values, 0, size, low);
+            if (index >= 0) {
+                return this;
+            }
+            if (size == MAX_ARRAY_SIZE) {
+                return toBitsetContainer().add(low);
+            }
+            index = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(MAX_ARRAY_SIZE, 2 * size));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = low;
+            size++;
+            return this;
+        }
+
+        @Override
+        Container and(Container other) {
+            ArrayContainer result = new ArrayContainer();
+            result.values = new char[Math.max(1, size)];
+            for (int i = 0; i < size; ++i) {
+                if (other.contains(values[i])) {
+                    result.values[result.size++] = values[i];
+                }
+            }
+            return result;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitsetContainer) {
+                return other.or(this);
+            }
+            ArrayContainer that = (ArrayContainer) other;
+            char[] merged = new char[size + that.size];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < size || j < that.size) {
+                if (j >= that.size || (i < size && values[i] < that.values[j])) {
+                    merged[k++] = values[i++];
+                } else if (i >= size || values[i] > that.values[j]) {
+                    merged[k++] = that.values[j++];
+                } else {
+                    merged[k++] = values[i++];
+                    j++;
+                }
+            }
+            ArrayContainer result = new ArrayContainer();
+            result.values = merged;
+            result.size = k;
+            return k > MAX_ARRAY_SIZE ? result.toBitsetContainer() : result;
+        }
+
+        @Override
+        Container copy() {
+            ArrayContainer result = new ArrayContainer();
+            result.values = Arrays.copyOf(values, values.length);
+            result.size = size;
+            return result;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < size; ++i) {
+                action.accept(high | values[i]);
+            }
+        }
+
+        private BitsetContainer toBitsetContainer() {
+            BitsetContainer bitset = new BitsetContainer();
+            for (int i = 0; i < size; ++i) {
+                bitset.add(values[i]);
+            }
+            return bitset;
+        }
+    }
+
+    /**
+     * A container of a dense chunk, as a bitset.
+     */
+    private static class BitsetContainer extends Container {
+        private final long[] words = new long[CHUNK_SIZE / Long.SIZE];
+        private int cardinality = 0;
+
+        @Override
+        int getCardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Container add(char low) {
+            if (!contains(low)) {
+                words[low >>> 6] |= 1L << low;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            BitsetContainer result = new BitsetContainer();
+            for (int i = 0; i < words.length; ++i) {
+                result.words[i] = words[i] & ((BitsetContainer) other).words[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+            return result.cardinality > MAX_ARRAY_SIZE ? result : result.toArrayContainer();
+        }
+
+        @Override
+        Container or(Container other) {
+            BitsetContainer result = (BitsetContainer) copy();
+            if (other instanceof ArrayContainer) {
+                other.forEach(0, value -> result.add((char) value));
+                return result;
+            }
+            result.cardinality = 0;
+            for (int i = 0; i < words.length; ++i) {
+                result.words[i] |= ((BitsetContainer) other).words[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+            return result;
+        }
+
+        @Override
+        Container copy() {
+            BitsetContainer result = new BitsetContainer();
+            System.arraycopy(words, 0, result.words, 0, words.length);
+            result.cardinality = cardinality;
+            return result;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < words.length; ++i) {
+                long word = words[i];
+                while (word != 0) {
+                    action.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        private ArrayContainer toArrayContainer() {
+            ArrayContainer array = new ArrayContainer();
+            array.values = new char[Math.max(1, cardinality)];
+            forEach(0, value -> array.values[array.size++] = (char) value);
+            return array;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package qp.index;
+
+import qp.storage.PageFile;
+import qp.storage.RecordId;
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * A bitmap index on an attribute of a table, suited to attributes with
+ * few distinct values.
+ * <p>
+ * Each distinct value has a compressed bitmap of the row numbers of the
+ * tuples holding it, where the row number of a tuple is its position in
+ * the table file. The index is built offline from the table file into an
+ * index file named {@code <table>.<column>.bmi}, and is read whole.
+ */
+public class BitmapIndex implements Serializable {
+    private static final String FILE_EXTENSION = ".bmi";
+
+    private final Object[] values;     // Distinct values of the attribute, in increasing order
+    private final Bitmap[] bitmaps;    // Rows holding each value
+    private final int[] pageFirstRows; // Row number of the first tuple of each page
+    private final int numRows;
+
+    private BitmapIndex(Object[] values, Bitmap[] bitmaps, int[] pageFirstRows, int numRows) {
+        this.values = values;
+        this.bitmaps = bitmaps;
+        this.pageFirstRows = pageFirstRows;
+        this.numRows = numRows;
+    }
+
+    public static String getFileName(Attribute attribute) {
+        return attribute.getTabName() + "." + attribute.getColName() + FILE_EXTENSION;
+    }
+
+    /**
+     * Checks whether a bitmap index has been built on the attribute. As
+     * with a B+-tree index, the index of a partitioned table is never used.
+     */
+    public static boolean exists(Attribute attribute) {
+        return new File(getFileName(attribute)).exists() && BPlusTree.isSingleFile(attribute.getTabName());
+    }
+
+    /**
+     * Gets the number of bytes of the index on the attribute.
+     */
+    public static long getFileSize(Attribute attribute) {
+        return new File(getFileName(attribute)).length();
+    }
+
+    public static BitmapIndex read(Attribute attribute) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(getFileName(attribute)))) {
+            return (BitmapIndex) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Builds the bitmap index of a column of a table file.
+     *
+     * @param tableFileName The name of the table file, whose pages are {@code Batch}es
+     * @param keyIndex The index of the column in the tuples
+     * @param indexFileName The name of the index file to write
+     */
+    public static void build(String tableFileName, int keyIndex, String indexFileName) throws IOException {
+        TreeMap<Object, Bitmap> valueBitmaps = new TreeMap<>(Tuple::compareValues);
+        PageFile table = PageFile.open(tableFileName);
+        int[] pageFirstRows = new int[table.getNumPages()];
+        int row = 0;
+        for (int p = 0; p < table.getNumPages(); ++p) {
+            Batch page = (Batch) table.readPage(p);
+            pageFirstRows[p] = row;
+            for (int slot = 0; slot < page.size(); ++slot, ++row) {
+                Object key = page.getRecord(slot).getData(keyIndex);
+                valueBitmaps.computeIfAbsent(key, k -> new Bitmap()).add(row);
+            }
+        }
+        table.close();
+
+        BitmapIndex index = new BitmapIndex(valueBitmaps.keySet().toArray(),
+                valueBitmaps.values().toArray(new Bitmap[0]), pageFirstRows, row);
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(indexFileName))) {
+            out.writeObject(index);
+        }
+    }
+
+    public int getNumValues() {
+        return values.length;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Finds the rows whose values satisfy a comparison, as the union of
+     * the bitmaps of all the satisfying values.
+     *
+     * @param exprtype The comparison type of {@code Condition}
+     * @param value The value compared against
+     * @return The satisfying rows
+     */
+    public Bitmap lookup(int exprtype, Object value) {
+        Bitmap rows = new Bitmap();
+        for (int i = 0; i < values.length; ++i) {
+            if (Condition.isSatisfied(exprtype, Tuple.compareValues(values[i], value))) {
+                rows = rows.or(bitmaps[i]);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Gets the record ids of the specified rows.
+     *
+     * @return The record ids in file order
+     */
+    public List<RecordId> toRecordIds(Bitmap rows) {
+        List<RecordId> recordIds = new ArrayList<>(rows.getCardinality());
+        rows.forEach(row -> {
+            int page = Arrays.binarySearch(pageFirstRows, row);
+            if (page < 0) {
+                page = -page - 2;
+            } else {
+                // skip any empty pages starting at the same row
+                while (page + 1 < pageFirstRows.length && pageFirstRows[page + 1] == row) {
+                    page++;
+                }
+            }
+            recordIds.add(new RecordId(page, row - pageFirstRows[page]));
+        });
+        return recordIds;
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Scans the tuples of a base table through bitmap indexes
+ **/
+
+package qp.operators;
+
+import qp.index.Bitmap;
+import qp.index.BitmapIndex;
+import qp.storage.RecordId;
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BitmapScan operator - read the tuples satisfying a conjunction of
+ * selection conditions from a file. The rows satisfying each condition
+ * are the union of the bitmaps of its satisfying values, and the rows
+ * satisfying all the conditions their intersection, which is found
+ * before any page of the file is read. The matching records are read in
+ * file order, so each page of the file is read at most once.
+ */
+public class BitmapScan extends Scan {
+
+    List<Condition> conditions;  // Selection conditions served by the bitmap indexes
+    Bitmap rows;                 // Rows satisfying all the conditions
+    List<RecordId> recordIds;    // Records of the rows, in file order
+    int recordCursor;            // Cursor within recordIds
+
+    public BitmapScan(String tabname, List<Condition> conditions) {
+        super(tabname);
+        this.conditions = conditions;
+    }
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * Checks whether a selection condition can be served by a bitmap index.
+     */
+    public static boolean isApplicable(Condition condition) {
+        return condition.getOpType() == Condition.SELECT && BitmapIndex.exists(condition.getLhs());
+    }
+
+    /**
+     * Open file and intersect the rows satisfying each condition
+     */
+    @Override
+    public boolean open() {
+        if (!super.open()) {
+            return false;
+        }
+        BitmapIndex index = null;
+        rows = null;
+        for (Condition condition : conditions) {
+            Attribute attr = condition.getLhs();
+            try {
+                index = BitmapIndex.read(attr);
+            } catch (IOException e) {
+                System.err.println("BitmapScan: Error reading index " + BitmapIndex.getFileName(attr));
+                return false;
+            }
+            Bitmap satisfyingRows = index.lookup(condition.getExprType(), condition.getRhsValue(getTableSchema().typeOf(attr)));
+            rows = rows == null ? satisfyingRows : rows.and(satisfyingRows);
+        }
+        recordIds = index != null ? index.toRecordIds(rows) : new ArrayList<>();
+        recordCursor = 0;
+        return true;
+    }
+
+    /**
+     * Gets the number of tuples satisfying all the conditions, without
+     * reading the file. The scan must be open.
+     */
+    public int getCardinality() {
+        return rows != null ? rows.getCardinality() : 0;
+    }
+
+    /**
+     * Next operator - get the next matching tuples from the file
+     **/
+    @Override
+    public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+        Batch tuples = new Batch(batchsize);
+        while (!tuples.isFull()) {
+            if (recordCursor >= recordIds.size()) {
+                eos = true;
+                return tuples;
+            }
+            Tuple data = fetch(recordIds.get(recordCursor++));
+            if (data != null) {
+                tuples.addRecord(data);
+            }
+        }
+        return tuples;
+    }
+
+    @Override
+    public Object clone() {
+        List<Condition> newconditions = new ArrayList<>();
+        for (Condition condition : conditions) {
+            newconditions.add((Condition) condition.clone());
+        }
+        BitmapScan newscan = new BitmapScan(tabname, newconditions);
+        copySchemaTo(newscan);
+        return newscan;
+    }
+}
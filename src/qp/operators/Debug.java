@@ -88,21 +88,38 @@ public class Debug {
                 int exprtype = ((Join) node).getJoinType();
                 switch (exprtype) {
                     case JoinType.PAGE_NESTED:
-                        System.out.print("PageNested(");
+                        System.out.print("PageNested");
                         break;
                     case JoinType.BLOCK_NESTED:
-                        System.out.print("BlockNested(");
+                        System.out.print("BlockNested");
                         break;
                     case JoinType.SORT_MERGE:
-                        System.out.print("SortMerge(");
+                        System.out.print("SortMerge");
                         break;
                     case JoinType.HASH:
-                        System.out.print("Hash(");
+                        System.out.print("Hash");
                         break;
+                    case JoinType.BAND:
+                        System.out.print("Band");
+                        break;
+                    case JoinType.INDEX_NESTED:
+                        System.out.print("IndexNested");
+                        break;
+                }
+                if (((Join) node).getNumBuff() > 0) {
+                    System.out.print("{" + ((Join) node).getNumBuff() + " pages}");
                 }
+                System.out.print("(");
                 PPrint(((Join) node).getLeft());
                 System.out.print("  [");
-                PPrint(((Join) node).getCondition());
+                boolean isFirstCondition = true;
+                for (Condition joinCondition : ((Join) node).getJoinConditions()) {
+                    if (!isFirstCondition) {
+                        System.out.print(", ");
+                    }
+                    PPrint(joinCondition);
+                    isFirstCondition = false;
+                }
                 System.out.print("]  ");
                 PPrint(((Join) node).getRight());
                 System.out.print(")");
@@ -123,6 +140,34 @@ public class Debug {
 
                 break;
             case OperatorType.SCAN:
+                if (node instanceof IndexScan) {
+                    System.out.print("IndexScan(" + ((Scan) node).getTabName() + "  ");
+                    boolean isFirstSelection = true;
+                    for (Condition condition : ((IndexScan) node).getConditions()) {
+                        if (!isFirstSelection) {
+                            System.out.print(", ");
+                        }
+                        System.out.print("'");
+                        PPrint(condition);
+                        isFirstSelection = false;
+                    }
+                    System.out.print(")");
+                    break;
+                }
+                if (node instanceof BitmapScan) {
+                    System.out.print("BitmapScan(" + ((Scan) node).getTabName() + "  ");
+                    boolean isFirstSelection = true;
+                    for (Condition condition : ((BitmapScan) node).getConditions()) {
+                        if (!isFirstSelection) {
+                            System.out.print(", ");
+                        }
+                        System.out.print("'");
+                        PPrint(condition);
+                        isFirstSelection = false;
+                    }
+                    System.out.print(")");
+                    break;
+                }
                 System.out.print(((Scan) node).getTabName());
                 break;
 
@@ -28,8 +28,8 @@ public class Distinct extends Operator {
     //boolean variable to check if end of line has been reached
     private boolean endOfLine = false;
 
-    // object containing sorted
-    private Sort sorted;
+    // object containing sorted, or the base operator if its output is sorted already
+    private Operator sorted;
 
     // Input Batch's current element's index
     private int inputBufferElementIndex;
@@ -72,7 +72,11 @@ public class Distinct extends Operator {
             attributeIndex.add(schema.indexOf(attribute));
         }
 
-        sorted = new Sort(baseOperator, originalList, Sort.Direction.ASC, BufferManager.getNumBuffer());
+        if (Sort.isGrouped(baseOperator, originalList)) {
+            sorted = baseOperator;
+        } else {
+            sorted = new Sort(baseOperator, originalList, Sort.Direction.ASC, BufferManager.getNumBuffer());
+        }
         return sorted.open();
     }
 
@@ -92,7 +96,7 @@ public class Distinct extends Operator {
 
         // if there is nothing in the input buffer, do next to see next
         if (inputBatch == null) {
-            inputBatch = sorted.next();
+            inputBatch = nextInputBatch();
         }
 
         // initialise output buffer to store the results
@@ -119,13 +123,26 @@ public class Distinct extends Operator {
             inputBufferElementIndex++;
             //if input batch is now full, restart the index and start a new inputBatch
             if (inputBufferElementIndex == inputBatch.size()) {
-                inputBatch = sorted.next();
+                inputBatch = nextInputBatch();
                 inputBufferElementIndex = 0;
             }
         }
         return outputBatch;
     }
 
+    /**
+     * Method gets the next non-empty batch of sorted input, as an unsorted
+     * base operator may return empty batches, e.g., a scan skipping pages
+     * @return the next batch, or null at the end of the input
+     */
+    private Batch nextInputBatch() {
+        Batch batch = sorted.next();
+        while (batch != null && batch.isEmpty()) {
+            batch = sorted.next();
+        }
+        return batch;
+    }
+
     /**
      * This method compares tuples to check if they are duplicates.
      * @param firstTuple for comparison
@@ -151,6 +168,14 @@ public class Distinct extends Operator {
         return sorted.close();
     }
 
+    /**
+     * Method will get the attributes on which duplicates are removed
+     * @return originalList
+     */
+    public List<Attribute> getAttributes() {
+        return originalList;
+    }
+
     /**
      * Method will get baseOperator
      * @return baseOperator
@@ -0,0 +1,141 @@
+/**
+ * Scans the tuples of a base table through an index
+ **/
+
+package qp.operators;
+
+import qp.index.BPlusTree;
+import qp.storage.RecordId;
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * IndexScan operator - read the tuples satisfying the selection conditions
+ * on an attribute from a file, looking them up in the B+-tree index of the
+ * attribute. The conditions are merged into a single range of keys, so
+ * e.g. a lower and an upper bound are served by one search. The matching
+ * records are read in file order, so each page of the file is read at
+ * most once.
+ */
+public class IndexScan extends Scan {
+
+    List<Condition> conditions;  // Selection conditions on the indexed attribute served by the index
+    List<RecordId> recordIds;    // Records satisfying the conditions, in file order
+    int recordCursor;            // Cursor within recordIds
+
+    public IndexScan(String tabname, List<Condition> conditions) {
+        super(tabname);
+        this.conditions = conditions;
+    }
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * Gets the indexed attribute, which all the conditions compare.
+     */
+    public Attribute getAttribute() {
+        return conditions.get(0).getLhs();
+    }
+
+    /**
+     * Checks whether a selection condition can be served by an index,
+     * i.e., the attribute is indexed and the comparison is not !=.
+     */
+    public static boolean isApplicable(Condition condition) {
+        return condition.getOpType() == Condition.SELECT
+                && condition.getExprType() != Condition.NOTEQUAL
+                && BPlusTree.exists(condition.getLhs());
+    }
+
+    /**
+     * Open file and look up the records satisfying the conditions in the
+     * index, within the tightest bounds which the conditions give
+     */
+    @Override
+    public boolean open() {
+        if (!super.open()) {
+            return false;
+        }
+        Attribute attr = getAttribute();
+        Object low = null;
+        boolean isLowInclusive = true;
+        Object high = null;
+        boolean isHighInclusive = true;
+        for (Condition condition : conditions) {
+            Object value = condition.getRhsValue(getTableSchema().typeOf(attr));
+            int exprtype = condition.getExprType();
+            if (exprtype == Condition.EQUAL || exprtype == Condition.GREATERTHAN || exprtype == Condition.GTOE) {
+                int compareResult = low == null ? 1 : Tuple.compareValues(value, low);
+                if (compareResult > 0) {
+                    low = value;
+                    isLowInclusive = exprtype != Condition.GREATERTHAN;
+                } else if (compareResult == 0 && exprtype == Condition.GREATERTHAN) {
+                    isLowInclusive = false;
+                }
+            }
+            if (exprtype == Condition.EQUAL || exprtype == Condition.LESSTHAN || exprtype == Condition.LTOE) {
+                int compareResult = high == null ? -1 : Tuple.compareValues(value, high);
+                if (compareResult < 0) {
+                    high = value;
+                    isHighInclusive = exprtype != Condition.LESSTHAN;
+                } else if (compareResult == 0 && exprtype == Condition.LESSTHAN) {
+                    isHighInclusive = false;
+                }
+            }
+        }
+        try {
+            BPlusTree index = BPlusTree.open(attr);
+            recordIds = index.search(low, isLowInclusive, high, isHighInclusive);
+            index.close();
+        } catch (IOException e) {
+            System.err.println("IndexScan: Error reading index " + BPlusTree.getFileName(attr));
+            return false;
+        }
+        Collections.sort(recordIds);
+        recordCursor = 0;
+        return true;
+    }
+
+    /**
+     * Next operator - get the next matching tuples from the file
+     **/
+    @Override
+    public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+        Batch tuples = new Batch(batchsize);
+        while (!tuples.isFull()) {
+            if (recordCursor >= recordIds.size()) {
+                eos = true;
+                return tuples;
+            }
+            Tuple data = fetch(recordIds.get(recordCursor++));
+            if (data != null) {
+                tuples.addRecord(data);
+            }
+        }
+        return tuples;
+    }
+
+    @Override
+    public Object clone() {
+        List<Condition> newconditions = new ArrayList<>();
+        for (Condition condition : conditions) {
+            newconditions.add((Condition) condition.clone());
+        }
+        IndexScan newscan = new IndexScan(tabname, newconditions);
+        copySchemaTo(newscan);
+        return newscan;
+    }
+}
@@ -16,7 +16,7 @@ import java.util.List;
 public class OrderBy extends Operator {
     private Operator base;
 
-    private Sort sort;
+    private Operator sort;  // The sorted base, or the base itself if it is in order already
     private final List<Attribute> orderByAttributes;
     private final Sort.Direction sortDirection;
 
@@ -36,12 +36,20 @@ public class OrderBy extends Operator {
         this.base = base;
     }
 
+    public List<Attribute> getOrderByAttributes() {
+        return orderByAttributes;
+    }
+
     public Sort.Direction getSortDirection() {
         return sortDirection;
     }
 
     @Override
     public boolean open() {
+        if (sortDirection == Sort.Direction.ASC && Sort.isSorted(base, orderByAttributes)) {
+            sort = base;
+            return base.open();
+        }
         sort = new Sort(base, orderByAttributes, sortDirection, BufferManager.getNumBuffer());
         sort.setSchema(base.getSchema());
         return sort.open();
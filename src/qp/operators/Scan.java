@@ -4,25 +4,70 @@
 
 package qp.operators;
 
+import qp.optimizer.BufferManager;
+import qp.storage.BufferPool;
+import qp.storage.PageFile;
+import qp.storage.Partitioning;
+import qp.storage.RecordId;
+import qp.storage.ZoneMap;
+import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.RuntimeFilter;
 import qp.utils.Schema;
 import qp.utils.Tuple;
 
-import java.io.EOFException;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
- * Scan operator - read data from a file
+ * Scan operator - read data from a file, or from the files of the
+ * partitions of a partitioned table which may satisfy the pushed
+ * conditions, one after another or by multiple worker threads
  */
 public class Scan extends Operator {
 
+    private static int numWorkers = 1;
+
+    /**
+     * Marks that a worker has read all its partitions
+     **/
+    private static final Batch END_OF_WORKER = new Batch(0);
+
     String filename;       // Corresponding file name
     String tabname;        // Table name
     int batchsize;         // Number of tuples per out batch;
-    ObjectInputStream in;  // Input file being scanned
+    TableFileReader reader;  // Reader of the file being scanned
+    List<String> partitionFiles;  // Files of the partitions to read, or the file of the table
+    int partitionCursor;   // Index of the file being read in partitionFiles
+    int fetchedPageNumber; // Number of the page held in fetchedPage
+    Batch fetchedPage;     // Page of the last record fetched by its record id
     boolean eos;           // To indicate whether end of stream reached or not
+    Schema tableSchema;    // Schema of the table file, or null if all its columns are returned
+    int[] projectedIndices;  // Indices of the returned columns in the table file, or null if all are
+
+    /**
+     * Filters pushed down by joins, which every tuple read must pass,
+     * and the indices of their attributes
+     **/
+    List<RuntimeFilter> runtimeFilters = new ArrayList<>();
+    List<Integer> runtimeFilterIndices = new ArrayList<>();
+
+    /**
+     * Selection conditions pushed down by selects, by which the pages
+     * are skipped if their zone maps rule out all their tuples
+     **/
+    List<Condition> pushedConditions = new ArrayList<>();
+    int[] pushedIndices;           // Indices of the attributes of the pushed conditions
+    Object[] pushedValues;         // Constants of the pushed conditions
+
+    Thread[] workers;              // Workers reading the partitions in parallel, or null
+    BlockingQueue<Batch> outputQueue;
+    int numWorkersRunning;
+    volatile Throwable workerFailure;  // Failure of a worker, which fails the scan
 
     /**
      * Constructor - just save filename
@@ -33,10 +78,126 @@ public class Scan extends Operator {
         filename = tabname + ".tbl";
     }
 
+    /**
+     * Sets the number of worker threads reading the partitions of a
+     * * partitioned table, for all subsequently opened scans
+     *
+     * @param workers The number of workers; 1 reads the partitions in order
+     **/
+    public static void setNumWorkers(int workers) {
+        numWorkers = Math.max(1, workers);
+    }
+
+    public static int getNumWorkers() {
+        return numWorkers;
+    }
+
     public String getTabName() {
         return tabname;
     }
 
+    /**
+     * Gets the schema of the tuples in the table file, which may have
+     * * more columns than the tuples returned
+     **/
+    public Schema getTableSchema() {
+        return tableSchema != null ? tableSchema : schema;
+    }
+
+    /**
+     * Narrows the tuples returned down to the specified columns of the
+     * * table, in their order in the table, so the operators above carry
+     * * only the columns the query uses
+     **/
+    public void setProjection(List<Attribute> attributes) {
+        Schema fullSchema = getTableSchema();
+        List<Attribute> projected = new ArrayList<>();
+        for (Attribute attribute : fullSchema.getAttList()) {
+            if (attributes.contains(attribute)) {
+                projected.add(attribute);
+            }
+        }
+        if (projected.isEmpty()) {
+            // a tuple must still be returned for each tuple of the table
+            projected.add(fullSchema.getAttribute(0));
+        }
+        if (projected.size() == fullSchema.getNumCols()) {
+            tableSchema = null;
+            schema = fullSchema;
+            return;
+        }
+        Schema projectedSchema = fullSchema.subSchema(projected);
+        // the order of the table is kept up to the first column of its clustering key not returned
+        List<Attribute> clusteringKey = new ArrayList<>();
+        for (Attribute attribute : fullSchema.getClusteringKey()) {
+            if (!projected.contains(attribute)) {
+                break;
+            }
+            clusteringKey.add(attribute);
+        }
+        projectedSchema.setClusteringKey(clusteringKey);
+        projectedSchema.setPartitioning(fullSchema.getPartitioning());
+        tableSchema = fullSchema;
+        schema = projectedSchema;
+    }
+
+    /**
+     * Narrows a tuple of the table file down to the columns returned
+     **/
+    Tuple project(Tuple data) {
+        if (projectedIndices == null) {
+            return data;
+        }
+        ArrayList<Object> values = new ArrayList<>(projectedIndices.length);
+        for (int index : projectedIndices) {
+            values.add(data.getData(index));
+        }
+        return new Tuple(values);
+    }
+
+    /**
+     * Checks whether the tuples are returned in the order of the clustering
+     * * key of the table. The partitions of a table are read in order, which
+     * * keeps the order only if they are ranges of the leading key, and
+     * * the partitions read in parallel are returned in no particular order
+     **/
+    public boolean isReadInClusteringOrder() {
+        Schema fullSchema = getTableSchema();
+        Partitioning partitioning = fullSchema.getPartitioning();
+        if (partitioning == null || partitioning.getNumPartitions() == 1) {
+            return true;
+        }
+        return numWorkers == 1 && partitioning.getType() == Partitioning.RANGE
+                && !fullSchema.getClusteringKey().isEmpty()
+                && fullSchema.getClusteringKey().get(0).equals(partitioning.getAttribute());
+    }
+
+    /**
+     * Adds a filter which the tuples must pass to be returned
+     **/
+    public void addRuntimeFilter(RuntimeFilter filter) {
+        runtimeFilters.add(filter);
+        runtimeFilterIndices.add(getTableSchema().indexOf(filter.getAttribute()));
+    }
+
+    public void removeRuntimeFilter(RuntimeFilter filter) {
+        int index = runtimeFilters.indexOf(filter);
+        if (index >= 0) {
+            runtimeFilters.remove(index);
+            runtimeFilterIndices.remove(index);
+        }
+    }
+
+    /**
+     * Adds a selection condition on the table, whose tuples are still
+     * * returned, to skip the pages which cannot satisfy it
+     **/
+    public void pushCondition(Condition condition) {
+        if (!pushedConditions.contains(condition)) {
+            pushedConditions.add(condition);
+        }
+    }
+
     /**
      * Open file prepare a stream pointer to read input file
      */
@@ -45,15 +206,132 @@ public class Scan extends Operator {
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
         eos = false;
-        try {
-            in = new ObjectInputStream(new FileInputStream(filename));
-        } catch (Exception e) {
-            System.err.println(" Error reading " + filename);
-            return false;
+        Schema fullSchema = getTableSchema();
+        projectedIndices = null;
+        if (tableSchema != null) {
+            projectedIndices = new int[schema.getNumCols()];
+            for (int i = 0; i < projectedIndices.length; ++i) {
+                projectedIndices[i] = fullSchema.indexOf(schema.getAttribute(i));
+            }
+        }
+        pushedIndices = new int[pushedConditions.size()];
+        pushedValues = new Object[pushedConditions.size()];
+        for (int i = 0; i < pushedConditions.size(); ++i) {
+            Condition condition = pushedConditions.get(i);
+            pushedIndices[i] = fullSchema.indexOf(condition.getLhs());
+            pushedValues[i] = condition.getRhsValue(fullSchema.typeOf(condition.getLhs()));
+        }
+        partitionFiles = getPartitionFiles();
+        partitionCursor = 0;
+        fetchedPageNumber = -1;
+        fetchedPage = null;
+        if (partitionFiles.size() > 1 && numWorkers > 1) {
+            startWorkers();
+            return true;
+        }
+        reader = null;
+        if (!partitionFiles.isEmpty()) {
+            reader = openReader(partitionFiles.get(0));
+            if (reader == null) {
+                return false;
+            }
         }
         return true;
     }
 
+    /**
+     * Gets the files to read: the file of the table if it is not
+     * * partitioned, or else the files of the partitions which may
+     * * satisfy the pushed conditions on the partitioning column, in order
+     **/
+    List<String> getPartitionFiles() {
+        List<String> files = new ArrayList<>();
+        Partitioning partitioning = getTableSchema().getPartitioning();
+        if (partitioning == null) {
+            files.add(filename);
+            return files;
+        }
+        int partitionIndex = getTableSchema().indexOf(partitioning.getAttribute());
+        for (int p = 0; p < partitioning.getNumPartitions(); ++p) {
+            boolean mightSatisfy = true;
+            for (int i = 0; i < pushedIndices.length && mightSatisfy; ++i) {
+                if (pushedIndices[i] == partitionIndex) {
+                    mightSatisfy = partitioning.mightSatisfy(p, pushedConditions.get(i).getExprType(), pushedValues[i]);
+                }
+            }
+            if (mightSatisfy) {
+                files.add(Partitioning.getFileName(tabname, p));
+            }
+        }
+        return files;
+    }
+
+    TableFileReader openReader(String fileName) {
+        TableFileReader fileReader = new TableFileReader(fileName);
+        if (!fileReader.open()) {
+            System.err.println(" Error reading " + fileName);
+            return null;
+        }
+        return fileReader;
+    }
+
+    /**
+     * Starts the workers, which read every W-th partition to read for
+     * * W workers, and hand their full pages of tuples to the parent
+     **/
+    private void startWorkers() {
+        int workerCount = Math.min(numWorkers, partitionFiles.size());
+        outputQueue = new ArrayBlockingQueue<>(2 * workerCount);
+        workerFailure = null;
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; ++i) {
+            int workerIndex = i;
+            workers[i] = new Thread(() -> readPartitions(workerIndex, workerCount));
+            workers[i].start();
+        }
+        numWorkersRunning = workerCount;
+    }
+
+    private void readPartitions(int workerIndex, int workerCount) {
+        try {
+            Batch tuples = new Batch(batchsize);
+            for (int p = workerIndex; p < partitionFiles.size(); p += workerCount) {
+                TableFileReader fileReader = openReader(partitionFiles.get(p));
+                if (fileReader == null) {
+                    System.exit(1);
+                }
+                try {
+                    Tuple data;
+                    while ((data = fileReader.nextTuple()) != null) {
+                        tuples.addRecord(project(data));
+                        if (tuples.isFull()) {
+                            outputQueue.put(tuples);
+                            tuples = new Batch(batchsize);
+                        }
+                    }
+                } finally {
+                    // unpins the page being read and closes the file, also when the scan is closed meanwhile
+                    fileReader.close();
+                }
+            }
+            if (!tuples.isEmpty()) {
+                outputQueue.put(tuples);
+            }
+        } catch (InterruptedException e) {
+            // the scan is closed before all its tuples are consumed, and the interrupt is kept so that
+            // the end of the worker, which is taken by no one, is not waited for
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException | Error e) {
+            workerFailure = e;
+        } finally {
+            try {
+                outputQueue.put(END_OF_WORKER);
+            } catch (InterruptedException e) {
+                // the scan is closed
+            }
+        }
+    }
+
     /**
      * Next operator - get a tuple from the file
      **/
@@ -63,37 +341,105 @@ public class Scan extends Operator {
             close();
             return null;
         }
+        if (workers != null) {
+            return nextFromWorkers();
+        }
         Batch tuples = new Batch(batchsize);
         while (!tuples.isFull()) {
-            try {
-                Tuple data = (Tuple) in.readObject();
-                tuples.addRecord(data);
-            } catch (ClassNotFoundException cnf) {
-                System.err.println("Scan:Class not found for reading file  " + filename);
-                System.exit(1);
-            } catch (EOFException EOF) {
+            Tuple data = reader != null ? reader.nextTuple() : null;
+            if (data != null) {
+                tuples.addRecord(project(data));
+                continue;
+            }
+            if (partitionCursor + 1 >= partitionFiles.size()) {
                 /** At this point incomplete page is sent and at next call it considered
                  ** as end of file
                  **/
                 eos = true;
                 return tuples;
-            } catch (IOException e) {
-                System.err.println("Scan:Error reading " + filename);
+            }
+            reader.close();
+            reader = openReader(partitionFiles.get(++partitionCursor));
+            if (reader == null) {
                 System.exit(1);
             }
         }
         return tuples;
     }
 
+    private Batch nextFromWorkers() {
+        while (numWorkersRunning > 0) {
+            Batch tuples;
+            try {
+                tuples = outputQueue.take();
+            } catch (InterruptedException e) {
+                System.err.println("Scan: Interrupted while waiting for the workers");
+                return null;
+            }
+            if (tuples == END_OF_WORKER) {
+                if (workerFailure != null) {
+                    System.err.println("Scan: A worker reading " + tabname + " failed: " + workerFailure);
+                    System.exit(1);
+                }
+                numWorkersRunning--;
+                continue;
+            }
+            return tuples;
+        }
+        eos = true;
+        close();
+        return null;
+    }
+
+    /**
+     * Reads the tuple with the specified record id from the opened file.
+     * * The page of the tuple is kept, so fetching the records of a page
+     * * one after another reads the page once. The table must not be
+     * * partitioned
+     *
+     * @return The tuple, or null if it does not pass the runtime filters
+     **/
+    public Tuple fetch(RecordId recordId) {
+        if (recordId.getPageNumber() != fetchedPageNumber) {
+            fetchedPage = reader.readPage(recordId.getPageNumber());
+            fetchedPageNumber = recordId.getPageNumber();
+        }
+        Tuple data = fetchedPage.getRecord(recordId.getSlot());
+        return passesRuntimeFilters(data) ? project(data) : null;
+    }
+
+    boolean passesRuntimeFilters(Tuple data) {
+        return passesRuntimeFilters(data, runtimeFilters, runtimeFilterIndices);
+    }
+
+    static boolean passesRuntimeFilters(Tuple data, List<RuntimeFilter> filters, List<Integer> filterIndices) {
+        for (int i = 0; i < filters.size(); ++i) {
+            if (!filters.get(i).mightContain(data.getData(filterIndices.get(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Close the file.. This routine is called when the end of filed
      * * is already reached
      **/
     public boolean close() {
-        try {
-            in.close();
-        } catch (IOException e) {
-            System.err.println("Scan: Error closing " + filename);
+        if (workers != null) {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    System.err.println("Scan: Interrupted while stopping the workers");
+                }
+            }
+            workers = null;
+        }
+        if (reader != null && !reader.close()) {
             return false;
         }
         return true;
@@ -102,8 +448,248 @@ public class Scan extends Operator {
     public Object clone() {
         String newtab = tabname;
         Scan newscan = new Scan(newtab);
-        newscan.setSchema((Schema) schema.clone());
+        copySchemaTo(newscan);
         return newscan;
     }
 
+    /**
+     * Sets the schema and the projection of a copy of the scan
+     **/
+    void copySchemaTo(Scan newscan) {
+        newscan.setSchema((Schema) getTableSchema().clone());
+        if (tableSchema != null) {
+            newscan.setProjection(schema.getAttList());
+        }
+    }
+
+    /**
+     * Reads the pages of a table file which may hold tuples satisfying
+     * the pushed conditions, and returns their tuples which pass the
+     * runtime filters
+     */
+    class TableFileReader {
+        final String fileName;
+        PageFile file;         // Input file being scanned
+        ZoneMap[] zoneMaps;    // Zone map of each page, or null if the file has none
+        int pageNumber;        // Number of the next page of the file to read
+        int endPageNumber;     // Number of the page after the last page which may satisfy the conditions
+        Batch page;            // Page of the file being read
+        int pageCursor;        // Cursor within the page being read
+        int pinnedPageNumber;  // Number of the page pinned in the buffer pool, or -1
+        boolean isReadOnce;    // Whether the pages read in order are evicted once read, as the pool cannot hold them
+        boolean isPinnedReadOnce;  // Whether the pinned page is evicted once unpinned
+
+        /**
+         * The runtime filters when the file is opened, which a worker
+         * keeps using while the join owning them removes them
+         **/
+        final List<RuntimeFilter> filters = new ArrayList<>(runtimeFilters);
+        final List<Integer> filterIndices = new ArrayList<>(runtimeFilterIndices);
+
+        TableFileReader(String fileName) {
+            this.fileName = fileName;
+        }
+
+        boolean open() {
+            try {
+                file = PageFile.open(fileName);
+            } catch (IOException e) {
+                return false;
+            }
+            zoneMaps = file.getMetadata() instanceof ZoneMap[] ? (ZoneMap[]) file.getMetadata() : null;
+            pinnedPageNumber = -1;
+            pageNumber = 0;
+            endPageNumber = file.getNumPages();
+            searchClusteredRange();
+            isReadOnce = endPageNumber - pageNumber > BufferManager.getNumPoolBuffers();
+            page = null;
+            pageCursor = 0;
+            return true;
+        }
+
+        /**
+         * Gets the next tuple of the pages in range which passes the runtime filters
+         *
+         * @return The tuple, or null at the end of the pages in range
+         **/
+        Tuple nextTuple() {
+            while (true) {
+                if (page == null || pageCursor >= page.size()) {
+                    if (pageNumber >= endPageNumber) {
+                        return null;
+                    }
+                    if (!mightHoldMatches(pageNumber)) {
+                        pageNumber++;
+                        continue;
+                    }
+                    page = readPage(pageNumber++, isReadOnce);
+                    pageCursor = 0;
+                    continue;
+                }
+                Tuple data = page.getRecord(pageCursor++);
+                if (passesRuntimeFilters(data, filters, filterIndices)) {
+                    return data;
+                }
+            }
+        }
+
+        /**
+         * Narrows the pages to read down to those which may satisfy the pushed
+         * * conditions on the leading clustering key, if the table is clustered.
+         * * As the pages are in order of the key, the first and last of them
+         * * are found by binary search over the bounds of the pages
+         **/
+        void searchClusteredRange() {
+            List<Attribute> clusteringKey = getTableSchema().getClusteringKey();
+            if (clusteringKey.isEmpty()) {
+                return;
+            }
+            int keyIndex = getTableSchema().indexOf(clusteringKey.get(0));
+            for (int i = 0; i < pushedIndices.length; ++i) {
+                if (pushedIndices[i] != keyIndex) {
+                    continue;
+                }
+                int exprtype = pushedConditions.get(i).getExprType();
+                Object value = pushedValues[i];
+                if (exprtype == Condition.GREATERTHAN || exprtype == Condition.GTOE || exprtype == Condition.EQUAL) {
+                    // the first page whose largest key satisfies the lower bound
+                    int boundType = exprtype == Condition.EQUAL ? Condition.GTOE : exprtype;
+                    int first = searchFirstPage(pageNumber, endPageNumber, keyIndex, false, boundType, value, true);
+                    if (first < 0) {
+                        return;
+                    }
+                    pageNumber = first;
+                }
+                if (exprtype == Condition.LESSTHAN || exprtype == Condition.LTOE || exprtype == Condition.EQUAL) {
+                    // the first page whose smallest key violates the upper bound
+                    int boundType = exprtype == Condition.EQUAL ? Condition.LTOE : exprtype;
+                    int end = searchFirstPage(pageNumber, endPageNumber, keyIndex, true, boundType, value, false);
+                    if (end < 0) {
+                        return;
+                    }
+                    endPageNumber = end;
+                }
+            }
+        }
+
+        /**
+         * Finds the first page within a range whose smallest or largest key
+         * * has the specified outcome of a comparison, which is monotonic over
+         * * the pages of a clustered table
+         *
+         * @return The number of the page, the end of the range if there is
+         * none, or -1 if a page of the range is empty
+         **/
+        private int searchFirstPage(int low, int high, int keyIndex, boolean isMin, int exprtype, Object value,
+                                    boolean outcome) {
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                Object key = getPageBound(mid, keyIndex, isMin);
+                if (key == null) {
+                    return -1;
+                }
+                if (Condition.isSatisfied(exprtype, Tuple.compareValues(key, value)) == outcome) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Gets the smallest or largest key of a page of a clustered table, from
+         * * its zone map if the file has one, or else from its first or last tuple
+         *
+         * @return The key, or null if the page holds no key
+         **/
+        private Object getPageBound(int pageNumber, int keyIndex, boolean isMin) {
+            if (zoneMaps != null) {
+                return isMin ? zoneMaps[pageNumber].getMin(keyIndex) : zoneMaps[pageNumber].getMax(keyIndex);
+            }
+            Batch bounded = readPage(pageNumber);
+            if (bounded.isEmpty()) {
+                return null;
+            }
+            return bounded.getRecord(isMin ? 0 : bounded.size() - 1).getData(keyIndex);
+        }
+
+        /**
+         * Reads the page of the file with the specified number through the
+         * * buffer pool, where it stays pinned until the next page is read
+         **/
+        Batch readPage(int pageNumber) {
+            return readPage(pageNumber, false);
+        }
+
+        /**
+         * Reads a page through the buffer pool, which evicts it once it is
+         * * unpinned if it is read only once
+         **/
+        Batch readPage(int pageNumber, boolean isReadOnce) {
+            unpinPage();
+            try {
+                Batch read = (Batch) BufferPool.getInstance().pin(file, pageNumber);
+                pinnedPageNumber = pageNumber;
+                isPinnedReadOnce = isReadOnce;
+                return read;
+            } catch (IOException e) {
+                System.err.println("Scan:Error reading " + fileName);
+                System.exit(1);
+                return null;
+            }
+        }
+
+        /**
+         * Checks the zone map of a page against the pushed conditions and the
+         * * ranges of the runtime filters
+         *
+         * @return False if no tuple of the page can satisfy all of them
+         **/
+        boolean mightHoldMatches(int pageNumber) {
+            if (zoneMaps == null) {
+                return true;
+            }
+            ZoneMap zoneMap = zoneMaps[pageNumber];
+            for (int i = 0; i < pushedIndices.length; ++i) {
+                if (!zoneMap.mightSatisfy(pushedIndices[i], pushedConditions.get(i).getExprType(), pushedValues[i])) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < filters.size(); ++i) {
+                int index = filterIndices.get(i);
+                if (!filters.get(i).mightOverlap(zoneMap.getMin(index), zoneMap.getMax(index))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void unpinPage() {
+            if (pinnedPageNumber >= 0) {
+                try {
+                    if (isPinnedReadOnce) {
+                        BufferPool.getInstance().unpinReadOnce(file, pinnedPageNumber);
+                    } else {
+                        BufferPool.getInstance().unpin(file, pinnedPageNumber);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Scan:Error writing a page evicted from the buffer pool");
+                    System.exit(1);
+                }
+                pinnedPageNumber = -1;
+            }
+        }
+
+        boolean close() {
+            unpinPage();
+            try {
+                file.close();
+            } catch (IOException e) {
+                System.err.println("Scan: Error closing " + fileName);
+                return false;
+            }
+            return true;
+        }
+    }
 }
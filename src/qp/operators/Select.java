@@ -57,6 +57,15 @@ public class Select extends Operator {
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
 
+        /** Let the scan below skip the pages which cannot satisfy the condition **/
+        Operator scan = base;
+        while (scan.getOpType() == OperatorType.SELECT) {
+            scan = ((Select) scan).getBase();
+        }
+        if (scan.getOpType() == OperatorType.SCAN) {
+            ((Scan) scan).pushCondition(con);
+        }
+
         if (base.open())
             return true;
         else
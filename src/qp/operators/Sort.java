@@ -1,5 +1,11 @@
 package qp.operators;
 
+import qp.operators.joins.Join;
+import qp.operators.joins.JoinType;
+import qp.operators.projects.Project;
+import qp.optimizer.BufferManager;
+import qp.storage.BufferPool;
+import qp.storage.PageFile;
 import qp.utils.*;
 
 import java.io.*;
@@ -8,14 +14,28 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
 
 /**
  * The External Sort algorithm.
+ * <p>
+ * Unless the final merge is pipelined, the runs are merged into a single
+ * final run, which is written as a page file. Its pages can then be read
+ * again by number, and the output can be rewound to a marked page, so an
+ * operator which backtracks over the sorted output (e.g., over a group of
+ * equal join keys) reads it in place instead of copying it aside. The
+ * pages of the final run are read through the buffer pool, so the pages
+ * read again are often still cached.
  */
 public class Sort extends Operator {
     private static int uniqueFileNumber = 0;
     private static final String FILE_PREFIX = "ext-sort";
     private static final String UNSORTED_FILE = "ext-sort_unsorted";
+    /**
+     * The minimum number of buffer pages to merge runs.
+     */
+    private static final int MIN_NUM_PAGES = 3;
 
     private final Operator base;
     private final Direction sortDirection;
@@ -23,18 +43,58 @@ public class Sort extends Operator {
     private final List<Integer> sortIndices;
     private final Comparator<Tuple> recordComparator;
     private final int numPages;
+    /**
+     * The number of buffer pages reserved, which the runs are sorted and
+     * merged with, and which is reduced to the pages of the final merge
+     * once the runs are merged.
+     */
+    private int numReservedPages;
+    private final boolean isFinalMergePipelined;
     private List<Batch> inputPages;
+    /**
+     * Sees every input tuple as the input is read, or null if none.
+     */
+    private Consumer<Tuple> inputObserver;
+
+    private int numInputPages;
 
-    private String finalSortedRun;
-    private ObjectInputStream sortedRecordsInputStream;
+    private List<String> finalSortedRuns;
+    /**
+     * The single final sorted run, or null if the final merge is pipelined.
+     */
+    private PageFile finalRun;
+    private int pageNumber;        // Number of the page of the final run last returned by next()
+    private int pinnedPageNumber;  // Number of the page of the final run pinned for next(), or -1
+    private int markedPageNumber;  // Number of the page of the final run next() returns on a restore
+    /**
+     * Readers of the final sorted runs, ordered by their next record.
+     */
+    private PriorityQueue<TupleReader> finalMergeHeap;
     private boolean isEndOfStream;
 
     /**
      * Constructs an instance with an allocated buffer size.
      *
-     * @param numPages The buffer size
+     * @param numPages The number of buffer pages to request from the {@code BufferManager}
      */
     public Sort(Operator base, List<Attribute> sortAttributes, Sort.Direction sortDirection, int numPages) {
+        this(base, sortAttributes, sortDirection, numPages, false);
+    }
+
+    /**
+     * Constructs an instance with an allocated buffer size, which
+     * optionally leaves the final merge to be done on the fly.
+     * <p>
+     * With a pipelined final merge, the sorted runs are merged only
+     * until at most {@code numPages} of them remain, one input page
+     * each. {@code next()} then merges these runs directly into the
+     * consumer, which saves writing and reading back a single run.
+     *
+     * @param numPages The number of buffer pages to request from the {@code BufferManager}
+     * @param isFinalMergePipelined Whether the final merge is done on the fly
+     */
+    public Sort(Operator base, List<Attribute> sortAttributes, Sort.Direction sortDirection, int numPages,
+                boolean isFinalMergePipelined) {
         super(OperatorType.ORDER);
         this.base = base;
         this.schema = base.getSchema();
@@ -45,9 +105,101 @@ public class Sort extends Operator {
         recordComparator = generateTupleComparator(this.sortDirection, this.sortIndices);
 
         this.numPages = numPages;
+        this.isFinalMergePipelined = isFinalMergePipelined;
         inputPages = new ArrayList<>(numPages);
     }
 
+    /**
+     * Sets an observer which sees every input tuple as the input is
+     * read during {@code open()}.
+     *
+     * @param inputObserver The observer of the input tuples
+     */
+    public void setInputObserver(Consumer<Tuple> inputObserver) {
+        this.inputObserver = inputObserver;
+    }
+
+    /**
+     * Gets the attributes on which the output of an operator is known to
+     * be in ascending order, most significant first. The order starts at
+     * the clustering key of a scanned table, and is kept by selections,
+     * projections of its leading attributes, and Sort-Merge joins, which
+     * also produce the order of their left join attributes, as do the
+     * ascending sorts of ORDERBY and DISTINCT.
+     *
+     * @param operator The operator of the output
+     * @return The attributes of the order, or an empty list if the order is unknown
+     */
+    public static List<Attribute> getOutputOrder(Operator operator) {
+        switch (operator.getOpType()) {
+            case OperatorType.SCAN:
+                // the scans through indexes also read the records in file order
+                return ((Scan) operator).isReadInClusteringOrder()
+                        ? operator.getSchema().getClusteringKey() : new ArrayList<>();
+            case OperatorType.SELECT:
+                return getOutputOrder(((Select) operator).getBase());
+            case OperatorType.PROJECT: {
+                Project project = (Project) operator;
+                List<Attribute> order = new ArrayList<>();
+                for (Attribute attribute : getOutputOrder(project.getBase())) {
+                    if (!project.getProjAttr().contains(attribute)) {
+                        break;
+                    }
+                    order.add(attribute);
+                }
+                return order;
+            }
+            case OperatorType.JOIN: {
+                Join join = (Join) operator;
+                List<Attribute> order = new ArrayList<>();
+                if (join.getJoinType() == JoinType.SORT_MERGE) {
+                    for (Condition joinCondition : join.getJoinConditions()) {
+                        order.add(joinCondition.getLhs());
+                    }
+                }
+                return order;
+            }
+            case OperatorType.ORDER:
+                if (operator instanceof OrderBy) {
+                    OrderBy orderBy = (OrderBy) operator;
+                    if (orderBy.getSortDirection() == Direction.ASC) {
+                        return orderBy.getOrderByAttributes();
+                    }
+                    return isSorted(orderBy.getBase(), orderBy.getOrderByAttributes())
+                            ? getOutputOrder(orderBy.getBase()) : new ArrayList<>();
+                }
+                Sort sort = (Sort) operator;
+                return sort.sortDirection == Direction.ASC ? sort.sortAttributes : new ArrayList<>();
+            case OperatorType.DISTINCT: {
+                Distinct distinct = (Distinct) operator;
+                return isGrouped(distinct.getBase(), distinct.getAttributes())
+                        ? getOutputOrder(distinct.getBase()) : distinct.getAttributes();
+            }
+            default:
+                return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Checks whether the output of an operator is already in ascending
+     * order of the specified attributes, so sorting it can be skipped.
+     */
+    public static boolean isSorted(Operator operator, List<Attribute> attributes) {
+        List<Attribute> order = getOutputOrder(operator);
+        return order.size() >= attributes.size() && order.subList(0, attributes.size()).equals(attributes);
+    }
+
+    /**
+     * Checks whether the output of an operator is in ascending order of
+     * the specified attributes taken in some order, so equal tuples on
+     * them are adjacent.
+     */
+    public static boolean isGrouped(Operator operator, List<Attribute> attributes) {
+        List<Attribute> order = getOutputOrder(operator);
+        return order.size() >= attributes.size()
+                && order.subList(0, attributes.size()).containsAll(attributes);
+    }
+
     private List<Integer> computeSortIndices(Schema schema, List<Attribute> sortedAttributes) {
         List<Integer> sortIndices = new ArrayList<>();
         for (Attribute sortAttribute : sortedAttributes) {
@@ -75,6 +227,7 @@ public class Sort extends Operator {
         }
 
         Batch page;
+        numInputPages = 0;
         try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(UNSORTED_FILE))) {
 
             while ((page = base.next()) != null) {
@@ -82,27 +235,78 @@ public class Sort extends Operator {
                 if (page.isEmpty()) {
                     continue;
                 }
+                if (inputObserver != null) {
+                    page.getRecords().forEach(inputObserver);
+                }
                 out.writeObject(page);
+                numInputPages++;
             }
         } catch (IOException e) {
             e.printStackTrace();
             return false;
         }
+        // the base gives back its buffer pages before the runs are sorted
+        if (!base.close()) {
+            return false;
+        }
 
+        numReservedPages = BufferManager.reserve(numPages, MIN_NUM_PAGES);
         List<String> sortedRuns = generateSortedRuns();
-        while (sortedRuns.size() > 1) {
+        int maxFinalSortedRuns = isFinalMergePipelined ? numReservedPages : 1;
+        while (sortedRuns.size() > maxFinalSortedRuns) {
             sortedRuns = mergeSortedRuns(sortedRuns);
+        }
+        finalSortedRuns = sortedRuns;
+        // only one page of each final run is read from now on
+        int numFinalPages = Math.max(1, finalSortedRuns.size());
+        BufferManager.release(numReservedPages - numFinalPages);
+        numReservedPages = numFinalPages;
+        if (isFinalMergePipelined ? !openFinalMerge() : !openFinalRun()) {
+            return false;
+        }
+        isEndOfStream = false;
+        return true;
+    }
 
+    /**
+     * Opens a reader for each of the final sorted runs, which are
+     * merged on the fly as records are requested.
+     *
+     * @return True if all the final sorted runs are opened
+     */
+    private boolean openFinalMerge() {
+        finalMergeHeap = new PriorityQueue<>(Math.max(1, finalSortedRuns.size()),
+                (r1, r2) -> recordComparator.compare(r1.peek(), r2.peek()));
+        int batchSize = Batch.getPageSize() / schema.getTupleSize();
+        for (String sortedRun : finalSortedRuns) {
+            TupleReader reader = new TupleReader(sortedRun, batchSize);
+            if (!reader.open()) {
+                return false;
+            }
+            // an exhausted reader closes itself
+            if (!reader.isEOF()) {
+                finalMergeHeap.add(reader);
+            }
         }
+        return true;
+    }
+
+    /**
+     * Opens the single final sorted run, which is read page by page.
+     *
+     * @return True if the final sorted run is opened
+     */
+    private boolean openFinalRun() {
         try {
-            finalSortedRun = sortedRuns.get(0);
-            sortedRecordsInputStream = new ObjectInputStream(new FileInputStream(finalSortedRun));
-            isEndOfStream = false;
+            finalRun = PageFile.open(finalSortedRuns.get(0));
         } catch (IOException e) {
-            e.printStackTrace();
+            System.err.println("Sort: Error opening the final sorted run");
+            return false;
         }
-
-        return base.close();
+        pageNumber = -1;
+        pinnedPageNumber = -1;
+        markedPageNumber = 0;
+        return true;
     }
 
     /**
@@ -142,9 +346,11 @@ public class Sort extends Operator {
                 }
 
                 String sortedRun = FILE_PREFIX + uniqueFileNumber++;
-                try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(sortedRun))) {
+                // all the input fits in a single run
+                boolean isFinalRun = !isFinalMergePipelined && numInputPages <= numReservedPages;
+                try (RunWriter out = new RunWriter(sortedRun, isFinalRun)) {
                     for (Batch page : inputPages) {
-                        out.writeObject(page);
+                        out.write(page);
                     }
 
                 } catch (IOException e) {
@@ -171,7 +377,7 @@ public class Sort extends Operator {
         Batch page;
         inputPages = new ArrayList<>();
         try {
-            while (inputPages.size() < numPages && (page = (Batch) in.readObject()) != null) {
+            while (inputPages.size() < numReservedPages && (page = (Batch) in.readObject()) != null) {
                 if (page.size() != 0) {
                     inputPages.add(page);
                 }
@@ -191,7 +397,7 @@ public class Sort extends Operator {
      * @return New sorted runs of greater length
      */
     private List<String> mergeSortedRuns(List<String> sortedRuns) {
-        int numPagesForMerging = numPages - 1;
+        int numPagesForMerging = numReservedPages - 1;
         int startIndex = 0;
         int endIndex = Math.min(sortedRuns.size(), numPagesForMerging);
         List<String> newSortedRuns = new ArrayList<>();
@@ -204,7 +410,9 @@ public class Sort extends Operator {
             // init output page
             Batch outputPage = new Batch(Batch.getPageSize() / schema.getTupleSize());
             String newSortedRun = FILE_PREFIX + uniqueFileNumber++;
-            try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(newSortedRun))) {
+            // all the runs are merged into a single run
+            boolean isFinalRun = !isFinalMergePipelined && sortedRuns.size() <= numPagesForMerging;
+            try (RunWriter out = new RunWriter(newSortedRun, isFinalRun)) {
                 // do B - 1 merge
                 while (true) {
                     Object[] nextRecordToAdd = getFirstRecord();
@@ -264,7 +472,7 @@ public class Sort extends Operator {
                     }
 
                     if (outputPage.isFull() || getFirstRecord() == null) {
-                        out.writeObject(outputPage);
+                        out.write(outputPage);
 
                         outputPage = new Batch(Batch.getPageSize() / schema.getTupleSize());
                     }
@@ -385,42 +593,197 @@ public class Sort extends Operator {
         if (isEndOfStream) {
             return null;
         }
+        if (finalRun != null) {
+            unpinPage();
+            if (pageNumber + 1 >= finalRun.getNumPages()) {
+                isEndOfStream = true;
+                return null;
+            }
+            pinnedPageNumber = ++pageNumber;
+            return pinPage(pageNumber);
+        }
 
-        try {
-            return (Batch) sortedRecordsInputStream.readObject();
-        } catch (EOFException | NullPointerException e) {
+        Batch page = new Batch(Batch.getPageSize() / schema.getTupleSize());
+        while (!page.isFull() && !finalMergeHeap.isEmpty()) {
+            TupleReader reader = finalMergeHeap.poll();
+            page.addRecord(reader.next());
+            if (!reader.isEOF()) {
+                finalMergeHeap.add(reader);
+            }
+        }
+        if (page.isEmpty()) {
             // do not read any more
             isEndOfStream = true;
             return null;
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+        }
+        return page;
+    }
+
+    /**
+     * Checks whether the output can be rewound and its pages read by
+     * number, i.e., whether it is read from a single final run. Only
+     * valid after {@code open()}.
+     */
+    public boolean isRewindable() {
+        return finalRun != null;
+    }
+
+    /**
+     * Gets the number of pages of the output. Only valid if the output
+     * is rewindable.
+     */
+    public int getNumPages() {
+        checkRewindable();
+        return finalRun.getNumPages();
+    }
+
+    /**
+     * Gets the number of the page last returned by {@code next()}, or -1
+     * if no page has been returned. Only valid if the output is rewindable.
+     */
+    public int getPageNumber() {
+        checkRewindable();
+        return pageNumber;
+    }
+
+    /**
+     * Reads the page of the output with the specified number, without
+     * moving the position of {@code next()}. Only valid if the output is
+     * rewindable.
+     *
+     * @param pageNumber The number of the page, from 0
+     * @return The page of sorted records
+     */
+    public Batch readPage(int pageNumber) {
+        checkRewindable();
+        Batch page = pinPage(pageNumber);
+        unpinPage(pageNumber);
+        return page;
+    }
+
+    private Batch pinPage(int pageNumber) {
+        try {
+            return (Batch) BufferPool.getInstance().pin(finalRun, pageNumber);
+        } catch (IOException e) {
+            System.err.println("Sort: Error reading the final sorted run");
+            System.exit(1);
             return null;
         }
     }
 
-    @Override
-    public boolean close() {
+    /**
+     * Unpins the page last returned by {@code next()}, if it is pinned.
+     */
+    private void unpinPage() {
+        if (pinnedPageNumber >= 0) {
+            unpinPage(pinnedPageNumber);
+            pinnedPageNumber = -1;
+        }
+    }
+
+    private void unpinPage(int pageNumber) {
         try {
-            sortedRecordsInputStream.close();
-            Files.deleteIfExists(Paths.get(finalSortedRun));
-            return true;
+            BufferPool.getInstance().unpin(finalRun, pageNumber);
         } catch (IOException e) {
-            e.printStackTrace();
-            return false;
+            System.err.println("Sort: Error writing a page evicted from the buffer pool");
+            System.exit(1);
         }
     }
 
+    /**
+     * Marks the page last returned by {@code next()}, or the start of the
+     * output if none, as the page to return again after a restore. Only
+     * valid if the output is rewindable.
+     */
+    public void mark() {
+        checkRewindable();
+        markedPageNumber = Math.max(pageNumber, 0);
+    }
+
+    /**
+     * Rewinds the output so that {@code next()} returns the marked page
+     * and the pages after it again. Only valid if the output is rewindable.
+     */
+    public void restore() {
+        checkRewindable();
+        unpinPage();
+        pageNumber = markedPageNumber - 1;
+        isEndOfStream = false;
+    }
+
+    private void checkRewindable() {
+        if (finalRun == null) {
+            throw new IllegalStateException("Sort: the output is not rewindable");
+        }
+    }
+
+    @Override
+    public boolean close() {
+        BufferManager.release(numReservedPages);
+        numReservedPages = 0;
+        if (finalRun != null) {
+            BufferPool.getInstance().discard(finalRun.getFileName());
+            try {
+                finalRun.close();
+            } catch (IOException e) {
+                System.err.println("Sort: Error closing the final sorted run");
+            }
+            finalRun = null;
+        }
+        if (finalMergeHeap != null) {
+            for (TupleReader reader : finalMergeHeap) {
+                reader.close();
+            }
+            finalMergeHeap.clear();
+        }
+        if (finalSortedRuns != null) {
+            deletePreviousSortedRuns(finalSortedRuns);
+        }
+        return true;
+    }
+
     @Override
     public Object clone() {
         List<Attribute> newSortAttributes = new ArrayList<>();
         for (Attribute attribute : sortAttributes) {
             newSortAttributes.add((Attribute) attribute.clone());
         }
-        Sort newSort = new Sort((Operator) base.clone(), newSortAttributes, sortDirection, numPages);
+        Sort newSort = new Sort((Operator) base.clone(), newSortAttributes, sortDirection, numPages, isFinalMergePipelined);
         newSort.setSchema((Schema) base.getSchema().clone());
         return newSort;
     }
 
+    /**
+     * Writes the pages of a sorted run, in the stream format read by the
+     * merges, or as a page file if it is the final run.
+     */
+    private static class RunWriter implements Closeable {
+        private final ObjectOutputStream out;
+        private final PageFile.Writer pageFileOut;
+
+        RunWriter(String fileName, boolean isFinalRun) throws IOException {
+            out = isFinalRun ? null : new ObjectOutputStream(new FileOutputStream(fileName));
+            pageFileOut = isFinalRun ? new PageFile.Writer(fileName) : null;
+        }
+
+        void write(Batch page) throws IOException {
+            if (pageFileOut != null) {
+                pageFileOut.append(page);
+            } else {
+                out.writeObject(page);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (pageFileOut != null) {
+                pageFileOut.close(null);
+            } else {
+                out.close();
+            }
+        }
+    }
+
     public enum Direction {
         ASC, DSC
     }
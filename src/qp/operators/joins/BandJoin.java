@@ -0,0 +1,554 @@
+package qp.operators.joins;
+
+import qp.operators.Sort;
+import qp.optimizer.BufferManager;
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+import qp.utils.TupleReader;
+import qp.utils.TupleWriter;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The sort-based Band Join algorithm, for joins with inequality conditions.
+ * <p>
+ * Both inputs are sorted on the attributes of the first inequality
+ * condition. That condition, and every other condition over the same
+ * pair of attributes, bounds the right tuples which can join with a
+ * left tuple to a band of the sorted right input. As the left tuples
+ * ascend, both ends of the band only move forward, so the right input
+ * is read once into a window holding the current band, and each left
+ * tuple is only tested against the tuples in the window.
+ * <p>
+ * The window is held in a buffer of {@code B - 3} pages. The part of a
+ * wider band which does not fit is read again for every left tuple in
+ * the band, by page number from the sorted right input, or from
+ * temporary files it is spilled to if the final merge of the sort is
+ * pipelined.
+ */
+public class BandJoin extends Join {
+    private static int uniqueFileNumber = 0;
+
+    private int batchSize;                  // Number of tuples per out batch
+    private int rightBatchSize;             // Number of tuples per right page
+
+    protected final Join join;
+
+    private List<Integer> leftIndices;   // Indices of the join attributes in left table
+    private List<Integer> rightIndices;  // Indices of the join attributes in right table
+    private List<Integer> exprTypes;     // Comparison types of the join conditions
+    private int leftBandIndex;           // Index of the sort attribute in left table
+    private int rightBandIndex;          // Index of the sort attribute in right table
+    private List<Integer> bandExprTypes; // Comparison types of the conditions bounding the band
+
+    private Sort sortedLeft;
+    private Sort sortedRight;
+
+    private Batch leftInputBatch;
+    private int leftCursor;
+    private Batch rightInputBatch;
+    private int rightCursor;
+    private boolean isEndOfStream;
+
+    /**
+     * The in-memory part of the window, holding the first tuples of the band.
+     */
+    private ArrayDeque<Tuple> window;
+    private int windowCapacity;          // Number of tuples of the in-memory part of the window
+    private int numReservedPages;
+    /**
+     * The files holding the rest of the window in order, the last of
+     * which is still being written to if {@code windowSpillTail} is not null.
+     */
+    private List<String> windowSpills;
+    private TupleWriter windowSpillTail;
+    /**
+     * Whether the rest of the window is read from the sorted right input
+     * rather than spilled, in which case it starts at index
+     * {@code windowRestCursor} of page {@code windowRestPage}, or -1 if
+     * there is no rest, and ends before the current right tuple.
+     */
+    private boolean isRightRewindable;
+    private int windowRestPage;
+    private int windowRestCursor;
+
+    /**
+     * The left tuple currently being joined with the window, or null if
+     * the next left tuple is to be read.
+     */
+    private Tuple bandLeftTuple;
+    private Iterator<Tuple> windowIterator;
+    private int windowSpillIndex;
+    private TupleReader windowSpillReader;
+    private int windowReadPage;    // Position of the next tuple of the rest of the window to read
+    private int windowReadCursor;
+    private Batch windowReadBatch; // The page at windowReadPage, or null if not read yet
+
+    public BandJoin(Join join) {
+        super(join.getLeft(), join.getRight(), join.getJoinConditions());
+        this.join = join;
+        schema = join.getSchema();
+        joinType = join.getJoinType();
+        numBuff = join.getNumBuff();
+    }
+
+    /**
+     * Gets the condition whose attributes both inputs are sorted on,
+     * i.e., the first inequality condition.
+     *
+     * @param joinConditions The conditions of the join
+     * @return The sort condition, or null if there is no inequality condition
+     */
+    public static Condition getSortCondition(List<Condition> joinConditions) {
+        for (Condition joinCondition : joinConditions) {
+            if (joinCondition.isInequality()) {
+                return joinCondition;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the specified condition bounds the band, i.e., it
+     * compares the sort attributes by other than inequality of values.
+     *
+     * @param condition A condition of the join
+     * @param joinConditions The conditions of the join
+     * @return True if the condition bounds the band
+     */
+    public static boolean isBandCondition(Condition condition, List<Condition> joinConditions) {
+        Condition sortCondition = getSortCondition(joinConditions);
+        return sortCondition != null
+                && condition.getExprType() != Condition.NOTEQUAL
+                && condition.getLhs().equals(sortCondition.getLhs())
+                && condition.getRhs().equals(sortCondition.getRhs());
+    }
+
+    /**
+     * Sorts both inputs on the attributes of the sort condition.
+     */
+    @Override
+    public boolean open() {
+        /** select number of tuples per batch **/
+        int tupleSize = schema.getTupleSize();
+        batchSize = Batch.getPageSize() / tupleSize;
+        rightBatchSize = Math.max(1, Batch.getPageSize() / right.getSchema().getTupleSize());
+
+        /** find indices attributes of join conditions **/
+        leftIndices = new ArrayList<>();
+        rightIndices = new ArrayList<>();
+        exprTypes = new ArrayList<>();
+        bandExprTypes = new ArrayList<>();
+        for (Condition joinCondition : joinConditions) {
+            Attribute leftAttribute = joinCondition.getLhs();
+            Attribute rightAttribute = (Attribute) joinCondition.getRhs();
+            leftIndices.add(left.getSchema().indexOf(leftAttribute));
+            rightIndices.add(right.getSchema().indexOf(rightAttribute));
+            exprTypes.add(joinCondition.getExprType());
+            if (isBandCondition(joinCondition, joinConditions)) {
+                bandExprTypes.add(joinCondition.getExprType());
+            }
+        }
+
+        Condition sortCondition = getSortCondition(joinConditions);
+        if (sortCondition == null) {
+            System.out.println("BandJoin: No inequality condition to join on");
+            return false;
+        }
+        Attribute leftAttribute = sortCondition.getLhs();
+        Attribute rightAttribute = (Attribute) sortCondition.getRhs();
+        leftBandIndex = left.getSchema().indexOf(leftAttribute);
+        rightBandIndex = right.getSchema().indexOf(rightAttribute);
+
+        // the sort operators open and close their own base operators
+        List<Attribute> leftAttrs = Collections.singletonList(leftAttribute);
+        List<Attribute> rightAttrs = Collections.singletonList(rightAttribute);
+        boolean isPipelined = SortMergeJoin.isPipelined(numBuff);
+        if (isPipelined) {
+            int sortSize = SortMergeJoin.getPipelinedSortSize(numBuff);
+            sortedLeft = new Sort(left, leftAttrs, Sort.Direction.ASC, sortSize, true);
+            sortedRight = new Sort(right, rightAttrs, Sort.Direction.ASC, sortSize, true);
+        } else {
+            sortedLeft = new Sort(left, leftAttrs, Sort.Direction.ASC, numBuff);
+            sortedRight = new Sort(right, rightAttrs, Sort.Direction.ASC, numBuff);
+        }
+        if (!sortedLeft.open() || !sortedRight.open()) {
+            System.out.println("BandJoin: Error opening sorted left or sorted right table");
+            return false;
+        }
+        // the sorts hold the input pages, and 1 buffer is for output
+        if (isPipelined) {
+            // the final merges hold the other pages, leaving 1 page for the window
+            numReservedPages = BufferManager.reserve(2, 2);
+        } else {
+            // the rest of the pages, besides the input pages, are for the window
+            numReservedPages = BufferManager.reserve(numBuff - 2, 2);
+        }
+        windowCapacity = (numReservedPages - 1) * rightBatchSize;
+
+        leftInputBatch = null;
+        leftCursor = CURSOR_START;
+        rightInputBatch = null;
+        rightCursor = CURSOR_START;
+        window = new ArrayDeque<>();
+        windowSpills = new ArrayList<>();
+        windowSpillTail = null;
+        isRightRewindable = sortedRight.isRewindable();
+        windowRestPage = -1;
+        bandLeftTuple = null;
+        isEndOfStream = false;
+        return true;
+    }
+
+    /**
+     * from input buffers selects the tuples satisfying join condition
+     * * And returns a page of output tuples
+     **/
+    @Override
+    public Batch next() {
+        if (isEndOfStream) {
+            return null;
+        }
+
+        Batch outputBuffer = new Batch(batchSize);
+        while (!outputBuffer.isFull()) {
+            if (bandLeftTuple == null) {
+                Tuple leftTuple = peekLeft();
+                if (leftTuple == null) {
+                    isEndOfStream = true;
+                    break;
+                }
+                advanceLeft();
+                slideWindow(leftTuple);
+                bandLeftTuple = leftTuple;
+                rewindWindow();
+            }
+
+            Tuple rightTuple = nextWindowTuple();
+            if (rightTuple == null) {
+                // the window is exhausted for this left tuple
+                bandLeftTuple = null;
+                continue;
+            }
+            if (bandLeftTuple.checkJoin(rightTuple, leftIndices, rightIndices, exprTypes)) {
+                outputBuffer.addRecord(bandLeftTuple.joinWith(rightTuple));
+            }
+        }
+
+        if (isEndOfStream && outputBuffer.isEmpty()) {
+            return null;
+        }
+        return outputBuffer;
+    }
+
+    /**
+     * Gets the current left tuple without consuming it.
+     *
+     * @return The current left tuple, or null if the left input is exhausted
+     */
+    private Tuple peekLeft() {
+        while (leftInputBatch == null || leftCursor >= leftInputBatch.size()) {
+            leftInputBatch = sortedLeft.next();
+            leftCursor = CURSOR_START;
+            if (leftInputBatch == null) {
+                return null;
+            }
+        }
+        return leftInputBatch.getRecord(leftCursor);
+    }
+
+    private void advanceLeft() {
+        leftCursor++;
+    }
+
+    /**
+     * Gets the current right tuple without consuming it.
+     *
+     * @return The current right tuple, or null if the right input is exhausted
+     */
+    private Tuple peekRight() {
+        while (rightInputBatch == null || rightCursor >= rightInputBatch.size()) {
+            rightInputBatch = sortedRight.next();
+            rightCursor = CURSOR_START;
+            if (rightInputBatch == null) {
+                return null;
+            }
+        }
+        return rightInputBatch.getRecord(rightCursor);
+    }
+
+    private void advanceRight() {
+        rightCursor++;
+    }
+
+    /**
+     * Checks whether the right tuple comes before the band of the left
+     * tuple, i.e., it violates a lower bound of the band.
+     */
+    private boolean isBelowBand(Tuple leftTuple, Tuple rightTuple) {
+        int compareResult = Tuple.compareTuples(leftTuple, rightTuple, leftBandIndex, rightBandIndex);
+        for (int exprType : bandExprTypes) {
+            boolean isLowerBound = exprType == Condition.LESSTHAN || exprType == Condition.LTOE
+                    || exprType == Condition.EQUAL;
+            if (isLowerBound && compareResult >= 0 && !Condition.isSatisfied(exprType, compareResult)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the right tuple comes after the band of the left
+     * tuple, i.e., it violates an upper bound of the band.
+     */
+    private boolean isAboveBand(Tuple leftTuple, Tuple rightTuple) {
+        int compareResult = Tuple.compareTuples(leftTuple, rightTuple, leftBandIndex, rightBandIndex);
+        for (int exprType : bandExprTypes) {
+            boolean isUpperBound = exprType == Condition.GREATERTHAN || exprType == Condition.GTOE
+                    || exprType == Condition.EQUAL;
+            if (isUpperBound && compareResult <= 0 && !Condition.isSatisfied(exprType, compareResult)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves the window to the band of the specified left tuple, which
+     * does not come before any left tuple seen so far.
+     */
+    private void slideWindow(Tuple leftTuple) {
+        // drop the tuples below the band from the front of the window
+        while (true) {
+            if (window.isEmpty() && hasWindowRest()) {
+                reloadWindow(leftTuple);
+            }
+            Tuple first = window.peekFirst();
+            if (first == null || !isBelowBand(leftTuple, first)) {
+                break;
+            }
+            window.removeFirst();
+        }
+
+        // take in the right tuples up to the end of the band
+        Tuple rightTuple = peekRight();
+        while (rightTuple != null && !isAboveBand(leftTuple, rightTuple)) {
+            // a tuple below this band is below the bands of all later left tuples
+            if (!isBelowBand(leftTuple, rightTuple)) {
+                addToWindow(rightTuple);
+            }
+            advanceRight();
+            rightTuple = peekRight();
+        }
+        closeWindowSpillTail();
+    }
+
+    /**
+     * Checks whether part of the window is not in memory.
+     */
+    private boolean hasWindowRest() {
+        return windowRestPage >= 0 || !windowSpills.isEmpty();
+    }
+
+    /**
+     * Appends the current right tuple to the window, leaving it out of
+     * memory if the in-memory part of the window is full or part of the
+     * window is already out of memory.
+     */
+    private void addToWindow(Tuple rightTuple) {
+        if (!hasWindowRest() && window.size() < windowCapacity) {
+            window.addLast(rightTuple);
+            return;
+        }
+        if (isRightRewindable) {
+            if (windowRestPage < 0) {
+                windowRestPage = sortedRight.getPageNumber();
+                windowRestCursor = rightCursor;
+            }
+            return;
+        }
+        if (windowSpillTail == null) {
+            uniqueFileNumber++;
+            String fileName = "BJtemp-" + uniqueFileNumber;
+            windowSpillTail = new TupleWriter(fileName, rightBatchSize);
+            if (!windowSpillTail.open()) {
+                System.out.println("BandJoin: Error writing to temporary file");
+                System.exit(1);
+            }
+            windowSpills.add(fileName);
+        }
+        windowSpillTail.next(rightTuple);
+    }
+
+    private void closeWindowSpillTail() {
+        if (windowSpillTail != null) {
+            windowSpillTail.close();
+            windowSpillTail = null;
+        }
+    }
+
+    /**
+     * Refills the empty in-memory part of the window from the rest of the
+     * window, skipping the tuples below the band of the left tuple. A
+     * spilled rest is written again to a single file.
+     */
+    private void reloadWindow(Tuple leftTuple) {
+        if (isRightRewindable) {
+            seekWindowRest();
+            windowRestPage = -1;
+            Tuple rightTuple;
+            while ((rightTuple = nextWindowRestTuple()) != null) {
+                if (isBelowBand(leftTuple, rightTuple)) {
+                    continue;
+                }
+                if (window.size() == windowCapacity) {
+                    // the rest now starts at this tuple
+                    windowRestPage = windowReadPage;
+                    windowRestCursor = windowReadCursor - 1;
+                    break;
+                }
+                window.addLast(rightTuple);
+            }
+            return;
+        }
+
+        List<String> spills = windowSpills;
+        windowSpills = new ArrayList<>();
+        for (String fileName : spills) {
+            TupleReader reader = new TupleReader(fileName, rightBatchSize);
+            if (!reader.open()) {
+                System.exit(1);
+            }
+            Tuple rightTuple;
+            while ((rightTuple = reader.next()) != null) {
+                if (!isBelowBand(leftTuple, rightTuple)) {
+                    addToWindow(rightTuple);
+                }
+            }
+            reader.close();
+            new File(fileName).delete();
+        }
+        closeWindowSpillTail();
+    }
+
+    /**
+     * Positions the window cursor before the first tuple of the window.
+     */
+    private void rewindWindow() {
+        windowIterator = window.iterator();
+        seekWindowRest();
+        windowSpillIndex = 0;
+        if (windowSpillReader != null) {
+            windowSpillReader.close();
+            windowSpillReader = null;
+        }
+    }
+
+    /**
+     * Gets the next tuple of the window, reading from the in-memory part
+     * first and then from the spilled tuples.
+     *
+     * @return The next tuple of the window, or null if the window is exhausted
+     */
+    private Tuple nextWindowTuple() {
+        if (windowIterator.hasNext()) {
+            return windowIterator.next();
+        }
+        if (isRightRewindable) {
+            return windowRestPage >= 0 ? nextWindowRestTuple() : null;
+        }
+        while (windowSpillIndex < windowSpills.size()) {
+            if (windowSpillReader == null) {
+                windowSpillReader = new TupleReader(windowSpills.get(windowSpillIndex), rightBatchSize);
+                if (!windowSpillReader.open()) {
+                    System.exit(1);
+                }
+            }
+            Tuple rightTuple = windowSpillReader.next();
+            if (rightTuple != null) {
+                return rightTuple;
+            }
+            windowSpillReader.close();
+            windowSpillReader = null;
+            windowSpillIndex++;
+        }
+        return null;
+    }
+
+    /**
+     * Positions the reading of the rest of the window, which is read from
+     * the sorted right input, at its first tuple.
+     */
+    private void seekWindowRest() {
+        windowReadPage = windowRestPage;
+        windowReadCursor = windowRestCursor;
+        windowReadBatch = null;
+    }
+
+    /**
+     * Reads the next tuple of the rest of the window from the pages of
+     * the sorted right input.
+     *
+     * @return The next tuple, or null if the current right tuple is reached
+     */
+    private Tuple nextWindowRestTuple() {
+        while (isBeforeCurrentRight(windowReadPage, windowReadCursor)) {
+            if (windowReadBatch == null) {
+                windowReadBatch = sortedRight.readPage(windowReadPage);
+            }
+            if (windowReadCursor < windowReadBatch.size()) {
+                return windowReadBatch.getRecord(windowReadCursor++);
+            }
+            windowReadPage++;
+            windowReadCursor = CURSOR_START;
+            windowReadBatch = null;
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether a position in the sorted right input comes before
+     * the current right tuple.
+     */
+    private boolean isBeforeCurrentRight(int pageNumber, int cursor) {
+        if (rightInputBatch == null) {
+            // the right input is exhausted
+            return pageNumber < sortedRight.getNumPages();
+        }
+        int currentPageNumber = sortedRight.getPageNumber();
+        return pageNumber < currentPageNumber || (pageNumber == currentPageNumber && cursor < rightCursor);
+    }
+
+    /**
+     * Closes this operator and delete files used for the window.
+     *
+     * @return true if the operator is closed successfully.
+     */
+    @Override
+    public boolean close() {
+        if (windowSpillReader != null) {
+            windowSpillReader.close();
+            windowSpillReader = null;
+        }
+        closeWindowSpillTail();
+        if (windowSpills != null) {
+            for (String fileName : windowSpills) {
+                new File(fileName).delete();
+            }
+            windowSpills = null;
+        }
+        window = null;
+        BufferManager.release(numReservedPages);
+        numReservedPages = 0;
+        sortedLeft.close();
+        sortedRight.close();
+        return super.close();
+    }
+}
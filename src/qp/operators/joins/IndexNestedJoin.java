@@ -0,0 +1,254 @@
+package qp.operators.joins;
+
+import qp.index.BPlusTree;
+import qp.operators.Operator;
+import qp.operators.Scan;
+import qp.optimizer.BufferManager;
+import qp.storage.RecordId;
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The Index Nested Loop Join algorithm.
+ * <p>
+ * The right input is a base table with a B+-tree index on the right
+ * attribute of an equality condition (the probe condition), and is never
+ * scanned. The left input is read in blocks of {@code B - 2} pages; the
+ * tuples of a block are sorted on their probe keys so that the index is
+ * probed once per distinct key, in key order, and the matching records
+ * of the whole block are fetched in file order, so each right page is
+ * read at most once per block.
+ */
+public class IndexNestedJoin extends Join {
+    private int batchSize;                  // Number of tuples per out batch
+    private int blockSize;                  // Number of left pages per block
+    private int numReservedPages;
+
+    protected final Join join;
+
+    private List<Integer> leftIndices;   // Indices of the join attributes in left table
+    private List<Integer> rightIndices;  // Indices of the join attributes in right table
+    private List<Integer> exprTypes;     // Comparison types of the join conditions
+    private int leftProbeIndex;          // Index of the left attribute of the probe condition
+
+    private Scan rightScan;
+    private BPlusTree index;
+
+    /**
+     * The pairs of left tuples of the current block and the record ids of
+     * their matching right tuples, in file order of the record ids.
+     */
+    private List<Match> matches;
+    private int matchCursor;
+    private boolean isLeftEndOfStream;
+
+    public IndexNestedJoin(Join join) {
+        super(join.getLeft(), join.getRight(), join.getJoinConditions());
+        this.join = join;
+        schema = join.getSchema();
+        joinType = join.getJoinType();
+        numBuff = join.getNumBuff();
+    }
+
+    /**
+     * Checks whether a join can probe an index on its right input, i.e.,
+     * the right input is a base table and one of the equality conditions
+     * has an indexed right attribute.
+     *
+     * @param join The join to check
+     * @return True if the join can be an Index Nested Loop Join
+     */
+    public static boolean isApplicable(Join join) {
+        return isBaseTable(join.getRight()) && getProbeCondition(join.getJoinConditions()) != null;
+    }
+
+    private static boolean isBaseTable(Operator operator) {
+        // the scans through indexes evaluate selections of their own
+        return operator.getClass() == Scan.class;
+    }
+
+    /**
+     * Gets the condition whose right attribute is looked up in the index.
+     *
+     * @return The first equality condition with an indexed right attribute,
+     * or null if there is none
+     */
+    public static Condition getProbeCondition(List<Condition> joinConditions) {
+        for (Condition joinCondition : joinConditions) {
+            if (joinCondition.isEquality() && BPlusTree.exists((Attribute) joinCondition.getRhs())) {
+                return joinCondition;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens the index of the probe condition and both inputs.
+     */
+    @Override
+    public boolean open() {
+        /** select number of tuples per batch **/
+        int tupleSize = schema.getTupleSize();
+        batchSize = Batch.getPageSize() / tupleSize;
+
+        /** find indices attributes of join conditions **/
+        leftIndices = new ArrayList<>();
+        rightIndices = new ArrayList<>();
+        exprTypes = new ArrayList<>();
+        for (Condition joinCondition : joinConditions) {
+            Attribute leftAttribute = joinCondition.getLhs();
+            Attribute rightAttribute = (Attribute) joinCondition.getRhs();
+            leftIndices.add(left.getSchema().indexOf(leftAttribute));
+            rightIndices.add(right.getSchema().indexOf(rightAttribute));
+            exprTypes.add(joinCondition.getExprType());
+        }
+
+        Condition probeCondition = getProbeCondition(joinConditions);
+        if (probeCondition == null || !isBaseTable(right)) {
+            System.out.println("IndexNestedJoin: No index on the right table to probe");
+            return false;
+        }
+        leftProbeIndex = left.getSchema().indexOf(probeCondition.getLhs());
+        Attribute rightProbeAttribute = (Attribute) probeCondition.getRhs();
+        try {
+            index = BPlusTree.open(rightProbeAttribute);
+        } catch (IOException e) {
+            System.out.println("IndexNestedJoin: Error reading index " + BPlusTree.getFileName(rightProbeAttribute));
+            return false;
+        }
+
+        rightScan = (Scan) right;
+        if (!rightScan.open()) {
+            return false;
+        }
+        matches = new ArrayList<>();
+        matchCursor = CURSOR_START;
+        isLeftEndOfStream = false;
+        if (!left.open()) {
+            return false;
+        }
+        // allocate 1 buffer for the right page being read, 1 for output, and the rest for the left block
+        numReservedPages = BufferManager.reserve(numBuff, 3);
+        blockSize = numReservedPages - 2;
+        return true;
+    }
+
+    /**
+     * Joins the matches of the current block, reading the next block
+     * once they are exhausted, and returns a page of output tuples.
+     **/
+    @Override
+    public Batch next() {
+        Batch outputBuffer = new Batch(batchSize);
+        while (!outputBuffer.isFull()) {
+            if (matchCursor >= matches.size()) {
+                if (isLeftEndOfStream || !readLeftBlock()) {
+                    break;
+                }
+                continue;
+            }
+            Match match = matches.get(matchCursor++);
+            Tuple rightTuple = rightScan.fetch(match.recordId);
+            if (rightTuple != null && match.leftTuple.checkJoin(rightTuple, leftIndices, rightIndices, exprTypes)) {
+                outputBuffer.addRecord(match.leftTuple.joinWith(rightTuple));
+            }
+        }
+
+        if (outputBuffer.isEmpty()) {
+            return null;
+        }
+        return outputBuffer;
+    }
+
+    /**
+     * Reads the next block of left tuples and probes the index with their
+     * keys in sorted order, collecting the matches of the block.
+     *
+     * @return False if the left input is exhausted
+     */
+    private boolean readLeftBlock() {
+        List<Tuple> block = new ArrayList<>();
+        for (int i = 0; i < blockSize; ++i) {
+            Batch leftPage = left.next();
+            if (leftPage == null) {
+                isLeftEndOfStream = true;
+                break;
+            }
+            block.addAll(leftPage.getRecords());
+        }
+        if (block.isEmpty()) {
+            return false;
+        }
+        block.sort(Comparator.comparing(tuple -> tuple.getData(leftProbeIndex), Tuple::compareValues));
+
+        matches = new ArrayList<>();
+        matchCursor = CURSOR_START;
+        int runStart = 0;
+        while (runStart < block.size()) {
+            // the left tuples sharing a key are probed with a single lookup
+            Object key = block.get(runStart).getData(leftProbeIndex);
+            int runEnd = runStart + 1;
+            while (runEnd < block.size() && Tuple.compareValues(block.get(runEnd).getData(leftProbeIndex), key) == 0) {
+                runEnd++;
+            }
+            List<RecordId> recordIds;
+            try {
+                recordIds = index.search(key, true, key, true);
+            } catch (IOException e) {
+                System.out.println("IndexNestedJoin: Error reading index");
+                System.exit(1);
+                return false;
+            }
+            for (RecordId recordId : recordIds) {
+                for (int i = runStart; i < runEnd; ++i) {
+                    matches.add(new Match(block.get(i), recordId));
+                }
+            }
+            runStart = runEnd;
+        }
+        // fetching in file order reads each right page once for the block
+        matches.sort(Comparator.comparing(match -> match.recordId));
+        return true;
+    }
+
+    /**
+     * Closes both inputs and the index.
+     *
+     * @return true if the operator is closed successfully.
+     */
+    @Override
+    public boolean close() {
+        matches = null;
+        if (index != null) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                System.out.println("IndexNestedJoin: Error closing index");
+            }
+            index = null;
+        }
+        BufferManager.release(numReservedPages);
+        numReservedPages = 0;
+        return left.close() && right.close();
+    }
+
+    /**
+     * A left tuple and the record id of a right tuple with the same probe key.
+     */
+    private static class Match {
+        final Tuple leftTuple;
+        final RecordId recordId;
+
+        Match(Tuple leftTuple, RecordId recordId) {
+            this.leftTuple = leftTuple;
+            this.recordId = recordId;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package qp.operators.joins;
 
 import qp.operators.Operator;
 import qp.operators.OperatorType;
+import qp.optimizer.PlanCost;
 import qp.utils.Condition;
 import qp.utils.Schema;
 
@@ -23,6 +24,11 @@ public class Join extends Operator {
      * Each join node is given an index.
      */
     protected int nodeIndex;
+    /**
+     * The estimates of the cost model for the subtree of this join,
+     * cleared when the join is modified.
+     */
+    private PlanCost.Annotation costAnnotation;
 
     public Join(Operator left, Operator right) {
         super(OperatorType.JOIN);
@@ -54,6 +60,18 @@ public class Join extends Operator {
         this.numBuff = num;
     }
 
+    public PlanCost.Annotation getCostAnnotation() {
+        return costAnnotation;
+    }
+
+    /**
+     * Memoizes the estimates of the cost model for the subtree of this
+     * join, which a modification of a join below must clear.
+     */
+    public void setCostAnnotation(PlanCost.Annotation costAnnotation) {
+        this.costAnnotation = costAnnotation;
+    }
+
     public int getNodeIndex() {
         return nodeIndex;
     }
@@ -68,6 +86,7 @@ public class Join extends Operator {
 
     public void setJoinType(int type) {
         this.joinType = type;
+        costAnnotation = null;
     }
 
     public Operator getLeft() {
@@ -76,6 +95,7 @@ public class Join extends Operator {
 
     public void setLeft(Operator left) {
         this.left = left;
+        costAnnotation = null;
     }
 
     public Operator getRight() {
@@ -84,6 +104,7 @@ public class Join extends Operator {
 
     public void setRight(Operator right) {
         this.right = right;
+        costAnnotation = null;
     }
 
     public Condition getCondition() {
@@ -94,18 +115,21 @@ public class Join extends Operator {
     public void setCondition(Condition condition) {
         joinConditions = new ArrayList<>();
         joinConditions.add(condition);
+        costAnnotation = null;
     }
 
     public List<Condition> getJoinConditions() {
         return joinConditions;
     }
 
-    public void setJoinConditions(ArrayList<Condition> joinConditions) {
+    public void setJoinConditions(List<Condition> joinConditions) {
         this.joinConditions = joinConditions;
+        costAnnotation = null;
     }
 
     public void addCondition(Condition condition) {
         joinConditions.add(condition);
+        costAnnotation = null;
     }
 
     @Override
@@ -123,6 +147,7 @@ public class Join extends Operator {
         newJoin.setJoinType(joinType);
         newJoin.setNodeIndex(nodeIndex);
         newJoin.setNumBuff(numBuff);
+        newJoin.setCostAnnotation(costAnnotation);
 
         return newJoin;
     }
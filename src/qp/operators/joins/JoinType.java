@@ -1,5 +1,10 @@
 package qp.operators.joins;
 
+import qp.utils.Condition;
+
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * The different join types.
  */
@@ -8,12 +13,52 @@ public class JoinType {
     public static final int BLOCK_NESTED = 1;
     public static final int SORT_MERGE = 2;
     public static final int HASH = 3;
+    public static final int BAND = 4;
+    public static final int INDEX_NESTED = 5;
+
+    /**
+     * Gets the join types which can evaluate the specified join conditions.
+     * The nested joins evaluate any conditions, Sort-Merge and Hash joins
+     * only equality conditions, and Band join needs an inequality condition
+     * to sort on.
+     *
+     * @param joinConditions The conditions of the join
+     * @return the applicable join types
+     */
+    public static List<Integer> getApplicableJoinTypes(List<Condition> joinConditions) {
+        boolean isAllEquality = true;
+        boolean hasInequality = false;
+        for (Condition joinCondition : joinConditions) {
+            isAllEquality &= joinCondition.isEquality();
+            hasInequality |= joinCondition.isInequality();
+        }
+
+        List<Integer> joinTypes = new ArrayList<>();
+        joinTypes.add(PAGE_NESTED);
+        joinTypes.add(BLOCK_NESTED);
+        if (isAllEquality) {
+            joinTypes.add(SORT_MERGE);
+            joinTypes.add(HASH);
+        }
+        if (hasInequality) {
+            joinTypes.add(BAND);
+        }
+        return joinTypes;
+    }
 
     /**
-     * Gets the number of join types.
-     * @return the number of join types
+     * Gets the join types which can evaluate the specified join, which
+     * also depend on its inputs: Index Nested Loop join needs an index
+     * on a right equality join attribute of a base table.
+     *
+     * @param join The join, with its inputs
+     * @return the applicable join types
      */
-    public static int numJoinTypes() {
-        return 3;
+    public static List<Integer> getApplicableJoinTypes(Join join) {
+        List<Integer> joinTypes = getApplicableJoinTypes(join.getJoinConditions());
+        if (IndexNestedJoin.isApplicable(join)) {
+            joinTypes.add(INDEX_NESTED);
+        }
+        return joinTypes;
     }
 }
@@ -1,6 +1,9 @@
 package qp.operators.joins;
 
 import qp.operators.Buffer;
+import qp.optimizer.BufferManager;
+import qp.storage.BufferPool;
+import qp.storage.TempFile;
 import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Condition;
@@ -13,6 +16,10 @@ import java.util.stream.Collectors;
 
 /**
  * A generic Nested Join algorithm with a variable-sized left input buffer.
+ * <p>
+ * The right input is materialized into a temporary file through the
+ * buffer pool, so the rescans of a right input which fits in the pool
+ * read its pages from memory.
  */
 class NestedJoin extends Join {
     private static int uniqueFileNumber = 0;         // To get unique filenum for this operation
@@ -20,15 +27,20 @@ class NestedJoin extends Join {
 
     protected final Join join;
     protected final int leftInputBufferSize;
+    private int leftBlockSize;              // Number of left pages per block, as granted
+    private int numReservedPages;
 
     private List<Integer> leftIndices;   // Indices of the join attributes in left table
     private List<Integer> rightIndices;  // Indices of the join attributes in right table
+    private List<Integer> exprTypes;     // Comparison types of the join conditions
 
     private String rfname;                  // The file name where the right table is materialized
+    private TempFile rightFile;             // The file where the right table is materialized
+    private int rightPageNumber;            // Number of the next page of the right file to read
     private Batch outputBuffer;                 // Buffer page for output
     private Buffer leftInputBuffer;                // Buffer page for left input stream
     private Batch rightInputBuffer;               // Buffer page for right input stream
-    private ObjectInputStream in;           // File pointer to the right hand materialized file
+    private RuntimeFilters runtimeFilters;  // Filters on the left input from the right join keys
 
     int leftCursor;                      // Cursor for left side buffer
     int rightCursor;                      // Cursor for right side buffer
@@ -58,13 +70,16 @@ class NestedJoin extends Join {
         /** find indices attributes of join conditions **/
         leftIndices = new ArrayList<>();
         rightIndices = new ArrayList<>();
+        exprTypes = new ArrayList<>();
         for (Condition joinCondition : joinConditions) {
             Attribute leftAttribute = joinCondition.getLhs();
             Attribute rightAttribute = (Attribute) joinCondition.getRhs();
             leftIndices.add(left.getSchema().indexOf(leftAttribute));
             rightIndices.add(right.getSchema().indexOf(rightAttribute));
+            exprTypes.add(joinCondition.getExprType());
         }
         Batch rightpage;
+        runtimeFilters = new RuntimeFilters(this);
 
         /** initialize the cursors of input buffers **/
         leftCursor = CURSOR_START;
@@ -88,11 +103,11 @@ class NestedJoin extends Join {
             uniqueFileNumber++;
             rfname = "NJtemp-" + uniqueFileNumber;
             try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
+                rightFile = new TempFile(rfname);
                 while ((rightpage = right.next()) != null) {
-                    out.writeObject(rightpage);
+                    rightpage.getRecords().forEach(runtimeFilters::add);
+                    BufferPool.getInstance().write(rightFile, rightFile.allocatePage(), rightpage);
                 }
-                out.close();
             } catch (IOException io) {
                 System.out.println("NestedJoin: Error writing to temporary file");
                 return false;
@@ -100,7 +115,14 @@ class NestedJoin extends Join {
             if (!right.close())
                 return false;
         }
-        return left.open();
+        runtimeFilters.push();
+        if (!left.open()) {
+            return false;
+        }
+        // 1 buffer each for the right input and output, and the rest for the left block
+        numReservedPages = BufferManager.reserve(leftInputBufferSize + 2, 3);
+        leftBlockSize = numReservedPages - 2;
+        return true;
     }
 
     /**
@@ -125,25 +147,25 @@ class NestedJoin extends Join {
                 /** Whenever a new left page came, we have to start the
                  ** scanning of right table
                  **/
-                try {
-                    in = new ObjectInputStream(new FileInputStream(rfname));
-                    isEndOfStreamForRight = false;
-                } catch (IOException io) {
-                    System.err.println("NestedJoin:error in reading the file");
-                    System.exit(1);
-                }
-
+                rightPageNumber = 0;
+                isEndOfStreamForRight = false;
             }
             while (!isEndOfStreamForRight) {
                 try {
                     if (rightCursor == 0 && leftCursor == 0) {
-                        rightInputBuffer = (Batch) in.readObject();
+                        if (rightPageNumber >= rightFile.getNumPages()) {
+                            isEndOfStreamForRight = true;
+                            break;
+                        }
+                        // the page objects stay valid once unpinned, so the page is not kept pinned
+                        rightInputBuffer = (Batch) BufferPool.getInstance().pin(rightFile, rightPageNumber);
+                        BufferPool.getInstance().unpin(rightFile, rightPageNumber++);
                     }
                     for (i = leftCursor; i < leftInputBuffer.size(); ++i) {
                         for (j = rightCursor; j < rightInputBuffer.size(); ++j) {
                             Tuple leftTuple = leftInputBuffer.getRecord(i);
                             Tuple rightTuple = rightInputBuffer.getRecord(j);
-                            if (leftTuple.checkJoin(rightTuple, leftIndices, rightIndices)) {
+                            if (leftTuple.checkJoin(rightTuple, leftIndices, rightIndices, exprTypes)) {
                                 Tuple outTuple = leftTuple.joinWith(rightTuple);
                                 outputBuffer.addRecord(outTuple);
                                 // for (int ii = 0; ii < outTuple.getData().size(); ii++) {
@@ -171,16 +193,6 @@ class NestedJoin extends Join {
                         rightCursor = 0;
                     }
                     leftCursor = 0;
-                } catch (EOFException e) {
-                    try {
-                        in.close();
-                    } catch (IOException io) {
-                        System.out.println("NestedJoin: Error in reading temporary file");
-                    }
-                    isEndOfStreamForRight = true;
-                } catch (ClassNotFoundException c) {
-                    System.out.println("NestedJoin: Error in deserialising temporary file ");
-                    System.exit(1);
                 } catch (IOException io) {
                     System.out.println("NestedJoin: Error in reading temporary file");
                     System.exit(1);
@@ -191,7 +203,7 @@ class NestedJoin extends Join {
     }
 
     private Buffer addLeftBuffer() {
-        Buffer leftBuffer = new Buffer(leftInputBufferSize);
+        Buffer leftBuffer = new Buffer(leftBlockSize);
         while (leftBuffer.hasCapacity()) {
             Batch batch = left.next();
             if (batch == null) {
@@ -207,9 +219,18 @@ class NestedJoin extends Join {
      */
     @Override
     public boolean close() {
-        File f = new File(rfname);
-        f.delete();
-        return true;
+        if (rightFile != null) {
+            try {
+                rightFile.delete();
+            } catch (IOException io) {
+                System.out.println("NestedJoin: Error deleting temporary file");
+            }
+        }
+        runtimeFilters.remove();
+        BufferManager.release(numReservedPages);
+        numReservedPages = 0;
+        // the right input was closed once materialized
+        return left.close();
     }
 
     @Override
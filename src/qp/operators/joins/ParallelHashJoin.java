@@ -0,0 +1,475 @@
+package qp.operators.joins;
+
+import qp.operators.Operator;
+import qp.optimizer.BufferManager;
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.BloomFilter;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+import qp.utils.TupleReader;
+import qp.utils.TupleWriter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+
+/**
+ * The partitioned Hash Join algorithm, with the partitions joined by
+ * multiple worker threads.
+ * <p>
+ * Both inputs are partitioned on the hash of their join keys into
+ * {@code B - 1} temporary files. The {@code B} pages are then split
+ * evenly among the workers, of which there are as many as the given
+ * number of workers, the partitions and the thirds of {@code B} allow.
+ * Each worker owns every W-th partition: it builds a hash table over the
+ * right tuples of the partition and probes it with the left tuples of
+ * the partition. The hash table holds at most the pages of the worker
+ * but 1 for the left input and 1 for the output, so the tables of all
+ * the workers fit in the pages of the join.
+ * <p>
+ * A partition whose right tuples do not fit is partitioned again, with
+ * a hash of another seed, into as many files as the pages of the worker
+ * but 2 allow, up to {@code MAX_REPARTITION_DEPTH} times. A partition
+ * which still does not fit, e.g., as most of its tuples share a join
+ * key, is joined as a block nested loop join: the hash table is built
+ * over each block of its right tuples in turn and probed with all the
+ * left tuples of the partition.
+ * <p>
+ * Workers share nothing but the queue through which each full output
+ * page is handed to the parent, which holds no pages of its own.
+ */
+public class ParallelHashJoin extends Join {
+    private static int uniqueFileNumber = 0;
+    private static int numWorkers = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The most times a partition is partitioned again before it is
+     * joined in blocks.
+     */
+    public static final int MAX_REPARTITION_DEPTH = 3;
+
+    /**
+     * Marks that a worker has joined all its partitions.
+     */
+    private static final Batch END_OF_WORKER = new Batch(0);
+
+    private int batchSize;                  // Number of tuples per out batch
+    private int leftBatchSize;              // Number of tuples per left page
+    private int rightBatchSize;             // Number of tuples per right page
+
+    protected final Join join;
+
+    private List<Integer> leftIndices;   // Indices of the join attributes in left table
+    private List<Integer> rightIndices;  // Indices of the join attributes in right table
+
+    private int numPartitions;
+    private int numReservedPages;
+    private int pagesPerWorker;
+    private String filePrefix;
+    private List<String> leftPartitions;
+    private List<String> rightPartitions;
+    private int[] rightPartitionSizes;     // Number of tuples of each right partition
+
+    private RuntimeFilters runtimeFilters;  // Filters on the left input from the right join keys
+
+    private Thread[] workers;
+    private BlockingQueue<Batch> outputQueue;
+    private int numWorkersRunning;
+    private volatile Throwable workerFailure;  // Failure of a worker, which fails the join
+
+    /**
+     * Sets the number of worker threads, for all subsequently opened instances.
+     *
+     * @param workers The number of workers, at least 1
+     */
+    public static void setNumWorkers(int workers) {
+        numWorkers = Math.max(1, workers);
+    }
+
+    public static int getNumWorkers() {
+        return numWorkers;
+    }
+
+    /**
+     * Gets the number of partitions of each input with a number of
+     * buffer pages, 1 of which reads the input.
+     */
+    public static int getNumPartitions(int numBuff) {
+        return Math.max(2, numBuff - 1);
+    }
+
+    /**
+     * Gets the number of workers with a number of buffer pages, each of
+     * which needs at least 3 of them.
+     */
+    public static int getNumWorkers(int numBuff) {
+        return Math.max(1, Math.min(numWorkers, Math.min(getNumPartitions(numBuff), numBuff / 3)));
+    }
+
+    /**
+     * Gets the number of buffer pages of each worker.
+     */
+    public static int getPagesPerWorker(int numBuff) {
+        return Math.max(3, numBuff / getNumWorkers(numBuff));
+    }
+
+    public ParallelHashJoin(Join join) {
+        super(join.getLeft(), join.getRight(), join.getJoinConditions());
+        this.join = join;
+        schema = join.getSchema();
+        joinType = join.getJoinType();
+        numBuff = join.getNumBuff();
+    }
+
+    /**
+     * Partitions both inputs and starts the workers.
+     */
+    @Override
+    public boolean open() {
+        /** select number of tuples per batch **/
+        int tupleSize = schema.getTupleSize();
+        batchSize = Batch.getPageSize() / tupleSize;
+        leftBatchSize = Math.max(1, Batch.getPageSize() / left.getSchema().getTupleSize());
+        rightBatchSize = Math.max(1, Batch.getPageSize() / right.getSchema().getTupleSize());
+
+        /** find indices attributes of join conditions **/
+        leftIndices = new ArrayList<>();
+        rightIndices = new ArrayList<>();
+        for (Condition joinCondition : joinConditions) {
+            Attribute leftAttribute = joinCondition.getLhs();
+            Attribute rightAttribute = (Attribute) joinCondition.getRhs();
+            leftIndices.add(left.getSchema().indexOf(leftAttribute));
+            rightIndices.add(right.getSchema().indexOf(rightAttribute));
+        }
+
+        uniqueFileNumber++;
+        filePrefix = "HJtemp-" + uniqueFileNumber;
+
+        // the right input is partitioned first so that its join keys filter the left input
+        runtimeFilters = new RuntimeFilters(this);
+        if (!right.open()) {
+            return false;
+        }
+        // 1 buffer reads the input while the rest each collect a partition
+        numReservedPages = BufferManager.reserve(numBuff, 3);
+        numPartitions = getNumPartitions(numReservedPages);
+        pagesPerWorker = getPagesPerWorker(numReservedPages);
+        rightPartitions = partition(right, rightIndices, rightBatchSize, filePrefix + "-r", true);
+        if (!right.close()) {
+            return false;
+        }
+        runtimeFilters.push();
+        if (!left.open()) {
+            return false;
+        }
+        leftPartitions = partition(left, leftIndices, leftBatchSize, filePrefix + "-l", false);
+        if (!left.close()) {
+            return false;
+        }
+
+        // each page is handed straight to the parent, so no pages wait in the queue
+        int workerCount = getNumWorkers(numReservedPages);
+        outputQueue = new SynchronousQueue<>();
+        workerFailure = null;
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; ++i) {
+            workers[i] = new Thread(new Worker(i, workerCount));
+            workers[i].start();
+        }
+        numWorkersRunning = workerCount;
+        return true;
+    }
+
+    /**
+     * Writes the tuples of an input to the partition of the hash of
+     * their join keys.
+     *
+     * @param isBuildSide Whether the join keys of the input are added to the runtime filters
+     * @return The file names of the partitions
+     */
+    private List<String> partition(Operator input, List<Integer> keyIndices, int inputBatchSize,
+                                   String filePrefix, boolean isBuildSide) {
+        List<TupleWriter> writers = openPartitions(filePrefix, numPartitions, inputBatchSize);
+        Batch page;
+        while ((page = input.next()) != null) {
+            for (Tuple tuple : page.getRecords()) {
+                if (isBuildSide) {
+                    runtimeFilters.add(tuple);
+                }
+                writers.get(partitionOf(tuple, keyIndices, 0, numPartitions)).next(tuple);
+            }
+        }
+        if (isBuildSide) {
+            rightPartitionSizes = getSizes(writers);
+        }
+        return closePartitions(writers);
+    }
+
+    private static int[] getSizes(List<TupleWriter> writers) {
+        int[] sizes = new int[writers.size()];
+        for (int i = 0; i < sizes.length; ++i) {
+            sizes[i] = writers.get(i).getNumTuple();
+        }
+        return sizes;
+    }
+
+    private static List<TupleWriter> openPartitions(String filePrefix, int count, int batchSize) {
+        List<TupleWriter> writers = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            TupleWriter writer = new TupleWriter(filePrefix + i, batchSize);
+            if (!writer.open()) {
+                System.out.println("ParallelHashJoin: Error writing to temporary file");
+                System.exit(1);
+            }
+            writers.add(writer);
+        }
+        return writers;
+    }
+
+    private static List<String> closePartitions(List<TupleWriter> writers) {
+        List<String> fileNames = new ArrayList<>();
+        for (TupleWriter writer : writers) {
+            writer.close();
+            fileNames.add(writer.getFileName());
+        }
+        return fileNames;
+    }
+
+    private static TupleReader openPartition(String fileName, int batchSize) {
+        TupleReader reader = new TupleReader(fileName, batchSize);
+        if (!reader.open()) {
+            System.out.println("ParallelHashJoin: Error reading temporary file");
+            System.exit(1);
+        }
+        return reader;
+    }
+
+    private static List<Object> keyOf(Tuple tuple, List<Integer> keyIndices) {
+        List<Object> key = new ArrayList<>(keyIndices.size());
+        for (int keyIndex : keyIndices) {
+            key.add(tuple.getData(keyIndex));
+        }
+        return key;
+    }
+
+    /**
+     * Gets the partition of the hash of the join keys of a tuple, where
+     * each seed gives a different hash of the same keys.
+     */
+    private static int partitionOf(Tuple tuple, List<Integer> keyIndices, int seed, int count) {
+        List<Object> key = keyOf(tuple, keyIndices);
+        long hash = seed == 0 ? BloomFilter.hash(key) : BloomFilter.hash(Arrays.asList(seed, key));
+        return (int) Math.floorMod(hash, (long) count);
+    }
+
+    /**
+     * A worker, which joins the partitions it owns, i.e., every
+     * {@code workerCount}-th partition starting from its index, in its
+     * share of the pages of the join.
+     */
+    private class Worker implements Runnable {
+        private final int workerIndex;
+        private final int workerCount;
+        private final int buildCapacity;  // Most right tuples in the hash table
+        private final int fanOut;         // Number of partitions a partition is partitioned again into
+        private Batch outputBuffer;
+        private int numSubPartitions = 0;
+
+        Worker(int workerIndex, int workerCount) {
+            this.workerIndex = workerIndex;
+            this.workerCount = workerCount;
+            // 1 page reads the left partition and 1 is for output
+            buildCapacity = (pagesPerWorker - 2) * rightBatchSize;
+            // 1 page reads the partition and 1 is for output
+            fanOut = pagesPerWorker - 2;
+        }
+
+        @Override
+        public void run() {
+            try {
+                outputBuffer = new Batch(batchSize);
+                for (int p = workerIndex; p < numPartitions; p += workerCount) {
+                    joinPartition(rightPartitions.get(p), rightPartitionSizes[p], leftPartitions.get(p), 0);
+                }
+                if (!outputBuffer.isEmpty()) {
+                    outputQueue.put(outputBuffer);
+                }
+            } catch (InterruptedException e) {
+                // the join is closed before all its output is consumed, and the interrupt is kept so that
+                // the end of the worker, which is taken by no one, is not waited for
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException | Error e) {
+                workerFailure = e;
+            } finally {
+                try {
+                    outputQueue.put(END_OF_WORKER);
+                } catch (InterruptedException e) {
+                    // the join is closed
+                }
+            }
+        }
+
+        /**
+         * Joins a partition, partitioning it again if its right tuples do
+         * not fit in the hash table.
+         *
+         * @param rightSize The number of right tuples of the partition
+         * @param depth The number of times the partition has been partitioned again
+         */
+        private void joinPartition(String rightFile, int rightSize, String leftFile, int depth)
+                throws InterruptedException {
+            if (rightSize == 0) {
+                return;
+            }
+            if (rightSize <= buildCapacity || depth >= MAX_REPARTITION_DEPTH || fanOut < 2) {
+                joinInBlocks(rightFile, leftFile);
+                return;
+            }
+
+            String prefix = filePrefix + "-w" + workerIndex + "-" + numSubPartitions++;
+            TupleReader rightReader = openPartition(rightFile, rightBatchSize);
+            List<TupleWriter> rightWriters = openPartitions(prefix + "-r", fanOut, rightBatchSize);
+            Tuple tuple;
+            while ((tuple = rightReader.next()) != null) {
+                rightWriters.get(partitionOf(tuple, rightIndices, depth + 1, fanOut)).next(tuple);
+            }
+            rightReader.close();
+            int[] subRightSizes = getSizes(rightWriters);
+            List<String> subRightFiles = closePartitions(rightWriters);
+            if (Arrays.stream(subRightSizes).max().getAsInt() == rightSize) {
+                // all the tuples share a partition, e.g., as they share a join key, so it cannot be split
+                deletePartitions(subRightFiles);
+                joinInBlocks(rightFile, leftFile);
+                return;
+            }
+
+            TupleReader leftReader = openPartition(leftFile, leftBatchSize);
+            List<TupleWriter> leftWriters = openPartitions(prefix + "-l", fanOut, leftBatchSize);
+            while ((tuple = leftReader.next()) != null) {
+                leftWriters.get(partitionOf(tuple, leftIndices, depth + 1, fanOut)).next(tuple);
+            }
+            leftReader.close();
+            List<String> subLeftFiles = closePartitions(leftWriters);
+            try {
+                for (int i = 0; i < fanOut; ++i) {
+                    joinPartition(subRightFiles.get(i), subRightSizes[i], subLeftFiles.get(i), depth + 1);
+                }
+            } finally {
+                deletePartitions(subRightFiles);
+                deletePartitions(subLeftFiles);
+            }
+        }
+
+        /**
+         * Joins a partition by building the hash table over each block of
+         * its right tuples which fits in turn, and probing it with all the
+         * left tuples of the partition.
+         */
+        private void joinInBlocks(String rightFile, String leftFile) throws InterruptedException {
+            TupleReader rightReader = openPartition(rightFile, rightBatchSize);
+            try {
+                while (rightReader.peek() != null) {
+                    Map<List<Object>, List<Tuple>> hashTable = new HashMap<>();
+                    Tuple rightTuple;
+                    for (int i = 0; i < buildCapacity && (rightTuple = rightReader.next()) != null; ++i) {
+                        hashTable.computeIfAbsent(keyOf(rightTuple, rightIndices), k -> new ArrayList<>()).add(rightTuple);
+                    }
+                    probe(hashTable, leftFile);
+                }
+            } finally {
+                rightReader.close();
+            }
+        }
+
+        private void probe(Map<List<Object>, List<Tuple>> hashTable, String leftFile) throws InterruptedException {
+            TupleReader leftReader = openPartition(leftFile, leftBatchSize);
+            try {
+                Tuple leftTuple;
+                while ((leftTuple = leftReader.next()) != null) {
+                    List<Tuple> matches = hashTable.get(keyOf(leftTuple, leftIndices));
+                    if (matches == null) {
+                        continue;
+                    }
+                    for (Tuple match : matches) {
+                        outputBuffer.addRecord(leftTuple.joinWith(match));
+                        if (outputBuffer.isFull()) {
+                            outputQueue.put(outputBuffer);
+                            outputBuffer = new Batch(batchSize);
+                        }
+                    }
+                }
+            } finally {
+                leftReader.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the next page of output of any worker.
+     **/
+    @Override
+    public Batch next() {
+        while (numWorkersRunning > 0) {
+            Batch outputBuffer;
+            try {
+                outputBuffer = outputQueue.take();
+            } catch (InterruptedException e) {
+                System.out.println("ParallelHashJoin: Interrupted while waiting for the workers");
+                return null;
+            }
+            if (outputBuffer == END_OF_WORKER) {
+                if (workerFailure != null) {
+                    System.out.println("ParallelHashJoin: A worker failed: " + workerFailure);
+                    System.exit(1);
+                }
+                numWorkersRunning--;
+                continue;
+            }
+            return outputBuffer;
+        }
+        return null;
+    }
+
+    /**
+     * Stops the workers and deletes the partitions.
+     *
+     * @return true if the operator is closed successfully.
+     */
+    @Override
+    public boolean close() {
+        if (workers != null) {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    System.out.println("ParallelHashJoin: Interrupted while stopping the workers");
+                }
+            }
+            workers = null;
+        }
+        deletePartitions(leftPartitions);
+        deletePartitions(rightPartitions);
+        runtimeFilters.remove();
+        BufferManager.release(numReservedPages);
+        numReservedPages = 0;
+        return true;
+    }
+
+    private static void deletePartitions(List<String> partitions) {
+        if (partitions == null) {
+            return;
+        }
+        for (String fileName : partitions) {
+            new File(fileName).delete();
+        }
+    }
+}
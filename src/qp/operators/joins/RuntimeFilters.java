@@ -0,0 +1,148 @@
+package qp.operators.joins;
+
+import qp.operators.Operator;
+import qp.operators.OperatorType;
+import qp.operators.Scan;
+import qp.operators.Select;
+import qp.optimizer.PlanCost;
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.RuntimeFilter;
+import qp.utils.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The runtime filters of a join, built over the right join keys of its
+ * equality conditions while the right input is consumed, and pushed down
+ * the left subtree to the scans of the left join attributes. The scans
+ * then drop the tuples which cannot join before they reach any batch.
+ * <p>
+ * A join must consume its right input before opening its left input to
+ * use runtime filters.
+ */
+public class RuntimeFilters {
+    private static boolean isEnabled = true;
+
+    private final Operator left;
+    private final List<Attribute> leftAttributes = new ArrayList<>();
+    private final List<Integer> rightIndices = new ArrayList<>();
+    private final List<RuntimeFilter.Builder> builders = new ArrayList<>();
+
+    private final List<Scan> targets = new ArrayList<>();
+    private final List<RuntimeFilter> pushedFilters = new ArrayList<>();
+
+    /**
+     * Sets whether joins build and push down runtime filters, for all
+     * subsequently opened instances.
+     *
+     * @param enabled Whether runtime filters are used
+     */
+    public static void setEnabled(boolean enabled) {
+        isEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * Prepares the filters of the specified join, which has opened neither input yet.
+     */
+    RuntimeFilters(Join join) {
+        left = join.getLeft();
+        if (!isEnabled) {
+            return;
+        }
+        PlanCost rightCost = null;
+        for (Condition joinCondition : join.getJoinConditions()) {
+            if (!joinCondition.isEquality()) {
+                continue;
+            }
+            Attribute leftAttribute = joinCondition.getLhs();
+            Attribute rightAttribute = (Attribute) joinCondition.getRhs();
+            leftAttributes.add(leftAttribute);
+            rightIndices.add(join.getRight().getSchema().indexOf(rightAttribute));
+            if (rightCost == null) {
+                rightCost = new PlanCost();
+                rightCost.getCost(join.getRight());
+            }
+            builders.add(new RuntimeFilter.Builder(getExpectedKeys(join, rightCost, rightAttribute)));
+        }
+    }
+
+    /**
+     * Gets the number of distinct right join keys to size a filter for,
+     * which is the estimate of the cost model, but no more keys than the
+     * bits of the buffer pages of the join hold, so a filter never takes
+     * more memory than its join.
+     */
+    private static int getExpectedKeys(Join join, PlanCost rightCost, Attribute rightAttribute) {
+        long maxKeys = (long) join.getNumBuff() * Batch.getPageSize() * Byte.SIZE / RuntimeFilter.BITS_PER_KEY;
+        return (int) Math.max(1, Math.min(rightCost.getNumDistinct(rightAttribute), maxKeys));
+    }
+
+    /**
+     * Adds the join keys of a right tuple to the filters.
+     */
+    void add(Tuple rightTuple) {
+        for (int i = 0; i < builders.size(); ++i) {
+            builders.get(i).add(rightTuple.getData(rightIndices.get(i)));
+        }
+    }
+
+    /**
+     * Builds the filters of all the right join keys added, and pushes each
+     * to the scan of its left join attribute, if there is one reachable.
+     */
+    void push() {
+        for (int i = 0; i < builders.size(); ++i) {
+            Attribute leftAttribute = leftAttributes.get(i);
+            Scan target = findScan(left, leftAttribute);
+            if (target == null) {
+                continue;
+            }
+            RuntimeFilter filter = builders.get(i).build(leftAttribute);
+            target.addRuntimeFilter(filter);
+            targets.add(target);
+            pushedFilters.add(filter);
+        }
+        builders.clear();
+    }
+
+    /**
+     * Removes the pushed filters from their scans.
+     */
+    void remove() {
+        for (int i = 0; i < targets.size(); ++i) {
+            targets.get(i).removeRuntimeFilter(pushedFilters.get(i));
+        }
+        targets.clear();
+        pushedFilters.clear();
+    }
+
+    /**
+     * Finds the scan producing the attribute in the specified subtree,
+     * through the joins and selections which pass its values on as they are.
+     *
+     * @return The scan of the attribute, or null if there is none reachable
+     */
+    private static Scan findScan(Operator node, Attribute attribute) {
+        if (node.getSchema().indexOf(attribute) < 0) {
+            return null;
+        }
+        switch (node.getOpType()) {
+            case OperatorType.SCAN:
+                return (Scan) node;
+            case OperatorType.SELECT:
+                return findScan(((Select) node).getBase(), attribute);
+            case OperatorType.JOIN:
+                Scan scan = findScan(((Join) node).getLeft(), attribute);
+                return scan != null ? scan : findScan(((Join) node).getRight(), attribute);
+            default:
+                return null;
+        }
+    }
+}
@@ -1,56 +1,131 @@
 package qp.operators.joins;
-import qp.utils.Batch;
+
+import qp.operators.Buffer;
+import qp.operators.Operator;
 import qp.operators.Sort;
+import qp.optimizer.BufferManager;
 import qp.utils.Attribute;
+import qp.utils.Batch;
 import qp.utils.Condition;
 import qp.utils.Tuple;
-import qp.operators.Buffer;
+import qp.utils.TupleReader;
+import qp.utils.TupleWriter;
 
-import java.io.*;
-import java.nio.file.Files;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * The Sort-Merge Join algorithm.
+ * <p>
+ * Both inputs are sorted on their join attributes and merged. All the
+ * right tuples sharing a join key (the current right group) are held in
+ * a buffer of {@code B - 3} pages, and every left tuple with that key is
+ * joined against the buffered group. The rest of a group that does not
+ * fit in the buffer is read again from the sorted right input, which is
+ * rewound to a page marked where the rest begins. If the right input
+ * cannot be rewound, the rest is spilled to a single temporary file
+ * instead, so each right tuple is read from the right input exactly once.
+ * <p>
+ * If the merge is pipelined, each input is sorted with half the buffers
+ * left after the join's own 2 pages only until at most {@code (B - 2) / 2}
+ * runs remain, and the join consumes both inputs straight from the final
+ * merges of their sorts.
+ */
 public class SortMergeJoin extends Join {
+    /**
+     * The minimum number of buffer pages a sort needs to merge runs.
+     */
+    private static final int MIN_SORT_BUFFER_SIZE = 3;
+
+    private static int uniqueFileNumber = 0;
+    private static boolean isPipelined = false;
+
     private int batchSize;                  // Number of tuples per out batch
-    
+    private int rightBatchSize;             // Number of tuples per right page
+
     protected final Join join;
 
     private List<Integer> leftIndices;   // Indices of the join attributes in left table
     private List<Integer> rightIndices;  // Indices of the join attributes in right table
-    private List<Attribute> leftAttrs;
-    private List<Attribute> rightAttrs;
-
-    private Batch leftInputBatch;
-    private Buffer rightInputBuffer;
-    private Batch outputBuffer;
-
-    int leftCursor;                       // Cursor for left side buffer
-    boolean isLeftEndOfStream;            // Whether end of stream (left table) is reached
-    boolean isRightEndOfStream;           // Whether end of stream (right table) is reached
 
-    // This index is unique for each tuple in a table
-    int rightTupleIndex;
+    private Operator sortedLeft;   // The sorted left input, or the left input if it is in order already
+    private Operator sortedRight;  // The sorted right input, or the right input if it is in order already
+    private RuntimeFilters runtimeFilters;
 
-    // Materialized right table stored in disk for possible backtracking
-    List<File> rightPages;
-
-    // Used for backtracking
+    private Batch leftInputBatch;
+    private int leftCursor;
+    private Batch rightInputBatch;
+    private int rightCursor;
+    private boolean isEndOfStream;
 
-    // the index of first right tuple we found a matching in current iteration 
-    int currFirstMatchingTupleIndex;
+    /**
+     * The in-memory part of the current right group.
+     */
+    private Buffer rightGroup;
+    private int numReservedPages;
+    /**
+     * The sorted right input if it can be rewound, or null.
+     */
+    private Sort rewindableRight;
+    /**
+     * Whether the part of the current right group which does not fit in
+     * {@code rightGroup} is read from {@code rewindableRight}, starting at
+     * its marked page at index {@code rightGroupMarkCursor}.
+     */
+    private boolean isRightGroupMarked;
+    private int rightGroupMarkCursor;
+    /**
+     * The part of the current right group which does not fit in
+     * {@code rightGroup} if the right input cannot be rewound, or null if
+     * the whole group is in memory.
+     */
+    private TupleWriter rightGroupSpill;
+    private TupleReader rightGroupSpillReader;
+    private int rightGroupCursor;
+    /**
+     * The left tuple currently being joined with the right group, or
+     * null if there is no group being joined.
+     */
+    private Tuple groupLeftTuple;
 
-    // the absolute index of the first batch in current right buffer
-    int rightBatchIndexOffset;
-    
-    boolean isPrevTuplesMatch = false;
+    /**
+     * Sets whether the final merges of both sorts are done on the fly
+     * by the join, for all subsequently opened instances.
+     *
+     * @param pipelined Whether the merge is pipelined
+     */
+    public static void setPipelined(boolean pipelined) {
+        isPipelined = pipelined;
+    }
 
-    boolean retriveNewLeftPage;
+    public static boolean isPipelined() {
+        return isPipelined;
+    }
 
-    Sort sortedLeft;
-    Sort sortedRight;
+    /**
+     * Checks whether the merge is pipelined with the specified number
+     * of buffer pages, which must allow both sorts to merge runs.
+     *
+     * @param numBuff The number of buffer pages of the join
+     * @return True if the merge is pipelined
+     */
+    public static boolean isPipelined(int numBuff) {
+        return isPipelined && getPipelinedSortSize(numBuff) >= MIN_SORT_BUFFER_SIZE;
+    }
 
-    private int rightBufferSize;
+    /**
+     * Gets the number of buffer pages of the sort of each input if the
+     * merge is pipelined: half of those left after the output page and
+     * the right group page of the join, so all of them stay within the
+     * buffer pages of the join.
+     *
+     * @param numBuff The number of buffer pages of the join
+     * @return The number of buffer pages of each sort
+     */
+    public static int getPipelinedSortSize(int numBuff) {
+        return (numBuff - 2) / 2;
+    }
 
     public SortMergeJoin(Join join) {
         super(join.getLeft(), join.getRight(), join.getJoinConditions());
@@ -61,22 +136,20 @@ public class SortMergeJoin extends Join {
     }
 
     /**
-     * During open finds the index of the join attributes
-     * * Materializes the right hand side into a file
-     * * Opens the connections
-     **/
+     * Sorts both inputs on their join attributes.
+     */
     @Override
     public boolean open() {
         /** select number of tuples per batch **/
         int tupleSize = schema.getTupleSize();
         batchSize = Batch.getPageSize() / tupleSize;
-        
+        rightBatchSize = Math.max(1, Batch.getPageSize() / right.getSchema().getTupleSize());
+
         /** find indices attributes of join conditions **/
         leftIndices = new ArrayList<>();
         rightIndices = new ArrayList<>();
-        leftAttrs = new ArrayList<>();
-        rightAttrs = new ArrayList<>();
-
+        List<Attribute> leftAttrs = new ArrayList<>();
+        List<Attribute> rightAttrs = new ArrayList<>();
         for (Condition joinCondition : joinConditions) {
             Attribute leftAttribute = joinCondition.getLhs();
             Attribute rightAttribute = (Attribute) joinCondition.getRhs();
@@ -86,276 +159,295 @@ public class SortMergeJoin extends Join {
             rightIndices.add(right.getSchema().indexOf(rightAttribute));
         }
 
-        /** initialize the cursors of input buffers **/
-        leftCursor = CURSOR_START;
-        retriveNewLeftPage = true;
-
-        if (!left.open() || !right.open()){
-            System.out.println("SortMergeJoin: Error opening left or right table");
-			return false;
-		}
-
-        isLeftEndOfStream = false;
-        isRightEndOfStream = false;
-
-        // Get sorted tables using external sort algorithm for both left and right tables.
-        sortedLeft = new Sort(left, leftAttrs, Sort.Direction.ASC, numBuff);
-        sortedRight = new Sort(right, rightAttrs, Sort.Direction.ASC, numBuff);
-
-        if (!sortedLeft.open() || !sortedRight.open()){
-            System.out.println("SortMergeJoin: Error opening sorted left or sorted right table");
-			return false;
-		}
-
-        /** If the right operator is not a base table then
-         ** Materialize the intermediate result from right
-         ** into a file
-         **/
-        int fileIndex = 0;
-        Batch rightpage;
-        rightPages = new ArrayList<>();
-        
-        // Materialize each page in sorted right table into a file to faciliate possible backtrackings.
-        try {
-            while ((rightpage = sortedRight.next()) != null) {
-                String rfname = "SMJtemp-" + fileIndex;
-                File file = new File(rfname);
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
-                out.writeObject(rightpage);
-                out.close();
-                rightPages.add(file);
-                // System.out.println("SortMergeJoin:" + fileIndex);
-                fileIndex++;
-            }
-        } catch (IOException io) {
-            // System.out.println("SortMergeJoin: Error writing to temporary file");
+        // the sort operators open and close their own base operators
+        boolean isPipelined = isPipelined(numBuff);
+        if (isPipelined) {
+            sortedLeft = sort(left, leftAttrs, getPipelinedSortSize(numBuff), true);
+            sortedRight = sort(right, rightAttrs, getPipelinedSortSize(numBuff), true);
+        } else {
+            sortedLeft = sort(left, leftAttrs, numBuff, false);
+            sortedRight = sort(right, rightAttrs, numBuff, false);
+        }
+        // the right input is sorted first so that its join keys filter the left input,
+        // which is only possible if all its keys are seen before the left input is read
+        runtimeFilters = new RuntimeFilters(this);
+        boolean isRightSorted = sortedRight instanceof Sort;
+        if (isRightSorted) {
+            ((Sort) sortedRight).setInputObserver(runtimeFilters::add);
+        }
+        if (!sortedRight.open()) {
+            System.out.println("SortMergeJoin: Error opening sorted right table");
             return false;
         }
-
-        // allocate B - 2 buffers for right input, 1 for output, 1 for left input.
-        rightBufferSize = getNumBuff() - 2;
-        rightBatchIndexOffset = 0;
-        rightTupleIndex = 0;
-        
-        try {
-            createRightBuffer(rightBufferSize, 0);
-        } catch (IndexOutOfBoundsException e) {
-            // System.out.println("SortMergeJoin: Right pages are all read in");
+        if (isRightSorted) {
+            runtimeFilters.push();
+        }
+        rewindableRight = isRightSorted && ((Sort) sortedRight).isRewindable() ? (Sort) sortedRight : null;
+        if (!sortedLeft.open()) {
+            System.out.println("SortMergeJoin: Error opening sorted left table");
+            return false;
+        }
+        // the sorts hold the input pages, and 1 buffer is for output
+        if (isPipelined) {
+            // the final merges hold the other pages, leaving 1 page for the right group
+            numReservedPages = BufferManager.reserve(2, 2);
+        } else {
+            // the rest of the pages, besides the input pages, are for the right group
+            numReservedPages = BufferManager.reserve(numBuff - 2, 2);
         }
 
+        leftInputBatch = null;
+        leftCursor = CURSOR_START;
+        rightInputBatch = null;
+        rightCursor = CURSOR_START;
+        groupLeftTuple = null;
+        isEndOfStream = false;
         return true;
     }
 
+    /**
+     * Sorts an input on its join attributes, unless its output is known
+     * to be in that order already, e.g., it scans a table clustered on them.
+     */
+    private static Operator sort(Operator input, List<Attribute> attributes, int numPages, boolean isFinalMergePipelined) {
+        if (Sort.isSorted(input, attributes)) {
+            return input;
+        }
+        if (isFinalMergePipelined) {
+            return new Sort(input, attributes, Sort.Direction.ASC, numPages, true);
+        }
+        return new Sort(input, attributes, Sort.Direction.ASC, numPages);
+    }
+
     /**
      * from input buffers selects the tuples satisfying join condition
      * * And returns a page of output tuples
      **/
     @Override
     public Batch next() {
-        if (isLeftEndOfStream || isRightEndOfStream) {
-            // System.out.println("SortMergeJoin: return null");
+        if (isEndOfStream) {
             return null;
         }
 
-        outputBuffer = new Batch(batchSize);
+        Batch outputBuffer = new Batch(batchSize);
+        while (!outputBuffer.isFull()) {
+            if (groupLeftTuple != null) {
+                Tuple rightTuple = nextGroupTuple();
+                if (rightTuple != null) {
+                    outputBuffer.addRecord(groupLeftTuple.joinWith(rightTuple));
+                    continue;
+                }
 
-        while(!outputBuffer.isFull()) {
-            if (isLeftEndOfStream || isRightEndOfStream) {
-                break;
+                // the group is exhausted for this left tuple, so move on to the next left tuple
+                advanceLeft();
+                Tuple leftTuple = peekLeft();
+                if (leftTuple != null && Tuple.compareTuples(leftTuple, groupLeftTuple, leftIndices, leftIndices) == 0) {
+                    groupLeftTuple = leftTuple;
+                    rewindGroup();
+                } else {
+                    groupLeftTuple = null;
+                    discardGroup();
+                }
+                continue;
             }
 
-            // Fetch a new page to left input buffer from sorted left table if we have already gone through original right input buffer.
-            if (leftCursor == CURSOR_START && retriveNewLeftPage) {
-                //System.out.println("SortMergeJoin: retrive new left page");
-                leftInputBatch = sortedLeft.next();
-                retriveNewLeftPage = false;
-
-                // If sorted left table runs out
-                if (leftInputBatch == null || leftInputBatch.isEmpty()) {
-                    // System.out.println("SortMergeJoin: sorted left table run out");
-                    isLeftEndOfStream = true;
-                    break;
-                }
+            Tuple leftTuple = peekLeft();
+            Tuple rightTuple = peekRight();
+            if (leftTuple == null || rightTuple == null) {
+                isEndOfStream = true;
+                break;
             }
 
-            Tuple leftTuple;
-            Tuple rightTuple;
+            int compareRes = Tuple.compareTuples(leftTuple, rightTuple, leftIndices, rightIndices);
+            if (compareRes < 0) {
+                advanceLeft();
+            } else if (compareRes > 0) {
+                advanceRight();
+            } else {
+                readRightGroup();
+                groupLeftTuple = leftTuple;
+                rewindGroup();
+            }
+        }
 
-            //System.out.println("SortMergeJoin: right tuple index: " + rightTupleIndex);
+        if (isEndOfStream && outputBuffer.isEmpty()) {
+            return null;
+        }
+        return outputBuffer;
+    }
 
-            // Get the next tuple from each table
-            leftTuple = leftInputBatch.getRecord(leftCursor);
-            if (leftTuple == null) {
-                isLeftEndOfStream = true;
-                // System.out.println("SortMergeJoin: left table run out");
-                break;
+    /**
+     * Gets the current left tuple without consuming it.
+     *
+     * @return The current left tuple, or null if the left input is exhausted
+     */
+    private Tuple peekLeft() {
+        while (leftInputBatch == null || leftCursor >= leftInputBatch.size()) {
+            leftInputBatch = sortedLeft.next();
+            leftCursor = CURSOR_START;
+            if (leftInputBatch == null) {
+                return null;
             }
+        }
+        return leftInputBatch.getRecord(leftCursor);
+    }
 
-            rightTuple = getRightTuple(rightTupleIndex);
-            if (rightTuple == null) {
-                isRightEndOfStream = true;
-
-                // if sorted right table runs out but the previous tuples matches - backtracking
-                if (isPrevTuplesMatch) {
-                    //System.out.println("SortMergeJoin: go to next left tuple");
-                    rightTupleIndex = currFirstMatchingTupleIndex;
-                    isPrevTuplesMatch = false;
-                    isRightEndOfStream = false;
-                    if (leftCursor == leftInputBatch.size() - 1) {
-                        // retrieve the next page of left table
-                        leftCursor = CURSOR_START;
-                        retriveNewLeftPage = true;
-                    } else {
-                        leftCursor++;
-                    }    
-                }
-                // System.out.println("SortMergeJoin: right table run out");
-                continue;
-            }
+    private void advanceLeft() {
+        leftCursor++;
+    }
 
-            int compareRes = Tuple.compareTuples(leftTuple, rightTuple, leftIndices.get(0), rightIndices.get(0));
+    /**
+     * Gets the current right tuple without consuming it.
+     *
+     * @return The current right tuple, or null if the right input is exhausted
+     */
+    private Tuple peekRight() {
+        while (rightInputBatch == null || rightCursor >= rightInputBatch.size()) {
+            rightInputBatch = sortedRight.next();
+            rightCursor = CURSOR_START;
+            if (rightInputBatch == null) {
+                return null;
+            }
+        }
+        return rightInputBatch.getRecord(rightCursor);
+    }
 
-            // advance left cursor
-            if (compareRes < 0) {
-                //System.out.println("SortMergeJoin: advance left cursor");
-                //System.out.println(leftTuple.getData().get(leftIndices.get(0)) + " " + rightTuple.getData().get(rightIndices.get(0)));
-                if (leftCursor == leftInputBatch.size() - 1) {
-                    // retrieve the next page of left table
-                    leftCursor = CURSOR_START;
-                    retriveNewLeftPage = true;
-                } else {
-                    leftCursor++;
-                }
+    private void advanceRight() {
+        rightCursor++;
+    }
 
-                // backtrack the right table
-                if (isPrevTuplesMatch) {
-                    rightTupleIndex = currFirstMatchingTupleIndex;
-                    //System.out.println("SortMergeJoin: go to next left tuple");
+    /**
+     * Reads the right tuples with the same join key as the current right
+     * tuple into the group buffer. If they do not all fit, the right input
+     * is marked where the rest begins, or the rest is consumed and spilled
+     * to a temporary file if the right input cannot be rewound.
+     */
+    private void readRightGroup() {
+        Tuple first = peekRight();
+        rightGroup = new Buffer(numReservedPages - 1);
+        isRightGroupMarked = false;
+        rightGroupSpill = null;
+
+        Batch page = new Batch(rightBatchSize);
+        Tuple rightTuple = first;
+        while (rightTuple != null && Tuple.compare(rightTuple, first, rightIndices) == 0) {
+            if (rightGroupSpill != null) {
+                rightGroupSpill.next(rightTuple);
+            } else if (!rightGroup.hasCapacity()) {
+                // the buffer is full, so the pending page is empty
+                if (rewindableRight != null) {
+                    // the page of the current right tuple is the one last read
+                    rewindableRight.mark();
+                    rightGroupMarkCursor = rightCursor;
+                    isRightGroupMarked = true;
+                    return;
                 }
-
-                // reset the boolean flag
-                isPrevTuplesMatch = false;
-            } else if (compareRes > 0) {
-                // advance right cursor
-                        //System.out.println("SortMergeJoin: advance right cursor");
-                        //System.out.println(leftTuple.getData().get(leftIndices.get(0)) + " " + rightTuple.getData().get(rightIndices.get(0)));
-                rightTupleIndex++;
-                
-                // reset the boolean flag
-                isPrevTuplesMatch = false;
+                openGroupSpill();
+                rightGroupSpill.next(rightTuple);
             } else {
-                // found matching tuples and add it to the output buffer
-                        //System.out.println("SortMergeJoin: found matching");
-                        //System.out.println(leftTuple.getData().get(leftIndices.get(0)) + " " + rightTuple.getData().get(rightIndices.get(0)));
-                Tuple outTuple = leftTuple.joinWith(rightTuple);
-                outputBuffer.addRecord(outTuple);
-
-                if (!isPrevTuplesMatch) {
-                    currFirstMatchingTupleIndex = rightTupleIndex;
+                page.addRecord(rightTuple);
+                if (page.isFull()) {
+                    rightGroup.addPage(page);
+                    page = new Batch(rightBatchSize);
                 }
-                isPrevTuplesMatch = true;
-                rightTupleIndex++;
-            }         
+            }
+            advanceRight();
+            rightTuple = peekRight();
+        }
+
+        if (rightGroupSpill != null) {
+            rightGroupSpill.close();
+        } else if (!page.isEmpty()) {
+            rightGroup.addPage(page);
         }
-        // System.out.println("SortMergeJoin: write out");
-        return outputBuffer;
     }
 
     /**
-     * Get the tuple from right table with the specified index
+     * Starts spilling the rest of the current right group, which does not
+     * fit in the group buffer.
      */
-    private Tuple getRightTuple(int rightTupleIndex) {
-        // Calculate the size of each right batch
-        int rightTupleSize = getRight().getSchema().getTupleSize();
-        int rightBatchSize = Batch.getPageSize() / rightTupleSize;
-
-        // The index of the batch where the tuple we want exists
-        int batchIndex = rightTupleIndex / rightBatchSize;
-        int offset = rightTupleIndex % rightBatchSize; // offset of the tuple within the batch it belongs to
-
-        // the index of the batch inside the current buffer
-        int absoluteBatchIndex = batchIndex - rightBatchIndexOffset;
-
-        if (absoluteBatchIndex >= 0 && absoluteBatchIndex < rightBufferSize) {
-            // the batch we want is already inside buffer
-            int absoluteTupleIndex = absoluteBatchIndex * rightBatchSize + offset;
-            return rightInputBuffer.getRecord(absoluteTupleIndex);
-        } else {
-            // not inside buffer
-            try {
-                // update the right buffer by putting in list of batches starting from the batch we want now. (the batch include the tuple we want)
-                createRightBuffer(rightBufferSize, batchIndex);
-            } catch (IndexOutOfBoundsException e) {
-                // System.out.println("SortMergeJoin: Right pages are all read in");
-            }
-            // System.out.println("SortMergeJoin: retrive new right buffer");
-            rightBatchIndexOffset = batchIndex;
-            int absoluteTupleIndex = offset;
-            // System.out.println("SortMergeJoin: absolute tuple index: " + absoluteTupleIndex);
-            return rightInputBuffer.getRecord(absoluteTupleIndex); // fetch the tuple we want from the updated buffer
+    private void openGroupSpill() {
+        uniqueFileNumber++;
+        rightGroupSpill = new TupleWriter("SMJtemp-" + uniqueFileNumber, rightBatchSize);
+        if (!rightGroupSpill.open()) {
+            System.out.println("SortMergeJoin: Error writing to temporary file");
+            System.exit(1);
         }
     }
 
     /**
-     * Initialize the right buffer when we first open the operator 
-     * or read in new pages from the right table into buffers when needed.
+     * Positions the group cursor before the first tuple of the group.
      */
-    private boolean createRightBuffer(int bufferSize, int startIndex) throws IndexOutOfBoundsException {
-        // create a new buffer object with buffer size allocated
-        rightInputBuffer = new Buffer(bufferSize);
-
-        // the index of the first batch we need to put into current buffer
-        int idx = startIndex;
-
-        while (true) {
-            Batch batch = null;
-            try {
-                // read in the batch with the specified index from disk
-                ObjectInputStream objectInputStream = new ObjectInputStream(new FileInputStream(rightPages.get(idx)));
-                batch = (Batch) objectInputStream.readObject();
-                objectInputStream.close();
-            } catch (IOException | ClassNotFoundException io) {
-                // System.err.println("SortMergeJoin: error in reading the file " + idx);
-                io.printStackTrace();
-                System.exit(1);
-            }
-            if (rightInputBuffer.isEmpty() && batch == null) {
-                rightInputBuffer = null;
-                break;
-            }
-            if (batch == null) {
-                // break if the batch fetched is null
-                break;
+    private void rewindGroup() {
+        rightGroupCursor = CURSOR_START;
+        if (rightGroupSpillReader != null) {
+            rightGroupSpillReader.close();
+            rightGroupSpillReader = null;
+        }
+        if (isRightGroupMarked) {
+            rewindableRight.restore();
+            rightInputBatch = rewindableRight.next();
+            rightCursor = rightGroupMarkCursor;
+        }
+    }
+
+    /**
+     * Gets the next tuple of the right group, reading from the group
+     * buffer first and then from the right input or the spilled tuples.
+     *
+     * @return The next tuple of the group, or null if the group is exhausted
+     */
+    private Tuple nextGroupTuple() {
+        if (rightGroupCursor < rightGroup.size()) {
+            return rightGroup.getRecord(rightGroupCursor++);
+        }
+        if (isRightGroupMarked) {
+            Tuple rightTuple = peekRight();
+            if (rightTuple == null || Tuple.compare(rightTuple, rightGroup.getRecord(0), rightIndices) != 0) {
+                return null;
             }
-            if (!rightInputBuffer.hasCapacity()) {
-                break;
+            advanceRight();
+            return rightTuple;
+        }
+        if (rightGroupSpill == null) {
+            return null;
+        }
+        if (rightGroupSpillReader == null) {
+            rightGroupSpillReader = new TupleReader(rightGroupSpill.getFileName(), rightBatchSize);
+            if (!rightGroupSpillReader.open()) {
+                System.exit(1);
             }
-            // add the batch fetched into the right input buffer
-            rightInputBuffer.addPage(batch);
-            // System.out.println("SortMergeJoin: add page to right buffer " + idx);
-            idx++;
         }
-        return true;
+        return rightGroupSpillReader.next();
     }
 
     /**
-     * Closes this operator and delete files used for materialized right table.
+     * Releases the current right group and its temporary file, if any.
+     */
+    private void discardGroup() {
+        // the right input is already past the group
+        isRightGroupMarked = false;
+        rewindGroup();
+        rightGroup = null;
+        if (rightGroupSpill != null) {
+            new File(rightGroupSpill.getFileName()).delete();
+            rightGroupSpill = null;
+        }
+    }
+
+    /**
+     * Closes this operator and delete files used for the right group.
      *
      * @return true if the operator is closed successfully.
      */
     @Override
     public boolean close() {
-        left.close();
-        right.close();
+        discardGroup();
+        BufferManager.release(numReservedPages);
+        numReservedPages = 0;
         sortedLeft.close();
         sortedRight.close();
-        for (File file : rightPages) {
-            try {
-                Files.deleteIfExists(file.toPath());
-            } catch (IOException e) {
-                continue;
-            }
-        }
+        runtimeFilters.remove();
         return super.close();
     }
 }
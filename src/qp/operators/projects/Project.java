@@ -1,5 +1,6 @@
 package qp.operators.projects;
 
+import qp.operators.BitmapScan;
 import qp.operators.Operator;
 import qp.operators.OperatorType;
 import qp.operators.projects.aggregates.*;
@@ -13,10 +14,10 @@ import java.util.List;
  */
 public class Project extends Operator {
     private Operator base;                 // Base table to project
-    private final int numTuplesPerPage;
+    private int numTuplesPerPage;
 
     private final List<Attribute> projectedAttributes;
-    private final int[] projectedIndices;
+    private int[] projectedIndices;
 
     private boolean requiresAggregation;
     private final List<Object> aggregators;
@@ -75,6 +76,9 @@ public class Project extends Operator {
 
     @Override
     public boolean open() {
+        // the base schema may have been reordered by the optimizer since construction
+        numTuplesPerPage = Batch.getPageSize() / base.getSchema().getTupleSize();
+        projectedIndices = computeProjectedIndices(projectedAttributes);
         return base.open();
     }
 
@@ -89,7 +93,13 @@ public class Project extends Operator {
                 return null;
             }
 
-            while ((inputPage = base.next()) != null) {
+            boolean isCountedByBitmaps = isCountedByBitmaps();
+            if (isCountedByBitmaps) {
+                // the bitmaps give the number of tuples without reading them
+                CountAggregator countAggregator = (CountAggregator) aggregators.get(Attribute.COUNT - 1);
+                countAggregator.includeAll(((BitmapScan) base).getCardinality());
+            }
+            while (!isCountedByBitmaps && (inputPage = base.next()) != null) {
                 for (Tuple record : inputPage.getRecords()) {
                     for (int i = 0; i < projectedAttributes.size(); i++) {
                         int aggregateType = projectedAttributes.get(i).getAggType();
@@ -210,6 +220,22 @@ public class Project extends Operator {
         return outputPage;
     }
 
+    /**
+     * Checks whether all the projected attributes are counts of the tuples
+     * of a {@code BitmapScan}, which are then never read.
+     */
+    public boolean isCountedByBitmaps() {
+        if (!(base instanceof BitmapScan)) {
+            return false;
+        }
+        for (Attribute projectedAttribute : projectedAttributes) {
+            if (projectedAttribute.getAggType() != Attribute.COUNT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public boolean close() {
         inputPage = null;
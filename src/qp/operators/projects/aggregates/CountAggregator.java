@@ -16,6 +16,15 @@ public class CountAggregator implements Aggregator<Integer> {
         quantity++;
     }
 
+    /**
+     * Includes the specified number of values at once.
+     *
+     * @param count The number of values to be aggregated in
+     */
+    public void includeAll(int count) {
+        quantity += count;
+    }
+
     @Override
     public Integer get() {
         return quantity;
@@ -1,7 +1,19 @@
 package qp.optimizer;
 
+import qp.storage.BufferPool;
+
+import java.io.IOException;
+
 /**
  * Contains information related to buffers.
+ * <p>
+ * It also governs the budget of buffer pages across all the operators
+ * of a plan. An operator reserves the pages it works with when it opens
+ * (or when one of its phases starts, once its inputs have used theirs),
+ * and releases them when it closes or a phase ends, so the pages of a
+ * finished phase are granted to the operators opened after it. An
+ * operator granted fewer pages than requested adapts to them, e.g., a
+ * sort merges fewer runs at a time.
  */
 public class BufferManager {
     /**
@@ -12,9 +24,26 @@ public class BufferManager {
      * The number of joins involved.
      */
     private static int numJoin;
+    /**
+     * The number of buffer pages not reserved by any operator, which is
+     * negative if the minimum reservations exceed the budget.
+     */
+    private static int numUnreserved;
+    /**
+     * The number of buffer pages which are kept out of the operators'
+     * reservations for the shared buffer pool, so the pages an operator
+     * reads again, e.g., the materialized right input of a nested join,
+     * stay cached.
+     */
+    private static int numPoolBuffers;
+    private static int peakReserved;
 
     /**
-     * Initialises the {@code BufferManager.}
+     * Initialises the {@code BufferManager}, and the shared buffer pool
+     * with as many frames as buffer pages. The pool caches unpinned pages
+     * only in the pages which are not reserved, so the operators and the
+     * pool together hold no more than the budget. A quarter of the pages
+     * is left to the pool unless the operators need them to run.
      * <p>
      * This method should be called only once.
      *
@@ -25,12 +54,74 @@ public class BufferManager {
     public static void init(int numBuffers, int numJoins) {
         numBuffer = numBuffers;
         numJoin = numJoins;
+        numUnreserved = numBuffers;
+        numPoolBuffers = numBuffers / 4;
+        peakReserved = 0;
+        BufferPool.init(numBuffers);
+    }
+
+    /**
+     * Reserves buffer pages for an operator. It is granted as many of the
+     * requested pages as are neither reserved nor left to the buffer pool,
+     * but no fewer than the minimum it needs to run, even if the budget is
+     * exceeded.
+     *
+     * @param requested The number of pages the operator would work with
+     * @param minimum The number of pages the operator needs
+     * @return The number of pages granted, to be given back with {@code release}
+     */
+    public static synchronized int reserve(int requested, int minimum) {
+        int granted = Math.max(minimum, Math.min(requested, numUnreserved - numPoolBuffers));
+        numUnreserved -= granted;
+        peakReserved = Math.max(peakReserved, numBuffer - numUnreserved);
+        resizePool();
+        return granted;
+    }
+
+    public static synchronized void release(int numPages) {
+        numUnreserved += numPages;
+        resizePool();
+    }
+
+    /**
+     * Gives the shared buffer pool the pages which are not reserved for
+     * caching, evicting the cached pages which no longer fit.
+     */
+    private static void resizePool() {
+        try {
+            BufferPool.getInstance().setCapacity(numUnreserved);
+        } catch (IOException e) {
+            System.out.println("BufferManager: Error writing a page evicted from the buffer pool");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Gets the largest number of buffer pages reserved at the same time.
+     */
+    public static synchronized int getPeakReserved() {
+        return peakReserved;
     }
 
     public static int getNumBuffer() {
         return numBuffer;
     }
 
+    /**
+     * Gets the number of buffer pages which are left to the buffer pool.
+     */
+    public static int getNumPoolBuffers() {
+        return numPoolBuffers;
+    }
+
+    /**
+     * Gets the number of buffer pages which the operators may reserve,
+     * i.e., all but those left to the buffer pool.
+     */
+    public static int getNumOperatorBuffers() {
+        return numBuffer - numPoolBuffers;
+    }
+
     /**
      * Computes the number of buffer pages each join can be
      * allocated with.
@@ -0,0 +1,249 @@
+package qp.optimizer;
+
+import qp.operators.Debug;
+import qp.operators.Distinct;
+import qp.operators.Operator;
+import qp.operators.OperatorType;
+import qp.operators.OrderBy;
+import qp.operators.Select;
+import qp.operators.Sort;
+import qp.operators.joins.Join;
+import qp.operators.joins.JoinType;
+import qp.operators.projects.Project;
+import qp.utils.Attribute;
+import qp.utils.Condition;
+import qp.utils.SQLQuery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A dynamic programming optimizer in the style of System R, which finds
+ * the cheapest plans of the connected sets of tables of the join graph
+ * bottom-up, each from the cheapest plans of two connected sets joined
+ * by a condition, with every applicable join method.
+ * <p>
+ * Each table starts with its cheapest access path. A set keeps the
+ * cheapest plan of each interesting order besides the cheapest plan
+ * overall, where an order is interesting if it starts with a join
+ * attribute, an ORDERBY attribute, or a projected attribute of a
+ * DISTINCT query, as a costlier plan in such an order may save a sort
+ * above it. The plans are costed by {@code PlanCost}, and the plans of
+ * all the tables are completed with the projection, duplicate
+ * elimination and ordering of the query before the cheapest is chosen.
+ * <p>
+ * The number of sets grows exponentially with the number of tables, so
+ * the optimizer is only used for queries of up to {@code MAX_NUM_JOINS}
+ * joins, and the randomized optimizer for larger queries.
+ */
+public class DPOptimizer {
+    public static final int MAX_NUM_JOINS = 11;
+
+    private final SQLQuery sqlquery;
+    private final List<String> tables;
+    private final Set<Attribute> interestingAttributes;
+
+    /**
+     * The cheapest plans of each connected set of tables, given as the
+     * bits of the indexes of its tables, mapped from their orders.
+     */
+    private final Map<Integer, Map<List<Attribute>, Operator>> plans;
+    private final Map<Operator, Long> costs;
+
+    public DPOptimizer(SQLQuery sqlquery) {
+        this.sqlquery = sqlquery;
+        tables = sqlquery.getFromList();
+        interestingAttributes = new HashSet<>(sqlquery.getOrderByList());
+        for (Condition joinCondition : sqlquery.getJoinList()) {
+            interestingAttributes.add(joinCondition.getLhs());
+            interestingAttributes.add((Attribute) joinCondition.getRhs());
+        }
+        if (sqlquery.isDistinct()) {
+            interestingAttributes.addAll(sqlquery.getProjectList());
+        }
+        plans = new HashMap<>();
+        costs = new HashMap<>();
+    }
+
+    /**
+     * Checks whether a query is small enough to be optimized by dynamic programming.
+     */
+    public static boolean isApplicable(SQLQuery sqlquery) {
+        return sqlquery.getNumJoin() <= MAX_NUM_JOINS;
+    }
+
+    /**
+     * Checks whether the tables of a query are all connected by its join conditions.
+     */
+    public static boolean isConnected(SQLQuery sqlquery) {
+        List<String> tables = sqlquery.getFromList();
+        Set<String> connected = new HashSet<>();
+        connected.add(tables.get(0));
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (Condition joinCondition : sqlquery.getJoinList()) {
+                String lhsTable = joinCondition.getLhs().getTabName();
+                String rhsTable = ((Attribute) joinCondition.getRhs()).getTabName();
+                if (connected.contains(lhsTable) != connected.contains(rhsTable)) {
+                    connected.add(lhsTable);
+                    connected.add(rhsTable);
+                    grown = true;
+                }
+            }
+        }
+        return connected.containsAll(tables);
+    }
+
+    /**
+     * Finds the cheapest plan of the query.
+     *
+     * @return The plan, or null if the tables are not all connected by join conditions
+     */
+    public Operator getOptimizedPlan() {
+        RandomInitialPlan rip = new RandomInitialPlan(sqlquery);
+        Map<String, Operator> tablePlans = rip.prepareTablePlans();
+        for (int i = 0; i < tables.size(); ++i) {
+            addPlan(1 << i, tablePlans.get(tables.get(i)));
+        }
+
+        // the subsets of a set are smaller numbers, so their plans are found first
+        int allTables = (1 << tables.size()) - 1;
+        for (int set = 1; set <= allTables; ++set) {
+            if (Integer.bitCount(set) < 2) {
+                continue;
+            }
+            for (int leftSet = (set - 1) & set; leftSet > 0; leftSet = (leftSet - 1) & set) {
+                int rightSet = set ^ leftSet;
+                if (!plans.containsKey(leftSet) || !plans.containsKey(rightSet)) {
+                    // a set without a plan is not connected
+                    continue;
+                }
+                List<Condition> joinConditions = getJoinConditions(leftSet, rightSet);
+                if (joinConditions.isEmpty()) {
+                    continue;
+                }
+                for (Operator left : plans.get(leftSet).values()) {
+                    for (Operator right : plans.get(rightSet).values()) {
+                        joinPlans(set, left, right, joinConditions);
+                    }
+                }
+            }
+        }
+
+        Map<List<Attribute>, Operator> joinedPlans = plans.get(allTables);
+        if (joinedPlans == null) {
+            return null;
+        }
+        Operator finalPlan = null;
+        long minCost = Long.MAX_VALUE;
+        for (Operator joinedPlan : joinedPlans.values()) {
+            Operator plan = rip.completePlan(joinedPlan);
+            long cost = new PlanCost().getCost(plan);
+            if (finalPlan == null || cost < minCost) {
+                finalPlan = plan;
+                minCost = cost;
+            }
+        }
+        numberJoins(finalPlan, 0);
+
+        System.out.println("---------------------------Final Plan----------------");
+        Debug.PPrint(finalPlan);
+        System.out.println("  " + minCost);
+        return finalPlan;
+    }
+
+    /**
+     * Adds the plan of each applicable join method joining two plans.
+     */
+    private void joinPlans(int set, Operator left, Operator right, List<Condition> joinConditions) {
+        Join join = new Join(left, right, joinConditions);
+        join.setSchema(left.getSchema().joinWith(right.getSchema()));
+        for (int joinType : JoinType.getApplicableJoinTypes(join)) {
+            Join plan = new Join(left, right, joinConditions);
+            plan.setSchema(join.getSchema());
+            plan.setJoinType(joinType);
+            addPlan(set, plan);
+        }
+    }
+
+    /**
+     * Keeps a plan of a set of tables if it is the cheapest of its order.
+     */
+    private void addPlan(int set, Operator plan) {
+        long cost = new PlanCost(getNumJoinBuffers(set)).getCost(plan);
+        if (cost == Long.MAX_VALUE) {
+            return;
+        }
+        List<Attribute> order = Sort.getOutputOrder(plan);
+        if (order.isEmpty() || !interestingAttributes.contains(order.get(0))) {
+            order = new ArrayList<>();
+        }
+        Map<List<Attribute>, Operator> setPlans = plans.computeIfAbsent(set, k -> new HashMap<>());
+        Operator kept = setPlans.get(order);
+        if (kept == null || cost < costs.get(kept)) {
+            setPlans.put(order, plan);
+            costs.put(plan, cost);
+        }
+    }
+
+    /**
+     * Gets the buffer pages which the joins of a set of tables may be
+     * allocated: all the buffers but the fewest pages of the joins with
+     * the other tables, so a plan of the set is not costed with pages
+     * which the rest of the plan needs.
+     */
+    private long getNumJoinBuffers(int set) {
+        int numOtherJoins = tables.size() - Integer.bitCount(set);
+        return BufferManager.getNumBuffer() - (long) PlanCost.MIN_JOIN_BUFFERS * numOtherJoins;
+    }
+
+    /**
+     * Gets the conditions joining two sets of tables, each with its
+     * left hand side in the left set.
+     */
+    private List<Condition> getJoinConditions(int leftSet, int rightSet) {
+        List<Condition> joinConditions = new ArrayList<>();
+        for (Condition joinCondition : sqlquery.getJoinList()) {
+            int lhsTable = 1 << tables.indexOf(joinCondition.getLhs().getTabName());
+            int rhsTable = 1 << tables.indexOf(((Attribute) joinCondition.getRhs()).getTabName());
+            if ((lhsTable & leftSet) != 0 && (rhsTable & rightSet) != 0) {
+                joinConditions.add(joinCondition);
+            } else if ((lhsTable & rightSet) != 0 && (rhsTable & leftSet) != 0) {
+                joinConditions.add(joinCondition.getFlippedCondition());
+            }
+        }
+        return joinConditions;
+    }
+
+    /**
+     * Gives the joins of a plan consecutive node indexes.
+     *
+     * @return The next node index
+     */
+    private int numberJoins(Operator node, int nodeIndex) {
+        if (node.getOpType() == OperatorType.JOIN) {
+            Join join = (Join) node;
+            nodeIndex = numberJoins(join.getLeft(), nodeIndex);
+            nodeIndex = numberJoins(join.getRight(), nodeIndex);
+            join.setNodeIndex(nodeIndex);
+            return nodeIndex + 1;
+        }
+        switch (node.getOpType()) {
+            case OperatorType.SELECT:
+                return numberJoins(((Select) node).getBase(), nodeIndex);
+            case OperatorType.PROJECT:
+                return numberJoins(((Project) node).getBase(), nodeIndex);
+            case OperatorType.ORDER:
+                return numberJoins(((OrderBy) node).getBase(), nodeIndex);
+            case OperatorType.DISTINCT:
+                return numberJoins(((Distinct) node).getBase(), nodeIndex);
+            default:
+                return nodeIndex;
+        }
+    }
+}
@@ -5,22 +5,50 @@
 
 package qp.optimizer;
 
+import qp.index.BPlusTree;
+import qp.index.BitmapIndex;
 import qp.operators.*;
+import qp.operators.joins.BandJoin;
+import qp.operators.joins.IndexNestedJoin;
 import qp.operators.joins.Join;
 import qp.operators.joins.JoinType;
+import qp.operators.joins.ParallelHashJoin;
+import qp.operators.joins.SortMergeJoin;
 import qp.operators.projects.Project;
+import qp.storage.Catalog;
+import qp.storage.Partitioning;
 import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Condition;
+import qp.utils.Histogram;
 import qp.utils.Schema;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.StringTokenizer;
+import java.util.List;
+import java.util.Map;
 
 public class PlanCost {
+    /**
+     * The fraction of tuples assumed to satisfy a range comparison on a
+     * column without a histogram describing the distribution of its values.
+     */
+    static final double RANGE_SELECTIVITY = 0.5;
+
+    /**
+     * The fewest buffer pages any join runs with.
+     */
+    static final int MIN_JOIN_BUFFERS = 3;
+
+    /**
+     * Every number of buffer pages below this limit is tried for a join,
+     * and above it only numbers growing by {@code ALLOCATION_STEP}, so
+     * allocating a large number of buffers stays cheap.
+     */
+    static final int EXACT_ALLOCATION_LIMIT = 64;
+    static final double ALLOCATION_STEP = 1.05;
 
     long cost;
     long numtuple;
@@ -38,9 +66,55 @@ public class PlanCost {
      **/
     HashMap<Attribute, Long> ht;
 
+    /**
+     * Number of pages read by the last table scan costed, which the
+     * * selections on its clustering key narrow down
+     **/
+    long scannedPages;
+
+    /**
+     * The joins costed, and for each the numbers of buffer pages worth
+     * * allocating to it with the cost of the join using them
+     **/
+    List<Join> joins;
+    List<List<long[]>> joinChoices;
+
+    /**
+     * Number of buffer pages allocated to each join of the plan costed last
+     **/
+    Map<Join, Integer> allocation;
+
+    /**
+     * Number of buffer pages allocated among the joins
+     **/
+    long numJoinBuffers;
+
+    /**
+     * Metadata of the indexes probed by the Index Nested Loop joins,
+     * * read once however many buffer pages are tried
+     **/
+    Map<Attribute, BPlusTree.Metadata> probedIndexes;
+
+    /**
+     * The histogram of each column of the tables scanned, or null if the
+     * * column has not been analyzed
+     **/
+    Map<Attribute, Histogram> histograms;
 
     public PlanCost() {
+        this(BufferManager.getNumBuffer());
+    }
+
+    /**
+     * Creates a cost model allocating a number of buffer pages among the
+     * joins of a plan, which is less than all the buffers for a part of
+     * a plan sharing them with the joins of the rest.
+     */
+    public PlanCost(long numJoinBuffers) {
+        this.numJoinBuffers = numJoinBuffers;
         ht = new HashMap<>();
+        probedIndexes = new HashMap<>();
+        histograms = new HashMap<>();
         cost = 0;
     }
 
@@ -48,9 +122,15 @@ public class PlanCost {
      * Returns the cost of the plan
      **/
     public long getCost(Operator root) {
+        ht.clear();
         cost = 0;
         isFeasible = true;
+        joins = new ArrayList<>();
+        joinChoices = new ArrayList<>();
         numtuple = calculateCost(root);
+        if (isFeasible) {
+            cost += allocateBuffers();
+        }
         if (isFeasible) {
             return cost;
         } else {
@@ -59,6 +139,18 @@ public class PlanCost {
         }
     }
 
+    /**
+     * Sets the number of buffer pages of each join of a plan to the
+     * pages allocated to it by costing the plan.
+     */
+    public static void allocateBuffers(Operator root) {
+        PlanCost pc = new PlanCost();
+        pc.getCost(root);
+        if (pc.allocation != null) {
+            pc.allocation.forEach(Join::setNumBuff);
+        }
+    }
+
     /**
      * Get number of tuples in estimated results
      **/
@@ -66,6 +158,14 @@ public class PlanCost {
         return numtuple;
     }
 
+    /**
+     * Get number of distinct values of an attribute in estimated results
+     **/
+    public long getNumDistinct(Attribute attr) {
+        Long numdistinct = ht.get(attr);
+        return numdistinct == null ? numtuple : Math.min(numdistinct, numtuple);
+    }
+
 
     /**
      * Returns number of tuples in the root
@@ -77,6 +177,10 @@ public class PlanCost {
             return getStatistics((Select) node);
         } else if (node.getOpType() == OperatorType.PROJECT) {
             return getStatistics((Project) node);
+        } else if (node instanceof IndexScan) {
+            return getStatistics((IndexScan) node);
+        } else if (node instanceof BitmapScan) {
+            return getStatistics((BitmapScan) node);
         } else if (node.getOpType() == OperatorType.SCAN) {
             return getStatistics((Scan) node);
         } else if (node.getOpType() == OperatorType.ORDER) {
@@ -91,10 +195,14 @@ public class PlanCost {
 
     private long getStatistics(Distinct node) {
         long tuples = calculateCost(node.getBase());
+        if (Sort.isGrouped(node.getBase(), node.getAttributes())) {
+            // the duplicates are adjacent already, and removed on the fly
+            return tuples;
+        }
         long tupleSize = node.getBase().getSchema().getTupleSize();
         long capacity = Math.max(1, Batch.getPageSize() / tupleSize);
         long pages = (long) Math.ceil(((double) tuples) / (double) capacity);
-        long numOfPasses = (long) (1 + Math.ceil(Math.log(Math.ceil(pages / (double) (BufferManager.getNumBuffer())) / Math.log(BufferManager.getNumBuffer() - 1))));
+        long numOfPasses = (long) (1 + Math.ceil(Math.log(Math.ceil(pages / (double) (BufferManager.getNumOperatorBuffers())) / Math.log(BufferManager.getNumOperatorBuffers() - 1))));
         long distinctCost = (long) (2 * pages * (numOfPasses));
         long outtuples = (long) Math.ceil(tuples);
         cost += distinctCost;
@@ -106,6 +214,11 @@ public class PlanCost {
      * * No cost involved as done on the fly
      **/
     private long getStatistics(Project node) {
+        if (node.isCountedByBitmaps()) {
+            // the tuples are counted from the bitmaps, and never read
+            cost = cost + getBitmapIndexCost((BitmapScan) node.getBase());
+            return 1;
+        }
         return calculateCost(node.getBase());
     }
 
@@ -113,8 +226,22 @@ public class PlanCost {
      * Calculates the statistics and cost of join operation
      **/
     private long getStatistics(Join node) {
+        Annotation annotation = node.getCostAnnotation();
+        if (annotation != null && annotation.numJoinBuffers == numJoinBuffers) {
+            // the subtree is unchanged since it was last costed
+            cost += annotation.cost;
+            ht.putAll(annotation.numDistinct);
+            collectJoins(node);
+            joinChoices.addAll(annotation.joinChoices);
+            return annotation.numTuples;
+        }
+        long costBeforeLeft = cost;
+        int numJoinsBefore = joins.size();
+
         long lefttuples = calculateCost(node.getLeft());
+        long costBeforeRight = cost;
         long righttuples = calculateCost(node.getRight());
+        long rightCost = cost - costBeforeRight;
 
         if (!isFeasible) {
             return 0;
@@ -135,6 +262,7 @@ public class PlanCost {
         long rightPages = (long) Math.ceil(((double) righttuples) / (double) rightCapacity);
 
         double tuples = (double) lefttuples * righttuples;
+        double bandSelectivity = 1;
         for (Condition con : node.getJoinConditions()) {
             Attribute leftjoinAttr = con.getLhs();
             Attribute rightjoinAttr = (Attribute) con.getRhs();
@@ -146,36 +274,298 @@ public class PlanCost {
             /** Number of distinct values of left and right join attribute **/
             long leftattrdistn = ht.get(leftjoinAttr);
             long rightattrdistn = ht.get(rightjoinAttr);
-            tuples /= (double) Math.max(leftattrdistn, rightattrdistn);
-            long mindistinct = Math.min(leftattrdistn, rightattrdistn);
-            ht.put(leftjoinAttr, mindistinct);
-            ht.put(rightjoinAttr, mindistinct);
+            Histogram lefthistogram = getHistogram(leftjoinAttr);
+            Histogram righthistogram = getHistogram(rightjoinAttr);
+            if (lefthistogram != null && righthistogram != null) {
+                // the distributions of the values of both columns are known
+                double selectivity = lefthistogram.getJoinSelectivity(con.getExprType(), righthistogram,
+                        leftattrdistn, rightattrdistn);
+                tuples *= selectivity;
+                if (BandJoin.isBandCondition(con, node.getJoinConditions())) {
+                    bandSelectivity *= selectivity;
+                }
+            } else if (con.getExprType() == Condition.EQUAL) {
+                tuples /= (double) Math.max(leftattrdistn, rightattrdistn);
+            } else if (con.getExprType() == Condition.NOTEQUAL) {
+                tuples *= 1 - 1 / (double) Math.max(leftattrdistn, rightattrdistn);
+            } else {
+                tuples *= RANGE_SELECTIVITY;
+                if (BandJoin.isBandCondition(con, node.getJoinConditions())) {
+                    bandSelectivity *= RANGE_SELECTIVITY;
+                }
+            }
+            if (con.getExprType() == Condition.EQUAL) {
+                long mindistinct = Math.min(leftattrdistn, rightattrdistn);
+                ht.put(leftjoinAttr, mindistinct);
+                ht.put(rightjoinAttr, mindistinct);
+            }
         }
         long outtuples = (long) Math.ceil(tuples);
 
-        /** Calculate the cost of the operation **/
-        int joinType = node.getJoinType();
-        long numbuff = BufferManager.getBuffersPerJoin();
-        long joinCost;
+        if (node.getJoinType() == JoinType.INDEX_NESTED && !IndexNestedJoin.isApplicable(node)) {
+            // a neighbor plan may have moved the indexed table out of the right input
+            isFeasible = false;
+            return 0;
+        }
 
-        switch (joinType) {
-            case JoinType.PAGE_NESTED:
-                joinCost = leftPages * rightPages;
+        boolean isLeftSorted = false;
+        boolean isRightSorted = false;
+        if (node.getJoinType() == JoinType.SORT_MERGE) {
+            // an input already in order of its join attributes is only read during the merge
+            List<Attribute> leftAttrs = new ArrayList<>();
+            List<Attribute> rightAttrs = new ArrayList<>();
+            for (Condition con : node.getJoinConditions()) {
+                leftAttrs.add(con.getLhs());
+                rightAttrs.add((Attribute) con.getRhs());
+            }
+            isLeftSorted = Sort.isSorted(node.getLeft(), leftAttrs);
+            isRightSorted = Sort.isSorted(node.getRight(), rightAttrs);
+        }
+
+        /** The cost is charged once the buffer pages of all the joins are allocated **/
+        List<long[]> choices = new ArrayList<>();
+        long lastCost = Long.MAX_VALUE;
+        for (long numbuff = MIN_JOIN_BUFFERS; numbuff <= numJoinBuffers; numbuff = getNextChoice(numbuff)) {
+            long joinCost = getJoinCost(node, lefttuples, leftPages, rightPages, outtuples, bandSelectivity,
+                    isLeftSorted, isRightSorted, rightCost, numbuff);
+            if (joinCost < lastCost) {
+                // more pages are only worth giving to a join they make cheaper
+                choices.add(new long[]{numbuff, joinCost});
+                lastCost = joinCost;
+            }
+        }
+        if (choices.isEmpty()) {
+            // too few buffers for the join
+            isFeasible = false;
+            return 0;
+        }
+        joins.add(node);
+        joinChoices.add(choices);
+
+        Map<Attribute, Long> numDistinct = new HashMap<>();
+        for (Attribute attr : node.getSchema().getAttList()) {
+            numDistinct.put(attr, ht.get(attr));
+        }
+        List<List<long[]>> subtreeChoices = new ArrayList<>(joinChoices.subList(numJoinsBefore, joinChoices.size()));
+        node.setCostAnnotation(new Annotation(outtuples, cost - costBeforeLeft, numDistinct, subtreeChoices, numJoinBuffers));
+
+        return outtuples;
+    }
+
+    /**
+     * Adds the joins of a subtree to the joins costed, in the order
+     * they are costed.
+     */
+    private void collectJoins(Operator node) {
+        switch (node.getOpType()) {
+            case OperatorType.JOIN:
+                collectJoins(((Join) node).getLeft());
+                collectJoins(((Join) node).getRight());
+                joins.add((Join) node);
                 break;
-            case JoinType.BLOCK_NESTED:
-                joinCost = leftPages + (long) Math.ceil(leftPages/ (double) (BufferManager.getBuffersPerJoin() - 2) ) * rightPages;
+            case OperatorType.SELECT:
+                collectJoins(((Select) node).getBase());
+                break;
+            case OperatorType.PROJECT:
+                collectJoins(((Project) node).getBase());
+                break;
+            case OperatorType.ORDER:
+                collectJoins(((OrderBy) node).getBase());
                 break;
-            case JoinType.SORT_MERGE:
-                long numOfPasses = (long) (1 + Math.ceil(Math.log(Math.ceil(rightPages / (double) (BufferManager.getNumBuffer())) / Math.log(BufferManager.getNumBuffer() - 1))));
-                joinCost = leftPages + rightPages + (long) (2 * rightPages * (numOfPasses));
+            case OperatorType.DISTINCT:
+                collectJoins(((Distinct) node).getBase());
                 break;
+        }
+    }
+
+    /**
+     * Calculates the cost of a join with a number of buffer pages.
+     *
+     * @param isLeftSorted Whether the left input is in order of its join attributes, so a Sort-Merge join only reads it
+     * @param isRightSorted Whether the right input is in order of its join attributes
+     * @param rightCost The cost of the right input, which an Index Nested Loop join never scans
+     * @param numbuff The number of buffer pages of the join
+     * @return The cost of the join
+     */
+    private long getJoinCost(Join node, long lefttuples, long leftPages, long rightPages, long outtuples,
+                             double bandSelectivity, boolean isLeftSorted, boolean isRightSorted,
+                             long rightCost, long numbuff) {
+        switch (node.getJoinType()) {
+            case JoinType.PAGE_NESTED:
+                return leftPages * rightPages;
+            case JoinType.BLOCK_NESTED:
+                return leftPages + (long) Math.ceil(leftPages / (double) (numbuff - 2)) * rightPages;
+            case JoinType.SORT_MERGE: {
+                long joinCost = isLeftSorted ? leftPages : getSortedInputCost(leftPages, numbuff);
+                joinCost += isRightSorted ? rightPages : getSortedInputCost(rightPages, numbuff);
+                return joinCost;
+            }
+            case JoinType.HASH:
+                return getHashCost(leftPages, rightPages, numbuff);
+            case JoinType.BAND: {
+                long joinCost = getSortedInputCost(leftPages, numbuff) + getSortedInputCost(rightPages, numbuff);
+                // the part of the band which does not fit in memory is read again for every left tuple
+                long bandPages = (long) Math.ceil(rightPages * bandSelectivity);
+                long spilledBandPages = Math.max(0, bandPages - Math.max(1, numbuff - 3));
+                return joinCost + lefttuples * spilledBandPages;
+            }
+            case JoinType.INDEX_NESTED:
+                // the right table is only probed, never scanned
+                return getIndexNestedCost(node, lefttuples, leftPages, rightPages, outtuples, numbuff) - rightCost;
             default:
                 System.out.println("join type is not supported");
                 return 0;
         }
-        cost = cost + joinCost;
+    }
 
-        return outtuples;
+    /**
+     * Gets the number of buffer pages tried for a join after a number of
+     * pages, which is the next number below {@code EXACT_ALLOCATION_LIMIT}
+     * and then grows by {@code ALLOCATION_STEP} up to all the buffers.
+     */
+    private long getNextChoice(long numbuff) {
+        if (numbuff < EXACT_ALLOCATION_LIMIT || numbuff >= numJoinBuffers) {
+            return numbuff + 1;
+        }
+        return Math.min(numJoinBuffers, (long) Math.ceil(numbuff * ALLOCATION_STEP));
+    }
+
+    /**
+     * Allocates the buffer pages among the joins costed, at least
+     * {@code MIN_JOIN_BUFFERS} to each and at most the pages given to the
+     * joins in total, less those left to the buffer pool, so that the sum
+     * of their costs is least. Each join is
+     * given in turn one of its choices of pages, and of the partial
+     * allocations using the same number of pages or more, only those
+     * cheaper than every allocation using fewer pages are kept.
+     *
+     * @return The total cost of the joins with the pages allocated
+     */
+    private long allocateBuffers() {
+        allocation = new HashMap<>();
+        long cheapestPages = 0;
+        long cheapestCost = 0;
+        long fewestPages = 0;
+        for (List<long[]> choices : joinChoices) {
+            cheapestPages += choices.get(choices.size() - 1)[0];
+            cheapestCost += choices.get(choices.size() - 1)[1];
+            fewestPages += choices.get(0)[0];
+        }
+        // the pages left to the buffer pool are not allocated, unless the joins need them to run
+        long numBuffers = Math.max(numJoinBuffers - BufferManager.getNumPoolBuffers(), fewestPages);
+        if (cheapestPages <= numBuffers) {
+            // every join can have the pages which make it cheapest
+            for (int i = 0; i < joins.size(); ++i) {
+                List<long[]> choices = joinChoices.get(i);
+                allocation.put(joins.get(i), (int) choices.get(choices.size() - 1)[0]);
+            }
+            return cheapestCost;
+        }
+        List<Allocation> allocations = new ArrayList<>();
+        allocations.add(new Allocation(0, 0, null, 0));
+        for (List<long[]> choices : joinChoices) {
+            List<Allocation> extended = new ArrayList<>();
+            for (Allocation partial : allocations) {
+                for (long[] choice : choices) {
+                    if (partial.pages + choice[0] <= numBuffers) {
+                        extended.add(new Allocation(partial.pages + choice[0], partial.cost + choice[1], partial, (int) choice[0]));
+                    }
+                }
+            }
+            if (extended.isEmpty()) {
+                // too few buffers for every join
+                isFeasible = false;
+                return 0;
+            }
+            extended.sort(Comparator.comparingLong((Allocation a) -> a.pages).thenComparingLong(a -> a.cost));
+            allocations = new ArrayList<>();
+            for (Allocation partial : extended) {
+                if (allocations.isEmpty() || partial.cost < allocations.get(allocations.size() - 1).cost) {
+                    allocations.add(partial);
+                }
+            }
+        }
+
+        // the cheapest allocation uses the most pages of those kept
+        Allocation partial = allocations.get(allocations.size() - 1);
+        long joinCost = partial.cost;
+        for (int i = joins.size() - 1; i >= 0; --i) {
+            allocation.put(joins.get(i), partial.numbuff);
+            partial = partial.previous;
+        }
+        return joinCost;
+    }
+
+    /**
+     * Calculates the cost of an Index Nested Loop join: the left input is
+     * read once, each left tuple descends the index, and each block of
+     * {@code B - 2} left pages fetches every right page holding a match
+     * at most once.
+     */
+    private long getIndexNestedCost(Join node, long lefttuples, long leftPages, long rightPages,
+                                    long outtuples, long numbuff) {
+        Attribute probeAttr = (Attribute) IndexNestedJoin.getProbeCondition(node.getJoinConditions()).getRhs();
+        BPlusTree.Metadata index = probedIndexes.computeIfAbsent(probeAttr, attr -> {
+            try {
+                return BPlusTree.readMetadata(attr);
+            } catch (IOException io) {
+                System.out.println("Error in reading index " + BPlusTree.getFileName(attr));
+                System.exit(1);
+                return null;
+            }
+        });
+        long numBlocks = (long) Math.ceil(leftPages / (double) Math.max(1, numbuff - 2));
+        long probeCost = lefttuples * index.getHeight();
+        long fetchCost = Math.min(outtuples, numBlocks * rightPages);
+        return leftPages + probeCost + fetchCost;
+    }
+
+    /**
+     * Calculates the cost of a Hash join: both inputs are read and
+     * written once to partition them, and again for each time the
+     * partitions are partitioned again to fit in the hash tables of the
+     * workers. The left partition is then read once for each block of
+     * the right partition which fits, and the right partition once.
+     */
+    private long getHashCost(long leftPages, long rightPages, long numbuff) {
+        long joinCost = 2 * (leftPages + rightPages);
+        long pagesPerWorker = ParallelHashJoin.getPagesPerWorker((int) numbuff);
+        long buildPages = pagesPerWorker - 2;
+        long fanOut = pagesPerWorker - 2;
+        double partitionPages = rightPages / (double) ParallelHashJoin.getNumPartitions((int) numbuff);
+        for (int depth = 0; depth < ParallelHashJoin.MAX_REPARTITION_DEPTH && fanOut >= 2 && partitionPages > buildPages; ++depth) {
+            joinCost += 2 * (leftPages + rightPages);
+            partitionPages /= fanOut;
+        }
+        long numBlocks = Math.max(1, (long) Math.ceil(partitionPages / buildPages));
+        return joinCost + leftPages * numBlocks + rightPages;
+    }
+
+    /**
+     * Calculates the cost of sorting an input of a Sort-Merge join and
+     * reading it during the merge.
+     *
+     * @param pages The number of pages of the input
+     * @param numbuff The number of buffer pages of the join
+     * @return The cost of the sorted input
+     */
+    private long getSortedInputCost(long pages, long numbuff) {
+        if (SortMergeJoin.isPipelined((int) numbuff)) {
+            // runs are merged until at most (B-2)/2 remain, whose final merge feeds the join directly
+            long sortBuff = SortMergeJoin.getPipelinedSortSize((int) numbuff);
+            long numRuns = (long) Math.ceil(pages / (double) sortBuff);
+            long numMergePasses = 0;
+            if (numRuns > sortBuff) {
+                numMergePasses = (long) Math.ceil(Math.log(numRuns / (double) sortBuff) / Math.log(sortBuff - 1));
+            }
+            return 2 * pages * (1 + numMergePasses) + pages;
+        }
+        long numRuns = (long) Math.ceil(pages / (double) numbuff);
+        long numOfPasses = 1;
+        if (numRuns > 1) {
+            numOfPasses += (long) Math.ceil(Math.log(numRuns) / Math.log(numbuff - 1));
+        }
+        return 2 * pages * numOfPasses + pages;
     }
 
     /**
@@ -190,8 +580,91 @@ public class PlanCost {
             return Long.MAX_VALUE;
         }
 
+        long outtuples = estimateSelection(node.getCondition(), node.getSchema(), intuples);
+        Scan scan = getSelectedScan(node);
+        if (scan != null && scan.getTableSchema().getPartitioning() != null) {
+            // the scan only reads the partitions which may satisfy the conditions, assumed of equal sizes
+            long partitionsBefore = countScannedPartitions(node.getBase(), scan);
+            long partitionsAfter = countScannedPartitions(node, scan);
+            if (partitionsAfter < partitionsBefore) {
+                long prunedPages = (long) Math.ceil(scannedPages * (partitionsAfter / (double) partitionsBefore));
+                cost = cost - scannedPages + prunedPages;
+                scannedPages = prunedPages;
+            }
+        }
+        if (isClusteredRange(node)) {
+            // the scan only reads the pages of the range, found by binary search
+            long narrowedPages = (long) Math.ceil(scannedPages * (outtuples / (double) Math.max(1, intuples)));
+            long searchCost = (long) Math.ceil(Math.log(Math.max(1, scannedPages)) / Math.log(2));
+            if (searchCost + narrowedPages < scannedPages) {
+                cost = cost - scannedPages + searchCost + narrowedPages;
+                scannedPages = narrowedPages;
+            }
+        }
+        return outtuples;
+    }
+
+    /**
+     * Gets the table scan below a selection and any selections between
+     * them, whose conditions are pushed to the scan.
+     *
+     * @return The scan, or null if the selection is not on a table scan
+     */
+    private Scan getSelectedScan(Select node) {
+        Operator base = node.getBase();
+        while (base.getOpType() == OperatorType.SELECT) {
+            base = ((Select) base).getBase();
+        }
+        return base.getClass() == Scan.class ? (Scan) base : null;
+    }
+
+    /**
+     * Counts the partitions of a partitioned table which may satisfy the
+     * conditions of the selections from an operator down to the scan.
+     */
+    private long countScannedPartitions(Operator node, Scan scan) {
+        Partitioning partitioning = scan.getTableSchema().getPartitioning();
+        int datatype = scan.getTableSchema().typeOf(partitioning.getAttribute());
+        List<Condition> conditions = new ArrayList<>();
+        while (node.getOpType() == OperatorType.SELECT) {
+            Condition con = ((Select) node).getCondition();
+            if (con.getLhs().equals(partitioning.getAttribute())) {
+                conditions.add(con);
+            }
+            node = ((Select) node).getBase();
+        }
+        long count = 0;
+        for (int p = 0; p < partitioning.getNumPartitions(); ++p) {
+            boolean mightSatisfy = true;
+            for (Condition con : conditions) {
+                mightSatisfy = mightSatisfy && partitioning.mightSatisfy(p, con.getExprType(), con.getRhsValue(datatype));
+            }
+            if (mightSatisfy) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether a selection is a range on the leading clustering key
+     * of the table it scans, so the scan reads only the pages of the range.
+     */
+    private boolean isClusteredRange(Select node) {
+        Scan scan = getSelectedScan(node);
+        if (scan == null || scan.getTableSchema().getClusteringKey().isEmpty()) {
+            return false;
+        }
         Condition con = node.getCondition();
-        Schema schema = node.getSchema();
+        return con.getExprType() != Condition.NOTEQUAL
+                && con.getLhs().equals(scan.getTableSchema().getClusteringKey().get(0));
+    }
+
+    /**
+     * Find the number of tuples of the input satisfying the selection condition,
+     * * and update the statistics about the attributes accordingly
+     **/
+    private long estimateSelection(Condition con, Schema schema, long intuples) {
         Attribute attr = con.getLhs();
         int index = schema.indexOf(attr);
         Attribute fullattr = schema.getAttribute(index);
@@ -204,23 +677,28 @@ public class PlanCost {
 
         long outtuples;
         /** Calculate the number of tuples in result **/
-        if (exprtype == Condition.EQUAL) {
+        Histogram histogram = getHistogram(fullattr);
+        if (histogram != null) {
+            Object value = con.getRhsValue(schema.typeOf(index));
+            outtuples = (long) Math.ceil(histogram.getSelectivity(exprtype, value, numdistinct) * intuples);
+        } else if (exprtype == Condition.EQUAL) {
             outtuples = (long) Math.ceil((double) intuples / (double) numdistinct);
         } else if (exprtype == Condition.NOTEQUAL) {
             outtuples = (long) Math.ceil(intuples - ((double) intuples / (double) numdistinct));
         } else {
-            outtuples = (long) Math.ceil(0.5 * intuples);
+            outtuples = (long) Math.ceil(RANGE_SELECTIVITY * intuples);
         }
 
-        /** Modify the number of distinct values of each attribute
-         ** Assuming the values are distributed uniformly along entire
-         ** relation
+        /** Modify the number of distinct values of each attribute,
+         ** which are no more than the tuples left
          **/
         for (int i = 0; i < schema.getNumCols(); ++i) {
             Attribute attri = schema.getAttribute(i);
             long oldvalue = ht.get(attri);
-            long newvalue = (long) Math.ceil(((double) outtuples / (double) intuples) * oldvalue);
-            ht.put(attri, outtuples);
+            ht.put(attri, Math.max(1, Math.min(oldvalue, outtuples)));
+        }
+        if (exprtype == Condition.EQUAL) {
+            ht.put(fullattr, 1L);
         }
         return outtuples;
     }
@@ -232,88 +710,215 @@ public class PlanCost {
      * * number of distinct values of each attribute
      **/
     private long getStatistics(Scan node) {
-        String tablename = node.getTabName();
-        String filename = tablename + ".stat";
-        Schema schema = node.getSchema();
-        int numAttr = schema.getNumCols();
-        BufferedReader in = null;
-        try {
-            in = new BufferedReader(new FileReader(filename));
-        } catch (IOException io) {
-            System.out.println("Error in opening file" + filename);
-            System.exit(1);
-        }
-        String line = null;
+        long numtuples = readStatistics(node);
+
+        /** Number of tuples per page of the table file, which holds all the columns **/
+        long tuplesize = node.getTableSchema().getTupleSize();
+        long pagesize = Math.max(Batch.getPageSize() / tuplesize, 1);
+        long numpages = (long) Math.ceil((double) numtuples / (double) pagesize);
+
+        cost = cost + numpages;
+        scannedPages = numpages;
+        return numtuples;
+    }
 
-        // First line = number of tuples
+    /**
+     * The index is descended to the first leaf in range, the leaves in
+     * * range are read, and then each page holding a matching tuple once
+     **/
+    private long getStatistics(IndexScan node) {
+        long numtuples = readStatistics(node);
+        long outtuples = estimateIndexRange(node, numtuples);
+
+        BPlusTree.Metadata index = null;
         try {
-            line = in.readLine();
+            index = BPlusTree.readMetadata(node.getAttribute());
         } catch (IOException io) {
-            System.out.println("Error in readin first line of " + filename);
+            System.out.println("Error in reading index " + BPlusTree.getFileName(node.getAttribute()));
             System.exit(1);
         }
-        StringTokenizer tokenizer = new StringTokenizer(line);
-        if (tokenizer.countTokens() != 1) {
-            System.out.println("incorrect format of statastics file " + filename);
-            System.exit(1);
+        long tuplesize = node.getTableSchema().getTupleSize();
+        long pagesize = Math.max(Batch.getPageSize() / tuplesize, 1);
+        long numpages = (long) Math.ceil((double) numtuples / (double) pagesize);
+        long leafpages = Math.max(1, (long) Math.ceil((double) outtuples / (double) index.getLeafCapacity()));
+
+        cost = cost + (index.getHeight() - 1) + leafpages + Math.min(outtuples, numpages);
+        return outtuples;
+    }
+
+    /**
+     * Find the number of tuples satisfying the selection conditions of an
+     * * index scan, which all bound its attribute. With a histogram, the
+     * * tuples between the tightest lower and upper bounds are those
+     * * satisfying either bound less all the tuples, as none satisfies
+     * * neither, where independent conditions would be far too many
+     **/
+    private long estimateIndexRange(IndexScan node, long numtuples) {
+        Schema schema = node.getSchema();
+        if (getHistogram(schema.getAttribute(schema.indexOf(node.getAttribute()))) == null) {
+            long outtuples = numtuples;
+            for (Condition con : node.getConditions()) {
+                outtuples = estimateSelection(con, schema, outtuples);
+            }
+            return outtuples;
         }
-        String temp = tokenizer.nextToken();
-        long numtuples = Long.parseLong(temp);
-        try {
-            line = in.readLine();
-        } catch (IOException io) {
-            System.out.println("error in reading second line of " + filename);
-            System.exit(1);
+        long equaltuples = numtuples;
+        long lowtuples = numtuples;
+        long hightuples = numtuples;
+        for (Condition con : node.getConditions()) {
+            long contuples = estimateSelection(con, schema, numtuples);
+            int exprtype = con.getExprType();
+            if (exprtype == Condition.EQUAL) {
+                equaltuples = Math.min(equaltuples, contuples);
+            } else if (exprtype == Condition.GREATERTHAN || exprtype == Condition.GTOE) {
+                lowtuples = Math.min(lowtuples, contuples);
+            } else {
+                hightuples = Math.min(hightuples, contuples);
+            }
         }
-        tokenizer = new StringTokenizer(line);
-        if (tokenizer.countTokens() != numAttr) {
-            System.out.println("incorrect format of statastics file " + filename);
-            System.exit(1);
+        long outtuples = Math.min(equaltuples, Math.max(0, lowtuples + hightuples - numtuples));
+        for (int i = 0; i < schema.getNumCols(); ++i) {
+            Attribute attri = schema.getAttribute(i);
+            ht.put(attri, Math.max(1, Math.min(ht.get(attri), outtuples)));
         }
-        for (int i = 0; i < numAttr; ++i) {
-            Attribute attr = schema.getAttribute(i);
-            temp = tokenizer.nextToken();
-            Long distinctValues = Long.valueOf(temp);
-            ht.put(attr, distinctValues);
+        return outtuples;
+    }
+
+    /**
+     * The bitmap index of each condition is read whole, and then each
+     * * page holding a tuple satisfying all the conditions once
+     **/
+    private long getStatistics(BitmapScan node) {
+        long numtuples = readStatistics(node);
+        long outtuples = numtuples;
+        for (Condition con : node.getConditions()) {
+            outtuples = estimateSelection(con, node.getSchema(), outtuples);
         }
 
-        /** Number of tuples per page**/
-        long tuplesize = schema.getTupleSize();
+        long tuplesize = node.getTableSchema().getTupleSize();
         long pagesize = Math.max(Batch.getPageSize() / tuplesize, 1);
         long numpages = (long) Math.ceil((double) numtuples / (double) pagesize);
 
-        cost = cost + numpages;
+        cost = cost + getBitmapIndexCost(node) + Math.min(outtuples, numpages);
+        return outtuples;
+    }
+
+    /**
+     * Returns the cost of reading the bitmap indexes of the scan, which
+     * * is all that counting its tuples needs
+     **/
+    long getBitmapIndexCost(BitmapScan node) {
+        long indexpages = 0;
+        for (Condition con : node.getConditions()) {
+            long filesize = BitmapIndex.getFileSize(con.getLhs());
+            indexpages += Math.max(1, (long) Math.ceil((double) filesize / (double) Batch.getPageSize()));
+        }
+        return indexpages;
+    }
 
+    /**
+     * Reads the statistics of the table of the scan
+     **/
+    private long readStatistics(Scan node) {
+        String tablename = node.getTabName();
+        Schema schema = node.getTableSchema();
+        int numAttr = schema.getNumCols();
+        Catalog.Statistics statistics = null;
         try {
-            in.close();
+            statistics = Catalog.getStatistics(tablename);
         } catch (IOException io) {
-            System.out.println("error in closing the file " + filename);
+            System.out.println("Error in reading statistics of " + tablename + ": " + io.getMessage());
             System.exit(1);
         }
-        return numtuples;
+        if (statistics.getNumCols() != numAttr) {
+            System.out.println("incorrect format of statastics file " + tablename + ".stat");
+            System.exit(1);
+        }
+        for (int i = 0; i < numAttr; ++i) {
+            ht.put(schema.getAttribute(i), statistics.getNumDistinct(i));
+            histograms.put(schema.getAttribute(i), statistics.getHistogram(i));
+        }
+        return statistics.getNumTuples();
+    }
+
+    /**
+     * Gets the histogram of a column, which is looked up in the catalog
+     * * if its table was not scanned by this cost model, as when a join
+     * * below was costed from its memoized estimates
+     *
+     * @return The histogram, or null if the column has not been analyzed
+     **/
+    private Histogram getHistogram(Attribute attr) {
+        if (!histograms.containsKey(attr)) {
+            Histogram histogram = null;
+            try {
+                int index = Catalog.getSchema(attr.getTabName()).indexOf(attr);
+                if (index >= 0) {
+                    histogram = Catalog.getStatistics(attr.getTabName()).getHistogram(index);
+                }
+            } catch (IOException io) {
+                System.out.println("Error in reading statistics of " + attr.getTabName() + ": " + io.getMessage());
+                System.exit(1);
+            }
+            histograms.put(attr, histogram);
+        }
+        return histograms.get(attr);
     }
 
     private long getStatistics(OrderBy node) {
         long tuples = calculateCost(node.getBase());
+        if (node.getSortDirection() == Sort.Direction.ASC && Sort.isSorted(node.getBase(), node.getOrderByAttributes())) {
+            // the tuples are in order already
+            return tuples;
+        }
         long tupleSize = node.getBase().getSchema().getTupleSize();
         long capacity = Math.max(1, Batch.getPageSize() / tupleSize);
         long pages = (long) Math.ceil(((double) tuples) / (double) capacity);
-        long numOfPasses = (long) (1 + Math.ceil(Math.log(Math.ceil(pages / (double) (BufferManager.getNumBuffer())) / Math.log(BufferManager.getNumBuffer() - 1))));
+        long numOfPasses = (long) (1 + Math.ceil(Math.log(Math.ceil(pages / (double) (BufferManager.getNumOperatorBuffers())) / Math.log(BufferManager.getNumOperatorBuffers() - 1))));
         long orderByCost = (long) (2 * pages * (numOfPasses));
         long outtuples = (long) Math.ceil(tuples);
         cost += orderByCost;
         return outtuples;
     }
 
-}
-
-
-
-
-
-
-
-
-
 
+    /**
+     * An allocation of buffer pages to the first joins costed.
+     */
+    private static class Allocation {
+        final long pages;           // The number of pages allocated
+        final long cost;            // The total cost of the joins
+        final Allocation previous;  // The allocation to the joins before the last
+        final int numbuff;          // The number of pages of the last join
+
+        Allocation(long pages, long cost, Allocation previous, int numbuff) {
+            this.pages = pages;
+            this.cost = cost;
+            this.previous = previous;
+            this.numbuff = numbuff;
+        }
+    }
 
+    /**
+     * The estimates of the subtree of a join, memoized on the join by the
+     * cost model until the join or a join below it is modified, so a plan
+     * differing from one already costed in a few joins is costed from
+     * the estimates of its unchanged subtrees.
+     */
+    public static class Annotation {
+        final long numTuples;
+        final long cost;                         // The cost of the subtree but for its joins, charged after allocation
+        final Map<Attribute, Long> numDistinct;  // Number of distinct values of each attribute of the output
+        final List<List<long[]>> joinChoices;    // The choices of buffer pages of the joins of the subtree
+        final long numJoinBuffers;               // The pages allocated among the joins when costed
+
+        Annotation(long numTuples, long cost, Map<Attribute, Long> numDistinct,
+                   List<List<long[]>> joinChoices, long numJoinBuffers) {
+            this.numTuples = numTuples;
+            this.cost = cost;
+            this.numDistinct = numDistinct;
+            this.joinChoices = joinChoices;
+            this.numJoinBuffers = numJoinBuffers;
+        }
+    }
+}
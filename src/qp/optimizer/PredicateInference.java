@@ -0,0 +1,128 @@
+package qp.optimizer;
+
+import qp.utils.Attribute;
+import qp.utils.Condition;
+import qp.utils.SQLQuery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A logical rewrite of the conditions of a query, done before its plan
+ * is optimized.
+ * <p>
+ * The equality conditions between attributes partition the attributes
+ * into equivalence classes, whose members hold equal values in every
+ * result tuple. A comparison of an attribute with a constant therefore
+ * holds for every member of its class, and is added for each of them,
+ * so the inputs of the joins are reduced on both sides. An equality join
+ * condition implied by the others of its class (e.g., {@code A.x = C.z}
+ * given {@code A.x = B.y} and {@code B.y = C.z}) is dropped, as is any
+ * duplicate condition, which also breaks the cycles of the join graph
+ * that such conditions close.
+ */
+public class PredicateInference {
+    private final Map<Attribute, Attribute> parents = new HashMap<>();  // Union-find forest of the classes
+
+    private PredicateInference() {
+    }
+
+    /**
+     * Rewrites the conditions of the query.
+     *
+     * @param sqlquery The query, whose conditions are replaced
+     */
+    public static void rewrite(SQLQuery sqlquery) {
+        sqlquery.setConditionList(new PredicateInference().infer(sqlquery.getConditionList()));
+    }
+
+    private ArrayList<Condition> infer(List<Condition> conditions) {
+        // the equalities within a table are selections, which are always kept
+        for (Condition condition : conditions) {
+            if (isAttributeEquality(condition) && !isJoin(condition)) {
+                union(condition.getLhs(), (Attribute) condition.getRhs());
+            }
+        }
+
+        ArrayList<Condition> rewritten = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        for (Condition condition : conditions) {
+            if (!keys.add(getKey(condition))) {
+                continue;
+            }
+            if (isAttributeEquality(condition) && isJoin(condition)) {
+                Attribute lhs = condition.getLhs();
+                Attribute rhs = (Attribute) condition.getRhs();
+                if (find(lhs).equals(find(rhs))) {
+                    // implied by the equalities kept already
+                    continue;
+                }
+                union(lhs, rhs);
+            }
+            rewritten.add(condition);
+        }
+
+        // every member of a class is compared with the constants compared with any member
+        Map<Attribute, List<Attribute>> classes = new HashMap<>();
+        for (Attribute attribute : parents.keySet()) {
+            classes.computeIfAbsent(find(attribute), k -> new ArrayList<>()).add(attribute);
+        }
+        List<Condition> selections = new ArrayList<>(rewritten);
+        for (Condition selection : selections) {
+            if (selection.getOpType() != Condition.SELECT || !parents.containsKey(selection.getLhs())) {
+                continue;
+            }
+            for (Attribute member : classes.get(find(selection.getLhs()))) {
+                Condition inferred = new Condition(member, selection.getExprType(), selection.getRhs());
+                inferred.setOpType(Condition.SELECT);
+                if (keys.add(getKey(inferred))) {
+                    rewritten.add(inferred);
+                }
+            }
+        }
+        return rewritten;
+    }
+
+    private static boolean isAttributeEquality(Condition condition) {
+        return condition.getOpType() == Condition.JOIN && condition.getExprType() == Condition.EQUAL;
+    }
+
+    private static boolean isJoin(Condition condition) {
+        return !condition.getLhs().getTabName().equals(((Attribute) condition.getRhs()).getTabName());
+    }
+
+    /**
+     * Gets a key identifying a condition, which is the same for a
+     * condition between attributes and its flipped condition.
+     */
+    private static String getKey(Condition condition) {
+        Condition normalized = condition;
+        if (condition.getOpType() == Condition.JOIN
+                && condition.getLhs().toString().compareTo(condition.getRhs().toString()) > 0) {
+            normalized = condition.getFlippedCondition();
+        }
+        return normalized.getLhs() + " " + normalized.getExprType() + " " + normalized.getRhs();
+    }
+
+    private Attribute find(Attribute attribute) {
+        Attribute parent = parents.computeIfAbsent(attribute, k -> k);
+        if (parent.equals(attribute)) {
+            return attribute;
+        }
+        Attribute root = find(parent);
+        parents.put(attribute, root);
+        return root;
+    }
+
+    private void union(Attribute first, Attribute second) {
+        Attribute firstRoot = find(first);
+        Attribute secondRoot = find(second);
+        if (!firstRoot.equals(secondRoot)) {
+            parents.put(firstRoot, secondRoot);
+        }
+    }
+}
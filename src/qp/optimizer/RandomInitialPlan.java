@@ -4,10 +4,9 @@ import qp.operators.*;
 import qp.operators.joins.Join;
 import qp.operators.joins.JoinType;
 import qp.operators.projects.Project;
+import qp.storage.Catalog;
 import qp.utils.*;
 
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
 import java.util.*;
 
 /**
@@ -19,7 +18,6 @@ class RandomInitialPlan {
     private final List<Attribute> projectedAttributes;
     private final List<String> fromTables;
     private final List<Condition> selectionConditions;
-    private final List<Condition> joinConditions;
     private final List<Attribute> orderByAttributes;
 
     /**
@@ -28,6 +26,12 @@ class RandomInitialPlan {
      */
     private final Map<String, Operator> tableToOperator;
 
+    /**
+     * The selection conditions served by an {@code IndexScan} or a
+     * {@code BitmapScan}, which need no {@code Select} operator.
+     */
+    private final Set<Condition> indexedConditions;
+
     private Operator queryPlanRoot;
 
     public RandomInitialPlan(SQLQuery sqlQuery) {
@@ -36,16 +40,28 @@ class RandomInitialPlan {
         projectedAttributes = sqlQuery.getProjectList();
         fromTables = sqlQuery.getFromList();
         selectionConditions = sqlQuery.getSelectionList();
-        joinConditions = sqlQuery.getJoinList();
         orderByAttributes = sqlQuery.getOrderByList();
 
         tableToOperator = new HashMap<>();
+        indexedConditions = Collections.newSetFromMap(new IdentityHashMap<>());
     }
 
     /**
      * Prepare an initial plan for the query
      **/
     public Operator prepareInitialPlan() {
+        prepareTablePlans();
+        createJoinOperators();
+        return completePlan(queryPlanRoot);
+    }
+
+    /**
+     * Prepares the plan of each table of the query on its own: the
+     * cheapest access path to the table, with the selections on it.
+     *
+     * @return The plans of the tables, mapped from the table names
+     */
+    public Map<String, Operator> prepareTablePlans() {
 //        if (sqlquery.isDistinct()) {
 //            System.err.println("Distinct is not implemented.");
 //            System.exit(1);
@@ -58,8 +74,21 @@ class RandomInitialPlan {
         }
 
         createScanOperators();
+        createIndexScanOperators();
+        createScanProjections();
         createSelectOperators();
-        createJoinOperators();
+        return new HashMap<>(tableToOperator);
+    }
+
+    /**
+     * Completes a plan joining all the tables of the query with the
+     * projection, duplicate elimination and ordering of the query.
+     *
+     * @param joinedPlan The plan of the joined tables
+     * @return The plan of the query
+     */
+    public Operator completePlan(Operator joinedPlan) {
+        queryPlanRoot = joinedPlan;
         createProjectOperators();
         createDistinctOperators();
         createOrderByOperators();
@@ -94,10 +123,7 @@ class RandomInitialPlan {
 
             String tableMetadata = fromTable + ".md";
             try {
-                ObjectInputStream in = new ObjectInputStream(new FileInputStream(tableMetadata));
-                Schema schema = (Schema) in.readObject();
-                scan.setSchema(schema);
-                in.close();
+                scan.setSchema(Catalog.getSchema(fromTable));
             } catch (Exception e) {
                 System.err.println("RandomInitialPlan:Error reading Schema of the table " + tableMetadata);
                 e.printStackTrace();
@@ -112,6 +138,104 @@ class RandomInitialPlan {
         }
     }
 
+    /**
+     * Replaces the {@code Scan} operator of each table by an {@code IndexScan}
+     * operator serving all its selection conditions on an indexed attribute,
+     * or a {@code BitmapScan} operator serving all those with bitmap indexes,
+     * if any is cheaper.
+     */
+    private void createIndexScanOperators() {
+        for (String fromTable : fromTables) {
+            Operator scan = tableToOperator.get(fromTable);
+            Operator accessPath = scan;
+            long accessPathCost = new PlanCost().getCost(scan);
+            List<Condition> bitmapConditions = new ArrayList<>();
+            Map<Attribute, List<Condition>> indexConditions = new LinkedHashMap<>();
+            for (Condition selectionCondition : selectionConditions) {
+                if (!selectionCondition.getLhs().getTabName().equals(fromTable)) {
+                    continue;
+                }
+                if (BitmapScan.isApplicable(selectionCondition)) {
+                    bitmapConditions.add(selectionCondition);
+                }
+                if (IndexScan.isApplicable(selectionCondition)) {
+                    indexConditions.computeIfAbsent(selectionCondition.getLhs(), k -> new ArrayList<>()).add(selectionCondition);
+                }
+            }
+            for (List<Condition> conditions : indexConditions.values()) {
+                IndexScan indexScan = new IndexScan(fromTable, conditions);
+                indexScan.setSchema(scan.getSchema());
+                long indexScanCost = new PlanCost().getCost(indexScan);
+                if (indexScanCost < accessPathCost) {
+                    accessPath = indexScan;
+                    accessPathCost = indexScanCost;
+                }
+            }
+            if (!bitmapConditions.isEmpty()) {
+                BitmapScan bitmapScan = new BitmapScan(fromTable, bitmapConditions);
+                bitmapScan.setSchema(scan.getSchema());
+                long bitmapScanCost;
+                if (isCountOnly() && bitmapConditions.size() == selectionConditions.size()) {
+                    // the count is answered from the bitmaps alone
+                    bitmapScanCost = new PlanCost().getBitmapIndexCost(bitmapScan);
+                } else {
+                    bitmapScanCost = new PlanCost().getCost(bitmapScan);
+                }
+                if (bitmapScanCost < accessPathCost) {
+                    accessPath = bitmapScan;
+                    accessPathCost = bitmapScanCost;
+                }
+            }
+            if (accessPath instanceof IndexScan) {
+                indexedConditions.addAll(((IndexScan) accessPath).getConditions());
+            } else if (accessPath instanceof BitmapScan) {
+                indexedConditions.addAll(((BitmapScan) accessPath).getConditions());
+            }
+            tableToOperator.put(fromTable, accessPath);
+        }
+    }
+
+    /**
+     * Narrows the tuples of the scan of each table down to the columns
+     * which the query uses in its selections, joins, projections or
+     * ordering, so the operators above carry and cost narrower tuples.
+     */
+    private void createScanProjections() {
+        if (projectedAttributes.isEmpty()) {
+            // all the columns are returned
+            return;
+        }
+        List<Attribute> usedAttributes = new ArrayList<>();
+        for (Attribute projectedAttribute : projectedAttributes) {
+            usedAttributes.add(projectedAttribute.getBaseAttribute());
+        }
+        for (Condition condition : sqlquery.getConditionList()) {
+            usedAttributes.add(condition.getLhs());
+            if (condition.getOpType() == Condition.JOIN) {
+                usedAttributes.add((Attribute) condition.getRhs());
+            }
+        }
+        usedAttributes.addAll(orderByAttributes);
+        for (String fromTable : fromTables) {
+            ((Scan) tableToOperator.get(fromTable)).setProjection(usedAttributes);
+        }
+    }
+
+    /**
+     * Checks whether the query only counts the tuples of a single table.
+     */
+    private boolean isCountOnly() {
+        if (fromTables.size() != 1 || projectedAttributes.isEmpty()) {
+            return false;
+        }
+        for (Attribute projectedAttribute : projectedAttributes) {
+            if (projectedAttribute.getAggType() != Attribute.COUNT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Creates a {@code Selection} operator for each condition,
      * between an attribute and a string, specified in the WHERE clause.
@@ -124,6 +248,9 @@ class RandomInitialPlan {
         // will never remain null
         Select lastSelect = null;
         for (Condition selectionCondition : selectionConditions) {
+            if (indexedConditions.contains(selectionCondition)) {
+                continue;
+            }
             if (selectionCondition.getOpType() == Condition.SELECT) {
                 String table = selectionCondition.getLhs().getTabName();
                 Operator operatorOfTable = tableToOperator.get(table);
@@ -132,49 +259,61 @@ class RandomInitialPlan {
                 modifyHashtable(operatorOfTable, lastSelect);
             }
         }
-        queryPlanRoot = lastSelect;
+        // every condition may be served by an index
+        queryPlanRoot = lastSelect != null ? lastSelect : tableToOperator.get(fromTables.get(fromTables.size() - 1));
     }
 
     /**
-     * Creates a {@code Join} operator for each condition,
-     * between two attributes, specified in the WHERE clause.
+     * Creates a {@code Join} operator for each pair of tables related
+     * by conditions, between two attributes, specified in the WHERE clause.
      */
     public void createJoinOperators() {
-        int numJoins = joinConditions.size();
+        List<ArrayList<Condition>> joinGroups = sqlquery.getJoinGroups();
+        int numJoins = joinGroups.size();
         if (numJoins == 0) {
             return;
         }
 
-        BitSet joinConditionIndices = new BitSet(numJoins);
-        int joinConditionIndex = RandomNumberGenerator.randInt(0, numJoins - 1);
+        BitSet joinGroupIndices = new BitSet(numJoins);
+        int joinGroupIndex = RandomNumberGenerator.randInt(0, numJoins - 1);
         // will never remain null
         Join join = null;
 
-        // repeat until all join conditions are considered
-        while (joinConditionIndices.cardinality() != numJoins) {
-            // choose an unconsidered join condition at random
-            while (joinConditionIndices.get(joinConditionIndex)) {
-                joinConditionIndex = RandomNumberGenerator.randInt(0, numJoins - 1);
+        // repeat until all join groups are considered
+        while (joinGroupIndices.cardinality() != numJoins) {
+            // choose an unconsidered join group at random
+            while (joinGroupIndices.get(joinGroupIndex)) {
+                joinGroupIndex = RandomNumberGenerator.randInt(0, numJoins - 1);
             }
-            Condition joinCondition = joinConditions.get(joinConditionIndex);
-            String leftTable = joinCondition.getLhs().getTabName();
-            String rightTable = ((Attribute) joinCondition.getRhs()).getTabName();
+            List<Condition> joinGroup = joinGroups.get(joinGroupIndex);
+            String leftTable = joinGroup.get(0).getLhs().getTabName();
+            String rightTable = ((Attribute) joinGroup.get(0).getRhs()).getTabName();
             Operator leftTableScan = tableToOperator.get(leftTable);
             Operator rightTableScan = tableToOperator.get(rightTable);
-            join = new Join(leftTableScan, rightTableScan, joinCondition);
-            join.setNodeIndex(joinConditionIndex);
+
+            // every condition of the join has its left hand side in the left table
+            List<Condition> joinConditions = new ArrayList<>();
+            for (Condition joinCondition : joinGroup) {
+                if (joinCondition.getLhs().getTabName().equals(leftTable)) {
+                    joinConditions.add(joinCondition);
+                } else {
+                    joinConditions.add(joinCondition.getFlippedCondition());
+                }
+            }
+            join = new Join(leftTableScan, rightTableScan, joinConditions);
+            join.setNodeIndex(joinGroupIndex);
             Schema joinedSchema = leftTableScan.getSchema().joinWith(rightTableScan.getSchema());
             join.setSchema(joinedSchema);
 
-            // choose a join type at random
-            int numJoinTypes = JoinType.numJoinTypes();
-            int joinType = RandomNumberGenerator.randInt(0, numJoinTypes - 1);
+            // choose an applicable join type at random
+            List<Integer> joinTypes = JoinType.getApplicableJoinTypes(join);
+            int joinType = joinTypes.get(RandomNumberGenerator.randInt(0, joinTypes.size() - 1));
             join.setJoinType(joinType);
 
             modifyHashtable(leftTableScan, join);
             modifyHashtable(rightTableScan, join);
 
-            joinConditionIndices.set(joinConditionIndex);
+            joinGroupIndices.set(joinGroupIndex);
         }
 
         queryPlanRoot = join;
@@ -5,10 +5,13 @@
 package qp.optimizer;
 
 import qp.operators.*;
+import qp.operators.joins.BandJoin;
 import qp.operators.joins.BlockNestedJoin;
+import qp.operators.joins.IndexNestedJoin;
 import qp.operators.joins.Join;
 import qp.operators.joins.JoinType;
 import qp.operators.joins.PageNestedJoin;
+import qp.operators.joins.ParallelHashJoin;
 import qp.operators.joins.SortMergeJoin;
 import qp.operators.projects.Project;
 import qp.utils.Attribute;
@@ -16,7 +19,14 @@ import qp.utils.Condition;
 import qp.utils.RandomNumberGenerator;
 import qp.utils.SQLQuery;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 public class RandomOptimizer {
 
@@ -32,9 +42,19 @@ public class RandomOptimizer {
      **/
     public static final int NUMCHOICES = 3;
 
+    /**
+     * Number of threads running the random restarts
+     **/
+    private static int numWorkers = Runtime.getRuntime().availableProcessors();
+
     SQLQuery sqlquery;  // Vector of Vectors of Select + From + Where + GroupBy
     int numJoin;        // Number of joins in this query plan
 
+    /**
+     * The cost model of each thread, reused for every plan it costs
+     **/
+    private final ThreadLocal<PlanCost> planCost = ThreadLocal.withInitial(PlanCost::new);
+
     /**
      * constructor
      **/
@@ -43,6 +63,10 @@ public class RandomOptimizer {
         this.sqlquery = sqlquery;
     }
 
+    public static void setNumWorkers(int numWorkers) {
+        RandomOptimizer.numWorkers = numWorkers;
+    }
+
     /**
      * After finding a choice of method for each operator
      * * prepare an execution plan by replacing the methods with
@@ -56,7 +80,11 @@ public class RandomOptimizer {
                 Operator left = makeExecPlan(((Join) node).getLeft());
                 Operator right = makeExecPlan(((Join) node).getRight());
                 int joinType = ((Join) node).getJoinType();
-                int numbuff = BufferManager.getBuffersPerJoin();
+                int numbuff = ((Join) node).getNumBuff();
+                if (numbuff == 0) {
+                    // the plan was not allocated buffer pages, so the joins share them evenly
+                    numbuff = BufferManager.getBuffersPerJoin();
+                }
                 switch (joinType) {
                     case JoinType.PAGE_NESTED:
                         PageNestedJoin pnj = new PageNestedJoin((Join) node);
@@ -65,7 +93,7 @@ public class RandomOptimizer {
                         pnj.setNumBuff(numbuff);
                         return pnj;
                     case JoinType.BLOCK_NESTED:
-                        int blockSize = BufferManager.getBuffersPerJoin() - 2;
+                        int blockSize = numbuff - 2;
                         BlockNestedJoin bnj = new BlockNestedJoin((Join) node, blockSize);
                         bnj.setLeft(left);
                         bnj.setRight(right);
@@ -77,6 +105,24 @@ public class RandomOptimizer {
                         smj.setRight(right);
                         smj.setNumBuff(numbuff);
                         return smj;
+                    case JoinType.HASH:
+                        ParallelHashJoin phj = new ParallelHashJoin((Join) node);
+                        phj.setLeft(left);
+                        phj.setRight(right);
+                        phj.setNumBuff(numbuff);
+                        return phj;
+                    case JoinType.BAND:
+                        BandJoin bj = new BandJoin((Join) node);
+                        bj.setLeft(left);
+                        bj.setRight(right);
+                        bj.setNumBuff(numbuff);
+                        return bj;
+                    case JoinType.INDEX_NESTED:
+                        IndexNestedJoin inj = new IndexNestedJoin((Join) node);
+                        inj.setLeft(left);
+                        inj.setRight(right);
+                        inj.setNumBuff(numbuff);
+                        return inj;
                     default:
                         return node;
                 }
@@ -107,36 +153,33 @@ public class RandomOptimizer {
 
     /**
      * Randomly selects a neighbour
+     * * The plan is left unchanged: the neighbour is built by path copying,
+     * * so it shares every subtree but the path from the root to the altered join
      **/
     protected Operator getNeighbor(Operator root) {
         // Randomly select a node to be altered to get the neighbour
         int nodeNum = RandomNumberGenerator.randInt(0, numJoin - 1);
         // Randomly select type of alteration: Change Method/Associative/Commutative
         int changeType = RandomNumberGenerator.randInt(0, NUMCHOICES - 1);
-        Operator neighbor = null;
         switch (changeType) {
             case METHODCHOICE:   // Select a neighbour by changing the method type
-                neighbor = neighborMeth(root, nodeNum);
-                break;
+                return neighborMeth(root, nodeNum);
             case COMMUTATIVE:
-                neighbor = neighborCommut(root, nodeNum);
-                break;
+                return neighborCommut(root, nodeNum);
             case ASSOCIATIVE:
-                neighbor = neighborAssoc(root, nodeNum);
-                break;
+                return neighborAssoc(root, nodeNum);
+            default:
+                return root;
         }
-        return neighbor;
     }
 
     /**
      * Implementation of Iterative Improvement Algorithm for Randomized optimization of Query Plan
+     * * The random restarts are independent, so they run on a pool of worker threads,
+     * * and the cheapest local minimum of any of them is kept without locking
      **/
     public Operator getOptimizedPlan() {
-        /** get an initial plan for the given sql query **/
-        RandomInitialPlan rip = new RandomInitialPlan(sqlquery);
-        numJoin = sqlquery.getJoinList().size();
-        long MINCOST = Long.MAX_VALUE;
-        Operator finalPlan = null;
+        numJoin = sqlquery.getNumJoin();
 
         /** NUMITER is number of times random restart **/
         int NUMITER;
@@ -146,81 +189,80 @@ public class RandomOptimizer {
             NUMITER = 1;
         }
 
-        /** Randomly restart the gradient descent until
-         *  the maximum specified number of random restarts (NUMITER)
-         *  has satisfied
-         **/
+        AtomicReference<CostedPlan> finalPlan = new AtomicReference<>();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Math.min(numWorkers, NUMITER)));
+        List<Future<?>> restarts = new ArrayList<>();
         for (int j = 0; j < NUMITER; ++j) {
-            Operator initPlan = rip.prepareInitialPlan();
-            modifySchema(initPlan);
-            System.out.println("-----------initial Plan-------------");
-            Debug.PPrint(initPlan);
-            PlanCost pc = new PlanCost();
-            long initCost = pc.getCost(initPlan);
-            System.out.println(initCost);
-
-            boolean flag = true;
-            long minNeighborCost = initCost;   //just initialization purpose;
-            Operator minNeighbor = initPlan;  //just initialization purpose;
-            if (numJoin != 0) {
-                while (flag) {  // flag = false when local minimum is reached
-                    System.out.println("---------------while--------");
-                    Operator initPlanCopy = (Operator) initPlan.clone();
-                    minNeighbor = getNeighbor(initPlanCopy);
-
-                    System.out.println("--------------------------neighbor---------------");
-                    Debug.PPrint(minNeighbor);
-                    pc = new PlanCost();
-                    minNeighborCost = pc.getCost(minNeighbor);
-                    System.out.println("  " + minNeighborCost);
-
-                    /** In this loop we consider from the
-                     ** possible neighbors (randomly selected)
-                     ** and take the minimum among for next step
-                     **/
-                    for (int i = 1; i < 2 * numJoin; ++i) {
-                        initPlanCopy = (Operator) initPlan.clone();
-                        Operator neighbor = getNeighbor(initPlanCopy);
-                        System.out.println("------------------neighbor--------------");
-                        Debug.PPrint(neighbor);
-                        pc = new PlanCost();
-                        long neighborCost = 0;
-                        try {
-                            neighborCost = pc.getCost(neighbor);
-                        } catch (Exception e) {
-                            System.out.println("fatal error.");
-                            System.exit(0);
-                        }
-                        System.out.println(neighborCost);
-
-                        if (neighborCost < minNeighborCost) {
-                            minNeighbor = neighbor;
-                            minNeighborCost = neighborCost;
-                        }
-                    }
-                    if (minNeighborCost < initCost) {
-                        initPlan = minNeighbor;
-                        initCost = minNeighborCost;
-                    } else {
-                        minNeighbor = initPlan;
-                        minNeighborCost = initCost;
-                        flag = false;  // local minimum reached
+            restarts.add(workers.submit(() -> {
+                CostedPlan localMinimum = getLocalMinimum();
+                finalPlan.accumulateAndGet(localMinimum, CostedPlan::getCheaper);
+            }));
+        }
+        workers.shutdown();
+        for (Future<?> restart : restarts) {
+            try {
+                restart.get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("RandomOptimizer: error in random restart");
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+        System.out.println("---------------------------Final Plan----------------");
+        Debug.PPrint(finalPlan.get().plan);
+        System.out.println("  " + finalPlan.get().cost);
+        return finalPlan.get().plan;
+    }
+
+    /**
+     * Randomly restarts the gradient descent from a random initial plan,
+     * * moving to the cheapest of {@code 2 * numJoin} random neighbors
+     * * until none is cheaper
+     **/
+    private CostedPlan getLocalMinimum() {
+        Operator initPlan = new RandomInitialPlan(sqlquery).prepareInitialPlan();
+        modifySchema(initPlan);
+        long initCost = getCost(initPlan);
+
+        boolean flag = true;
+        long minNeighborCost = initCost;   //just initialization purpose;
+        Operator minNeighbor = initPlan;  //just initialization purpose;
+        if (numJoin != 0) {
+            while (flag) {  // flag = false when local minimum is reached
+                minNeighbor = getNeighbor(initPlan);
+                minNeighborCost = getCost(minNeighbor);
+
+                /** In this loop we consider from the
+                 ** possible neighbors (randomly selected)
+                 ** and take the minimum among for next step
+                 **/
+                for (int i = 1; i < 2 * numJoin; ++i) {
+                    Operator neighbor = getNeighbor(initPlan);
+                    long neighborCost = getCost(neighbor);
+                    if (neighborCost < minNeighborCost) {
+                        minNeighbor = neighbor;
+                        minNeighborCost = neighborCost;
                     }
                 }
-                System.out.println("------------------local minimum--------------");
-                Debug.PPrint(minNeighbor);
-                System.out.println(" " + minNeighborCost);
-            }
-            if (minNeighborCost < MINCOST) {
-                MINCOST = minNeighborCost;
-                finalPlan = minNeighbor;
+                if (minNeighborCost < initCost) {
+                    initPlan = minNeighbor;
+                    initCost = minNeighborCost;
+                } else {
+                    minNeighbor = initPlan;
+                    minNeighborCost = initCost;
+                    flag = false;  // local minimum reached
+                }
             }
         }
-        System.out.println("\n\n\n");
-        System.out.println("---------------------------Final Plan----------------");
-        Debug.PPrint(finalPlan);
-        System.out.println("  " + MINCOST);
-        return finalPlan;
+        return new CostedPlan(minNeighbor, minNeighborCost);
+    }
+
+    /**
+     * Returns the cost of a plan, by the cost model of the calling thread
+     **/
+    protected long getCost(Operator plan) {
+        return planCost.get().getCost(plan);
     }
 
     /**
@@ -228,21 +270,20 @@ public class RandomOptimizer {
      * *  e.g., Nested loop join, Sort-Merge Join, Hash Join etc..,
      * * returns the modified plan
      **/
-
     protected Operator neighborMeth(Operator root, int joinNum) {
-        System.out.println("------------------neighbor by method change----------------");
-        int numJMeth = JoinType.numJoinTypes();
-        if (numJMeth > 1) {
-            /** find the node that is to be altered **/
-            Join node = (Join) findNodeAt(root, joinNum);
+        return copyPath(root, joinNum, node -> {
+            List<Integer> joinMeths = JoinType.getApplicableJoinTypes(node);
+            int numJMeth = joinMeths.size();
+            if (numJMeth <= 1) {
+                return node;
+            }
             int prevJoinMeth = node.getJoinType();
-            int joinMeth = RandomNumberGenerator.randInt(0, numJMeth - 1);
+            int joinMeth = joinMeths.get(RandomNumberGenerator.randInt(0, numJMeth - 1));
             while (joinMeth == prevJoinMeth) {
-                joinMeth = RandomNumberGenerator.randInt(0, numJMeth - 1);
+                joinMeth = joinMeths.get(RandomNumberGenerator.randInt(0, numJMeth - 1));
             }
-            node.setJoinType(joinMeth);
-        }
-        return root;
+            return newJoin(node.getLeft(), node.getRight(), node.getJoinConditions(), joinMeth, node.getNodeIndex());
+        });
     }
 
     /**
@@ -251,16 +292,8 @@ public class RandomOptimizer {
      * * returns the modifies plan
      **/
     protected Operator neighborCommut(Operator root, int joinNum) {
-        System.out.println("------------------neighbor by commutative---------------");
-        /** find the node to be altered**/
-        Join node = (Join) findNodeAt(root, joinNum);
-        Operator left = node.getLeft();
-        Operator right = node.getRight();
-        node.setLeft(right);
-        node.setRight(left);
-        node.getCondition().flip();
-        modifySchema(root);
-        return root;
+        return copyPath(root, joinNum, node -> newJoin(node.getRight(), node.getLeft(),
+                getFlippedConditions(node.getJoinConditions()), node.getJoinType(), node.getNodeIndex()));
     }
 
     /**
@@ -269,34 +302,30 @@ public class RandomOptimizer {
      * *  returns the modifies plan
      **/
     protected Operator neighborAssoc(Operator root, int joinNum) {
-        /** find the node to be altered**/
-        Join op = (Join) findNodeAt(root, joinNum);
-        Operator left = op.getLeft();
-        Operator right = op.getRight();
+        return copyPath(root, joinNum, op -> {
+            Operator left = op.getLeft();
+            Operator right = op.getRight();
 
-        if (left.getOpType() == OperatorType.JOIN && right.getOpType() != OperatorType.JOIN) {
-            transformLefttoRight(op, (Join) left);
-        } else if (left.getOpType() != OperatorType.JOIN && right.getOpType() == OperatorType.JOIN) {
-            transformRighttoLeft(op, (Join) right);
-        } else if (left.getOpType() == OperatorType.JOIN && right.getOpType() == OperatorType.JOIN) {
-            if (RandomNumberGenerator.flipCoin())
-                transformLefttoRight(op, (Join) left);
-            else
-                transformRighttoLeft(op, (Join) right);
-        } else {
-            // The join is just A X B,  therefore Association rule is not applicable
-        }
-
-        /** modify the schema before returning the root **/
-        modifySchema(root);
-        return root;
+            if (left.getOpType() == OperatorType.JOIN && right.getOpType() != OperatorType.JOIN) {
+                return transformLefttoRight(op, (Join) left);
+            } else if (left.getOpType() != OperatorType.JOIN && right.getOpType() == OperatorType.JOIN) {
+                return transformRighttoLeft(op, (Join) right);
+            } else if (left.getOpType() == OperatorType.JOIN && right.getOpType() == OperatorType.JOIN) {
+                if (RandomNumberGenerator.flipCoin())
+                    return transformLefttoRight(op, (Join) left);
+                else
+                    return transformRighttoLeft(op, (Join) right);
+            } else {
+                // The join is just A X B,  therefore Association rule is not applicable
+                return op;
+            }
+        });
     }
 
     /**
      * This is given plan (A X B) X C
      **/
-    protected void transformLefttoRight(Join op, Join left) {
-        System.out.println("------------------Left to Right neighbor--------------");
+    protected Join transformLefttoRight(Join op, Join left) {
         Operator right = op.getRight();
         Operator leftleft = left.getLeft();
         Operator leftright = left.getRight();
@@ -304,39 +333,22 @@ public class RandomOptimizer {
         Join temp;
 
         if (leftright.getSchema().contains(leftAttr)) {
-            System.out.println("----------------CASE 1-----------------");
             /** CASE 1 :  ( A X a1b1 B) X b4c4  C     =  A X a1b1 (B X b4c4 C)
              ** a1b1,  b4c4 are the join conditions at that join operator
              **/
-            temp = new Join(leftright, right, op.getCondition());
-            temp.setJoinType(op.getJoinType());
-            temp.setNodeIndex(op.getNodeIndex());
-            op.setLeft(leftleft);
-            op.setJoinType(left.getJoinType());
-            op.setNodeIndex(left.getNodeIndex());
-            op.setRight(temp);
-            op.setCondition(left.getCondition());
-
+            temp = newJoin(leftright, right, op.getJoinConditions(), op.getJoinType(), op.getNodeIndex());
+            return newJoin(leftleft, temp, left.getJoinConditions(), left.getJoinType(), left.getNodeIndex());
         } else {
-            System.out.println("--------------------CASE 2---------------");
             /**CASE 2:   ( A X a1b1 B) X a4c4  C     =  B X b1a1 (A X a4c4 C)
              ** a1b1,  a4c4 are the join conditions at that join operator
              **/
-            temp = new Join(leftleft, right, op.getCondition());
-            temp.setJoinType(op.getJoinType());
-            temp.setNodeIndex(op.getNodeIndex());
-            op.setLeft(leftright);
-            op.setRight(temp);
-            op.setJoinType(left.getJoinType());
-            op.setNodeIndex(left.getNodeIndex());
-            Condition newcond = left.getCondition();
-            newcond.flip();
-            op.setCondition(newcond);
+            temp = newJoin(leftleft, right, op.getJoinConditions(), op.getJoinType(), op.getNodeIndex());
+            return newJoin(leftright, temp, getFlippedConditions(left.getJoinConditions()),
+                    left.getJoinType(), left.getNodeIndex());
         }
     }
 
-    protected void transformRighttoLeft(Join op, Join right) {
-        System.out.println("------------------Right to Left Neighbor------------------");
+    protected Join transformRighttoLeft(Join op, Join right) {
         Operator left = op.getLeft();
         Operator rightleft = right.getLeft();
         Operator rightright = right.getRight();
@@ -344,36 +356,111 @@ public class RandomOptimizer {
         Join temp;
 
         if (rightleft.getSchema().contains(rightAttr)) {
-            System.out.println("----------------------CASE 3-----------------------");
             /** CASE 3 :  A X a1b1 (B X b4c4  C)     =  (A X a1b1 B ) X b4c4 C
              ** a1b1,  b4c4 are the join conditions at that join operator
              **/
-            temp = new Join(left, rightleft, op.getCondition());
-            temp.setJoinType(op.getJoinType());
-            temp.setNodeIndex(op.getNodeIndex());
-            op.setLeft(temp);
-            op.setRight(rightright);
-            op.setJoinType(right.getJoinType());
-            op.setNodeIndex(right.getNodeIndex());
-            op.setCondition(right.getCondition());
+            temp = newJoin(left, rightleft, op.getJoinConditions(), op.getJoinType(), op.getNodeIndex());
+            return newJoin(temp, rightright, right.getJoinConditions(), right.getJoinType(), right.getNodeIndex());
         } else {
-            System.out.println("-----------------------------CASE 4-----------------");
             /** CASE 4 :  A X a1c1 (B X b4c4  C)     =  (A X a1c1 C ) X c4b4 B
              ** a1b1,  b4c4 are the join conditions at that join operator
              **/
-            temp = new Join(left, rightright, op.getCondition());
-            temp.setJoinType(op.getJoinType());
-            temp.setNodeIndex(op.getNodeIndex());
-            op.setLeft(temp);
-            op.setRight(rightleft);
-            op.setJoinType(right.getJoinType());
-            op.setNodeIndex(right.getNodeIndex());
-            Condition newcond = right.getCondition();
-            newcond.flip();
-            op.setCondition(newcond);
+            temp = newJoin(left, rightright, op.getJoinConditions(), op.getJoinType(), op.getNodeIndex());
+            return newJoin(temp, rightleft, getFlippedConditions(right.getJoinConditions()),
+                    right.getJoinType(), right.getNodeIndex());
         }
     }
 
+    /**
+     * Copies the path from a node down to the join numbered with joinNum,
+     * * replacing the join by the result of a move; the nodes off the path
+     * * are shared, and never modified, so the plans of an optimizer share
+     * * their unchanged subtrees and the costs memoized on them
+     * * returns the copy, or the node itself if the join is not below it
+     **/
+    private Operator copyPath(Operator node, int joinNum, Function<Join, Join> move) {
+        switch (node.getOpType()) {
+            case OperatorType.JOIN: {
+                Join join = (Join) node;
+                if (join.getNodeIndex() == joinNum) {
+                    return move.apply(join);
+                }
+                Operator left = copyPath(join.getLeft(), joinNum, move);
+                Operator right = left == join.getLeft() ? copyPath(join.getRight(), joinNum, move) : join.getRight();
+                if (left == join.getLeft() && right == join.getRight()) {
+                    return node;
+                }
+                return newJoin(left, right, join.getJoinConditions(), join.getJoinType(), join.getNodeIndex());
+            }
+            case OperatorType.SELECT: {
+                Operator base = copyPath(((Select) node).getBase(), joinNum, move);
+                if (base == ((Select) node).getBase()) {
+                    return node;
+                }
+                Select select = new Select(base, ((Select) node).getCondition());
+                select.setSchema(base.getSchema());
+                return select;
+            }
+            case OperatorType.PROJECT: {
+                Operator base = copyPath(((Project) node).getBase(), joinNum, move);
+                if (base == ((Project) node).getBase()) {
+                    return node;
+                }
+                List<Attribute> attrlist = ((Project) node).getProjAttr();
+                Project project = new Project(base, attrlist);
+                project.setSchema(base.getSchema().subSchema(attrlist));
+                return project;
+            }
+            case OperatorType.ORDER: {
+                OrderBy orderBy = (OrderBy) node;
+                Operator base = copyPath(orderBy.getBase(), joinNum, move);
+                if (base == orderBy.getBase()) {
+                    return node;
+                }
+                OrderBy newOrderBy = new OrderBy(base, orderBy.getOrderByAttributes(), orderBy.getSortDirection());
+                newOrderBy.setSchema(base.getSchema());
+                return newOrderBy;
+            }
+            case OperatorType.DISTINCT: {
+                Distinct distinct = (Distinct) node;
+                Operator base = copyPath(distinct.getBase(), joinNum, move);
+                if (base == distinct.getBase()) {
+                    return node;
+                }
+                Distinct newDistinct = new Distinct(base, distinct.getAttributes());
+                newDistinct.setSchema(base.getSchema());
+                return newDistinct;
+            }
+            default:
+                return node;
+        }
+    }
+
+    /**
+     * Creates a join of two subtrees, with the schema of their join and
+     * * no cost memoized yet
+     **/
+    private static Join newJoin(Operator left, Operator right, List<Condition> joinConditions, int joinType,
+                                int nodeIndex) {
+        Join join = new Join(left, right, joinConditions);
+        join.setSchema(left.getSchema().joinWith(right.getSchema()));
+        join.setJoinType(joinType);
+        join.setNodeIndex(nodeIndex);
+        return join;
+    }
+
+    /**
+     * Returns flipped copies of join conditions, as the conditions
+     * * may be shared with other plans
+     **/
+    private static List<Condition> getFlippedConditions(List<Condition> joinConditions) {
+        List<Condition> flippedConditions = new ArrayList<>();
+        for (Condition condition : joinConditions) {
+            flippedConditions.add(condition.getFlippedCondition());
+        }
+        return flippedConditions;
+    }
+
     /**
      * This method traverses through the query plan and
      * * returns the node mentioned by joinNum
@@ -449,4 +536,21 @@ public class RandomOptimizer {
                 throw new RuntimeException();
         }
     }
+
+    /**
+     * A plan with its cost, as found by a random restart.
+     **/
+    private static class CostedPlan {
+        final Operator plan;
+        final long cost;
+
+        CostedPlan(Operator plan, long cost) {
+            this.plan = plan;
+            this.cost = cost;
+        }
+
+        static CostedPlan getCheaper(CostedPlan first, CostedPlan second) {
+            return first == null || second.cost < first.cost ? second : first;
+        }
+    }
 }
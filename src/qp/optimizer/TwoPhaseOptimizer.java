@@ -0,0 +1,116 @@
+package qp.optimizer;
+
+import qp.operators.Debug;
+import qp.operators.Operator;
+import qp.utils.RandomNumberGenerator;
+import qp.utils.SQLQuery;
+
+/**
+ * Two-phase optimization: iterative improvement from random restarts
+ * finds good local minima, and simulated annealing then explores the
+ * plans around the best of them, moving to a random neighbor if it is
+ * cheaper, or costlier with a probability {@code e^(-delta/T)} which
+ * falls as the temperature {@code T} is lowered.
+ * <p>
+ * The temperature starts at a fraction of the cost of the best local
+ * minimum and is multiplied by the cooling rate after each stage of
+ * {@code 16} moves per join. The annealing stops once the temperature
+ * is below 1 and the cheapest plan has not changed for
+ * {@code FROZEN_STAGES} stages, or once its time budget is spent.
+ */
+public class TwoPhaseOptimizer extends RandomOptimizer {
+    static final int MOVES_PER_JOIN = 16;
+    static final int FROZEN_STAGES = 4;
+
+    private static double initialTemperature = 0.1;  // Fraction of the cost of the starting plan
+    private static double coolingRate = 0.95;
+    private static long timeBudget = 10000;           // Milliseconds of annealing
+
+    public TwoPhaseOptimizer(SQLQuery sqlquery) {
+        super(sqlquery);
+    }
+
+    /**
+     * Sets the temperature schedule of the annealing.
+     *
+     * @param initialTemperature The initial temperature, as a fraction of the cost of the starting plan
+     * @param coolingRate The factor the temperature is multiplied by after each stage, between 0 and 1
+     * @return False if the schedule is invalid, which leaves the schedule unchanged
+     */
+    public static boolean setSchedule(double initialTemperature, double coolingRate) {
+        if (initialTemperature <= 0 || coolingRate <= 0 || coolingRate >= 1) {
+            return false;
+        }
+        TwoPhaseOptimizer.initialTemperature = initialTemperature;
+        TwoPhaseOptimizer.coolingRate = coolingRate;
+        return true;
+    }
+
+    /**
+     * Sets the time budget of the annealing.
+     *
+     * @param timeBudget The time budget in milliseconds
+     */
+    public static void setTimeBudget(long timeBudget) {
+        TwoPhaseOptimizer.timeBudget = timeBudget;
+    }
+
+    @Override
+    public Operator getOptimizedPlan() {
+        Operator startPlan = super.getOptimizedPlan();
+        if (numJoin == 0) {
+            return startPlan;
+        }
+        return anneal(startPlan);
+    }
+
+    /**
+     * Anneals from a plan.
+     *
+     * @return The cheapest plan visited
+     */
+    private Operator anneal(Operator plan) {
+        long deadline = System.currentTimeMillis() + timeBudget;
+        long cost = getCost(plan);
+        Operator minPlan = plan;
+        long minCost = cost;
+
+        double temperature = initialTemperature * cost;
+        int stagesWithoutImprovement = 0;
+        while ((temperature >= 1 || stagesWithoutImprovement < FROZEN_STAGES) && System.currentTimeMillis() < deadline) {
+            boolean isImproved = false;
+            for (int i = 0; i < MOVES_PER_JOIN * numJoin && System.currentTimeMillis() < deadline; ++i) {
+                Operator neighbor = getNeighbor(plan);
+                long neighborCost = getCost(neighbor);
+                if (isAccepted(neighborCost - (double) cost, temperature)) {
+                    plan = neighbor;
+                    cost = neighborCost;
+                }
+                if (cost < minCost) {
+                    minPlan = plan;
+                    minCost = cost;
+                    isImproved = true;
+                }
+            }
+            stagesWithoutImprovement = isImproved ? 0 : stagesWithoutImprovement + 1;
+            temperature *= coolingRate;
+        }
+
+        System.out.println("---------------------------Annealed Plan----------------");
+        Debug.PPrint(minPlan);
+        System.out.println("  " + minCost);
+        return minPlan;
+    }
+
+    /**
+     * Decides whether to move to a neighbor plan.
+     *
+     * @param delta The cost of the neighbor less the cost of the current plan
+     */
+    private static boolean isAccepted(double delta, double temperature) {
+        if (delta <= 0) {
+            return true;
+        }
+        return RandomNumberGenerator.randDouble() < Math.exp(-delta / temperature);
+    }
+}
@@ -0,0 +1,322 @@
+package qp.storage;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The pool of buffer frames shared by all the operators, which caches
+ * the pages of files by the name of the file and the number of the page.
+ * All the readers of a file therefore share its cached pages, e.g., the
+ * scans of the same table, or the rescans of the right input of a nested
+ * loop join.
+ * <p>
+ * A page is pinned while it is in use, and a pinned frame is never
+ * evicted. When no frame is free, an unpinned frame is evicted by the
+ * replacement policy. A page written through the pool is dirty, and is
+ * written to its file only when it is evicted, so a temporary file which
+ * fits in the pool is never written at all. If all the frames are pinned,
+ * pages are read and written directly, without being cached.
+ * <p>
+ * The frames come out of the same budget of buffer pages as the pages
+ * reserved by the operators. A pinned page is an input page of the
+ * operator which pins it, and is counted in its reservation, while the
+ * unpinned pages are only cached in the pages which no operator has
+ * reserved. When an operator reserves more pages, unpinned pages are
+ * evicted until they fit in the pages left.
+ * <p>
+ * A page which is read only once, e.g., by a sequential scan of a file
+ * larger than the pool, is evicted as soon as it is unpinned, so that
+ * such a scan does not flush the pages which are read again.
+ * <p>
+ * The page objects are shared by all the readers of a page, and must not
+ * be modified.
+ */
+public class BufferPool {
+    private static String policyName = "clock";
+    private static BufferPool instance = new BufferPool(0, new ClockPolicy(0));
+
+    private final ReplacementPolicy policy;
+    private final Map<String, Integer> frameOfPage = new HashMap<>();
+    private final String[] pageOfFrame;  // Key of the page held in each frame, or null if the frame is free
+    private final PageStore[] stores;    // File of the page held in each frame
+    private final Object[] pages;
+    private final int[] pinCounts;
+    private final boolean[] isDirty;
+    private int numUsedFrames = 0;
+    private int numUnpinned = 0;  // Number of cached pages which are not pinned
+    private int capacity;         // Most unpinned pages cached, the buffer pages not reserved
+    private long numHits = 0;
+    private long numMisses = 0;
+
+    private BufferPool(int numFrames, ReplacementPolicy policy) {
+        this.policy = policy;
+        pageOfFrame = new String[numFrames];
+        stores = new PageStore[numFrames];
+        pages = new Object[numFrames];
+        pinCounts = new int[numFrames];
+        isDirty = new boolean[numFrames];
+        capacity = numFrames;
+    }
+
+    /**
+     * Sets the replacement policy of the pools created subsequently.
+     *
+     * @param name The name of the policy, as taken by {@code ReplacementPolicy.create}
+     * @return False if the name is unknown
+     */
+    public static boolean setReplacementPolicy(String name) {
+        if (ReplacementPolicy.create(name, 1) == null) {
+            return false;
+        }
+        policyName = name;
+        return true;
+    }
+
+    /**
+     * Replaces the shared pool with a new pool of the specified number
+     * of frames, which are all free.
+     *
+     * @param numFrames The number of frames
+     */
+    public static void init(int numFrames) {
+        instance = new BufferPool(numFrames, ReplacementPolicy.create(policyName, numFrames));
+    }
+
+    public static BufferPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Sets the number of unpinned pages which may be cached, evicting
+     * unpinned pages beyond it.
+     *
+     * @param numPages The number of buffer pages not reserved by any operator
+     */
+    public synchronized void setCapacity(int numPages) throws IOException {
+        capacity = Math.max(0, numPages);
+        evictOverCapacity();
+    }
+
+    private static String getKey(String fileName, int pageNumber) {
+        return fileName + "#" + pageNumber;
+    }
+
+    /**
+     * Pins a page, reading it from its file if it is not cached.
+     *
+     * @param store The file of the page
+     * @param pageNumber The number of the page
+     * @return The object held by the page
+     */
+    public Object pin(PageStore store, int pageNumber) throws IOException {
+        String key = getKey(store.getFileName(), pageNumber);
+        synchronized (this) {
+            Integer frame = frameOfPage.get(key);
+            if (frame != null) {
+                numHits++;
+                return pinFrame(frame, false);
+            }
+            numMisses++;
+        }
+
+        // the file is read outside the lock so that the readers of different pages do not wait on each other
+        Object page = store.readPage(pageNumber);
+        synchronized (this) {
+            Integer frame = frameOfPage.get(key);
+            if (frame == null) {
+                frame = bringIn(key, store, page);
+                if (frame < 0) {
+                    return page;
+                }
+                return pinFrame(frame, true);
+            }
+            // brought in by another reader meanwhile
+            return pinFrame(frame, false);
+        }
+    }
+
+    /**
+     * Releases a pin of a page. A page which is not cached, e.g., as all
+     * the frames were pinned when it was read, is ignored.
+     *
+     * @param store The file of the page
+     * @param pageNumber The number of the page
+     */
+    public synchronized void unpin(PageStore store, int pageNumber) throws IOException {
+        Integer frame = frameOfPage.get(getKey(store.getFileName(), pageNumber));
+        if (frame != null && pinCounts[frame] > 0) {
+            pinCounts[frame]--;
+            if (pinCounts[frame] == 0) {
+                numUnpinned++;
+                evictOverCapacity();
+            }
+        }
+    }
+
+    /**
+     * Releases a pin of a page which is read only once, evicting the page
+     * once it is no longer pinned.
+     *
+     * @param store The file of the page
+     * @param pageNumber The number of the page
+     */
+    public synchronized void unpinReadOnce(PageStore store, int pageNumber) throws IOException {
+        Integer frame = frameOfPage.get(getKey(store.getFileName(), pageNumber));
+        if (frame != null && pinCounts[frame] > 0) {
+            pinCounts[frame]--;
+            if (pinCounts[frame] == 0) {
+                numUnpinned++;
+                evict(frame);
+            }
+        }
+    }
+
+    /**
+     * Writes a page through the pool. The page is cached as a dirty page
+     * and is not pinned.
+     *
+     * @param store The file of the page
+     * @param pageNumber The number of the page
+     * @param page The object held by the page
+     */
+    public synchronized void write(PageStore store, int pageNumber, Object page) throws IOException {
+        String key = getKey(store.getFileName(), pageNumber);
+        Integer frame = frameOfPage.get(key);
+        boolean isNewPage = frame == null;
+        if (frame != null) {
+            pages[frame] = page;
+        } else {
+            frame = bringIn(key, store, page);
+            if (frame < 0) {
+                store.writePage(pageNumber, page);
+                return;
+            }
+        }
+        isDirty[frame] = true;
+        policy.recordAccess(frame, isNewPage);
+        evictOverCapacity();
+    }
+
+    /**
+     * Drops the cached pages of a file without writing them, e.g., before
+     * the file is deleted.
+     *
+     * @param fileName The name of the file
+     */
+    public synchronized void discard(String fileName) {
+        String prefix = fileName + "#";
+        for (int frame = 0; frame < pageOfFrame.length; ++frame) {
+            if (pageOfFrame[frame] != null && pageOfFrame[frame].startsWith(prefix)) {
+                if (pinCounts[frame] == 0) {
+                    numUnpinned--;
+                }
+                frameOfPage.remove(pageOfFrame[frame]);
+                pageOfFrame[frame] = null;
+                stores[frame] = null;
+                pages[frame] = null;
+                pinCounts[frame] = 0;
+                isDirty[frame] = false;
+            }
+        }
+    }
+
+    public synchronized long getNumHits() {
+        return numHits;
+    }
+
+    public synchronized long getNumMisses() {
+        return numMisses;
+    }
+
+    private Object pinFrame(int frame, boolean isNewPage) {
+        if (pinCounts[frame] == 0) {
+            numUnpinned--;
+        }
+        pinCounts[frame]++;
+        policy.recordAccess(frame, isNewPage);
+        return pages[frame];
+    }
+
+    /**
+     * Puts a page into a free frame, or else into a frame evicted by the
+     * replacement policy, writing the evicted page if it is dirty.
+     *
+     * @return The frame, or -1 if all the frames are pinned
+     */
+    private int bringIn(String key, PageStore store, Object page) throws IOException {
+        int frame = findFreeFrame();
+        if (frame < 0) {
+            frame = policy.selectVictim(pinCounts);
+            if (frame < 0) {
+                return -1;
+            }
+            evict(frame);
+        }
+        frameOfPage.put(key, frame);
+        pageOfFrame[frame] = key;
+        stores[frame] = store;
+        pages[frame] = page;
+        pinCounts[frame] = 0;
+        isDirty[frame] = false;
+        numUnpinned++;
+        return frame;
+    }
+
+    /**
+     * Evicts unpinned pages chosen by the replacement policy until they
+     * fit in the capacity.
+     */
+    private void evictOverCapacity() throws IOException {
+        if (numUnpinned <= capacity) {
+            return;
+        }
+        // the free frames are passed as pinned, so that the policy only chooses cached pages
+        int[] candidates = pinCounts.clone();
+        for (int frame = 0; frame < pageOfFrame.length; ++frame) {
+            if (pageOfFrame[frame] == null) {
+                candidates[frame] = 1;
+            }
+        }
+        while (numUnpinned > capacity) {
+            int frame = policy.selectVictim(candidates);
+            if (frame < 0) {
+                return;
+            }
+            evict(frame);
+            candidates[frame] = 1;
+        }
+    }
+
+    /**
+     * Frees a frame holding an unpinned page, writing the page if it is dirty.
+     */
+    private void evict(int frame) throws IOException {
+        if (isDirty[frame]) {
+            stores[frame].writePage(getPageNumber(pageOfFrame[frame]), pages[frame]);
+        }
+        frameOfPage.remove(pageOfFrame[frame]);
+        pageOfFrame[frame] = null;
+        stores[frame] = null;
+        pages[frame] = null;
+        isDirty[frame] = false;
+        numUnpinned--;
+    }
+
+    private int findFreeFrame() {
+        if (numUsedFrames < pageOfFrame.length) {
+            return numUsedFrames++;
+        }
+        // frames freed by discarding the pages of a file
+        for (int frame = 0; frame < pageOfFrame.length; ++frame) {
+            if (pageOfFrame[frame] == null) {
+                return frame;
+            }
+        }
+        return -1;
+    }
+
+    private static int getPageNumber(String key) {
+        return Integer.parseInt(key.substring(key.lastIndexOf('#') + 1));
+    }
+}
@@ -0,0 +1,261 @@
+package qp.storage;
+
+import qp.utils.Attribute;
+import qp.utils.Histogram;
+import qp.utils.HyperLogLog;
+import qp.utils.Schema;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The catalog of the tables: the schema of each table, from its file
+ * {@code <table>.md}, and its statistics, from its file
+ * {@code <table>.stat}. Each file is read once and cached with its
+ * modification time, and read again only once the file is modified,
+ * e.g., by reloading the table, so the optimizer and the cost model can
+ * look the tables up for every plan they consider. The statistics, and
+ * the sketches of the distinct values of each table file, are written
+ * through the catalog as the tables are loaded and analyzed.
+ */
+public class Catalog {
+    private static final String MOST_COMMON_VALUES = "mcv";
+    private static final String HISTOGRAM = "histogram";
+
+    private static final Map<String, CachedFile<Schema>> schemas = new ConcurrentHashMap<>();
+    private static final Map<String, CachedFile<Statistics>> statistics = new ConcurrentHashMap<>();
+
+    private Catalog() {
+    }
+
+    /**
+     * Gets the schema of a table.
+     *
+     * @param tabname The name of the table
+     * @return A copy of the schema, which the caller may modify
+     */
+    public static Schema getSchema(String tabname) throws IOException {
+        Schema schema = lookUp(schemas, tabname + ".md", Catalog::readSchema);
+        return (Schema) schema.clone();
+    }
+
+    /**
+     * Gets the statistics of a table.
+     *
+     * @param tabname The name of the table
+     */
+    public static Statistics getStatistics(String tabname) throws IOException {
+        return lookUp(statistics, tabname + ".stat", fileName -> readStatistics(fileName, tabname));
+    }
+
+    /**
+     * Writes the statistics of a table, in the format read by {@code getStatistics}.
+     *
+     * @param tabname The name of the table
+     */
+    public static void writeStatistics(String tabname, Statistics tableStatistics) throws IOException {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(tabname + ".stat")))) {
+            out.println(tableStatistics.numTuples);
+            for (long numDistinct : tableStatistics.numDistinct) {
+                out.print(numDistinct + "\t");
+            }
+            out.println();
+            for (int i = 0; i < tableStatistics.histograms.length; ++i) {
+                Histogram histogram = tableStatistics.histograms[i];
+                if (histogram == null) {
+                    continue;
+                }
+                out.print(MOST_COMMON_VALUES + "\t" + i);
+                for (int j = 0; j < histogram.getMostCommonValues().length; ++j) {
+                    out.print("\t" + histogram.getMostCommonValues()[j] + "\t" + histogram.getMostCommonFrequencies()[j]);
+                }
+                out.println();
+                out.print(HISTOGRAM + "\t" + i);
+                for (Object bound : histogram.getBounds()) {
+                    out.print("\t" + bound);
+                }
+                out.println();
+            }
+        }
+    }
+
+    /**
+     * Gets the name of the file of the sketches of the distinct values of
+     * the columns of a table file, {@code <table>.hll} for {@code <table>.tbl}
+     * or {@code <table>.p<partition>.hll} for a partition file.
+     */
+    public static String getSketchFileName(String tableFileName) {
+        return tableFileName.substring(0, tableFileName.length() - ".tbl".length()) + ".hll";
+    }
+
+    /**
+     * Writes the sketches of the distinct values of the columns of a table
+     * file alongside it, so the sketches of the parts of a table can be
+     * merged without reading them again.
+     */
+    public static void writeSketches(String tableFileName, HyperLogLog[] sketches) throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(getSketchFileName(tableFileName)))) {
+            out.writeObject(sketches);
+        }
+    }
+
+    private static <T> T lookUp(Map<String, CachedFile<T>> cache, String fileName, FileReaderFunction<T> reader)
+            throws IOException {
+        long lastModified = new File(fileName).lastModified();
+        CachedFile<T> cached = cache.get(fileName);
+        if (cached != null && cached.lastModified == lastModified) {
+            return cached.content;
+        }
+        T content = reader.read(fileName);
+        cache.put(fileName, new CachedFile<>(lastModified, content));
+        return content;
+    }
+
+    private static Schema readSchema(String fileName) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(fileName))) {
+            return (Schema) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Error in reading schema " + fileName, e);
+        }
+    }
+
+    /**
+     * Reads a statistics file, whose first line is the number of tuples of
+     * the table, and whose second line is the number of distinct values of
+     * each column. The columns analyzed each have two more lines: their
+     * most common values with their frequencies, and the bounds of the
+     * buckets of their histogram, each line starting with its kind and
+     * the index of its column.
+     */
+    private static Statistics readStatistics(String fileName, String tabname) throws IOException {
+        try (BufferedReader in = new BufferedReader(new FileReader(fileName))) {
+            String line = in.readLine();
+            if (line == null || new StringTokenizer(line).countTokens() != 1) {
+                throw new IOException("incorrect format of statistics file " + fileName);
+            }
+            long numTuples = Long.parseLong(line.trim());
+            line = in.readLine();
+            if (line == null) {
+                throw new IOException("incorrect format of statistics file " + fileName);
+            }
+            StringTokenizer tokenizer = new StringTokenizer(line);
+            long[] numDistinct = new long[tokenizer.countTokens()];
+            for (int i = 0; i < numDistinct.length; ++i) {
+                numDistinct[i] = Long.parseLong(tokenizer.nextToken());
+            }
+
+            Histogram[] histograms = new Histogram[numDistinct.length];
+            Schema schema = null;
+            while ((line = in.readLine()) != null) {
+                tokenizer = new StringTokenizer(line);
+                if (!tokenizer.hasMoreTokens()) {
+                    continue;
+                }
+                String kind = tokenizer.nextToken();
+                int column = Integer.parseInt(tokenizer.nextToken());
+                String nextLine = in.readLine();
+                if (!kind.equals(MOST_COMMON_VALUES) || column < 0 || column >= numDistinct.length || nextLine == null) {
+                    throw new IOException("incorrect format of statistics file " + fileName);
+                }
+                if (schema == null) {
+                    // the values are parsed by the types of their columns
+                    schema = lookUp(schemas, tabname + ".md", Catalog::readSchema);
+                }
+                int datatype = schema.typeOf(column);
+                List<Object> mostCommonValues = new ArrayList<>();
+                List<Double> mostCommonFrequencies = new ArrayList<>();
+                while (tokenizer.hasMoreTokens()) {
+                    mostCommonValues.add(parseValue(tokenizer.nextToken(), datatype));
+                    mostCommonFrequencies.add(Double.parseDouble(tokenizer.nextToken()));
+                }
+                tokenizer = new StringTokenizer(nextLine);
+                if (!tokenizer.nextToken().equals(HISTOGRAM) || Integer.parseInt(tokenizer.nextToken()) != column) {
+                    throw new IOException("incorrect format of statistics file " + fileName);
+                }
+                List<Object> bounds = new ArrayList<>();
+                while (tokenizer.hasMoreTokens()) {
+                    bounds.add(parseValue(tokenizer.nextToken(), datatype));
+                }
+                histograms[column] = new Histogram(mostCommonValues.toArray(),
+                        mostCommonFrequencies.stream().mapToDouble(Double::doubleValue).toArray(), bounds.toArray());
+            }
+            return new Statistics(numTuples, numDistinct, histograms);
+        } catch (NumberFormatException | NoSuchElementException e) {
+            throw new IOException("incorrect format of statistics file " + fileName, e);
+        }
+    }
+
+    private static Object parseValue(String value, int datatype) {
+        if (datatype == Attribute.INT) {
+            return Integer.valueOf(value);
+        } else if (datatype == Attribute.REAL) {
+            return Float.valueOf(value);
+        }
+        return value;
+    }
+
+    /**
+     * The statistics of a table.
+     */
+    public static class Statistics {
+        private final long numTuples;
+        private final long[] numDistinct;       // Number of distinct values of each column
+        private final Histogram[] histograms;  // The histogram of each column, or null if not analyzed
+
+        public Statistics(long numTuples, long[] numDistinct, Histogram[] histograms) {
+            this.numTuples = numTuples;
+            this.numDistinct = numDistinct;
+            this.histograms = histograms;
+        }
+
+        public long getNumTuples() {
+            return numTuples;
+        }
+
+        public int getNumCols() {
+            return numDistinct.length;
+        }
+
+        public long getNumDistinct(int column) {
+            return numDistinct[column];
+        }
+
+        /**
+         * Gets the histogram of a column.
+         *
+         * @return The histogram, or null if the column has not been analyzed
+         */
+        public Histogram getHistogram(int column) {
+            return histograms[column];
+        }
+    }
+
+    private static class CachedFile<T> {
+        final long lastModified;
+        final T content;
+
+        CachedFile(long lastModified, T content) {
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+    }
+
+    private interface FileReaderFunction<T> {
+        T read(String fileName) throws IOException;
+    }
+}
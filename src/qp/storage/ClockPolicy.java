@@ -0,0 +1,38 @@
+package qp.storage;
+
+/**
+ * The clock replacement policy, an approximation of LRU. A hand sweeps
+ * over the frames, and evicts the first unpinned frame which has not
+ * been accessed since the hand last passed it.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+    private final boolean[] isReferenced;
+    private int hand = 0;
+
+    public ClockPolicy(int numFrames) {
+        isReferenced = new boolean[numFrames];
+    }
+
+    @Override
+    public void recordAccess(int frame, boolean isNewPage) {
+        isReferenced[frame] = true;
+    }
+
+    @Override
+    public int selectVictim(int[] pinCounts) {
+        // the first sweep clears the reference bits, so two sweeps find a victim if there is one
+        for (int i = 0; i < 2 * pinCounts.length; ++i) {
+            int frame = hand;
+            hand = (hand + 1) % pinCounts.length;
+            if (pinCounts[frame] > 0) {
+                continue;
+            }
+            if (isReferenced[frame]) {
+                isReferenced[frame] = false;
+                continue;
+            }
+            return frame;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,56 @@
+package qp.storage;
+
+import java.util.Arrays;
+
+/**
+ * The LRU-K replacement policy. It evicts the unpinned frame whose K-th
+ * most recent access is the oldest, so a page read once by a sequential
+ * scan is evicted before a page accessed repeatedly, e.g., by the
+ * rescans of a nested loop. A page with fewer than K accesses counts as
+ * accessed infinitely long ago, and ties are broken by the most recent
+ * access, as in LRU.
+ * <p>
+ * The history of accesses is kept per frame, and starts anew whenever
+ * a page is brought into the frame.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+    private final int k;
+    private final long[][] history;  // Times of the last K accesses of each frame, most recent first, or 0
+    private long time = 0;
+
+    public LruKPolicy(int numFrames, int k) {
+        this.k = k;
+        history = new long[numFrames][k];
+    }
+
+    @Override
+    public void recordAccess(int frame, boolean isNewPage) {
+        long[] accesses = history[frame];
+        if (isNewPage) {
+            Arrays.fill(accesses, 0);
+        }
+        System.arraycopy(accesses, 0, accesses, 1, k - 1);
+        accesses[0] = ++time;
+    }
+
+    @Override
+    public int selectVictim(int[] pinCounts) {
+        int victim = -1;
+        for (int frame = 0; frame < pinCounts.length; ++frame) {
+            if (pinCounts[frame] > 0) {
+                continue;
+            }
+            if (victim < 0 || isOlder(history[frame], history[victim])) {
+                victim = frame;
+            }
+        }
+        return victim;
+    }
+
+    private boolean isOlder(long[] accesses, long[] other) {
+        if (accesses[k - 1] != other[k - 1]) {
+            return accesses[k - 1] < other[k - 1];
+        }
+        return accesses[0] < other[0];
+    }
+}
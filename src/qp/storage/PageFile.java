@@ -0,0 +1,165 @@
+package qp.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * A file of pages addressed by their numbers, each holding one serialized
+ * object. The file ends with a directory of the page offsets and a
+ * metadata object, so that any page is read with a single seek.
+ * <p>
+ * The layout is the length-prefixed pages, then the length-prefixed
+ * directory, and lastly the offset of the directory. A page file is
+ * read-only once written.
+ */
+public class PageFile implements PageStore {
+    private final String fileName;
+    private final RandomAccessFile file;
+    private final long[] pageOffsets;
+    private final Object metadata;
+
+    private PageFile(String fileName, RandomAccessFile file, long[] pageOffsets, Object metadata) {
+        this.fileName = fileName;
+        this.file = file;
+        this.pageOffsets = pageOffsets;
+        this.metadata = metadata;
+    }
+
+    /**
+     * Opens a page file and reads its directory.
+     *
+     * @param fileName The name of the file
+     * @return The opened file
+     */
+    public static PageFile open(String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            file.seek(file.length() - Long.BYTES);
+            file.seek(file.readLong());
+            Object[] directory = (Object[]) readObject(file);
+            return new PageFile(fileName, file, (long[]) directory[0], directory[1]);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    /**
+     * Reads only the metadata object of a page file.
+     *
+     * @param fileName The name of the file
+     * @return The metadata object
+     */
+    public static Object readMetadata(String fileName) throws IOException {
+        PageFile pageFile = open(fileName);
+        pageFile.close();
+        return pageFile.getMetadata();
+    }
+
+    @Override
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getNumPages() {
+        return pageOffsets.length;
+    }
+
+    public Object getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Reads the page with the specified number.
+     *
+     * @param pageNumber The number of the page, from 0
+     * @return The object held by the page
+     */
+    @Override
+    public Object readPage(int pageNumber) throws IOException {
+        file.seek(pageOffsets[pageNumber]);
+        return readObject(file);
+    }
+
+    @Override
+    public void writePage(int pageNumber, Object page) throws IOException {
+        throw new IOException(fileName + " is read-only");
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static Object readObject(RandomAccessFile file) throws IOException {
+        byte[] bytes = new byte[file.readInt()];
+        file.readFully(bytes);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Writes a page file one page at a time.
+     */
+    public static class Writer {
+        private final DataOutputStream out;
+        private long position = 0;  // Number of bytes written
+        private long[] pageOffsets = new long[16];
+        private int numPages = 0;
+
+        public Writer(String fileName) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+        }
+
+        /**
+         * Appends a page holding the specified object.
+         *
+         * @param page The object held by the page
+         * @return The number of the page
+         */
+        public int append(Object page) throws IOException {
+            if (numPages == pageOffsets.length) {
+                pageOffsets = Arrays.copyOf(pageOffsets, 2 * numPages);
+            }
+            pageOffsets[numPages] = position;
+            writeObject(page);
+            return numPages++;
+        }
+
+        public int getNumPages() {
+            return numPages;
+        }
+
+        /**
+         * Writes the directory with the specified metadata and closes the file.
+         *
+         * @param metadata The metadata object, which may be null
+         */
+        public void close(Object metadata) throws IOException {
+            long directoryOffset = position;
+            writeObject(new Object[]{Arrays.copyOf(pageOffsets, numPages), metadata});
+            out.writeLong(directoryOffset);
+            out.close();
+        }
+
+        private void writeObject(Object object) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+                objectOut.writeObject(object);
+            }
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            position += Integer.BYTES + bytes.size();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package qp.storage;
+
+import java.io.IOException;
+
+/**
+ * A file of pages addressed by their numbers, whose pages are cached in
+ * the {@code BufferPool} by the name of the file.
+ */
+public interface PageStore {
+    String getFileName();
+
+    /**
+     * Reads the page with the specified number.
+     *
+     * @param pageNumber The number of the page, from 0
+     * @return The object held by the page
+     */
+    Object readPage(int pageNumber) throws IOException;
+
+    /**
+     * Writes the page with the specified number, replacing any earlier
+     * version of it.
+     *
+     * @param pageNumber The number of the page, from 0
+     * @param page The object held by the page
+     */
+    void writePage(int pageNumber, Object page) throws IOException;
+}
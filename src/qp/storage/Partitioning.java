@@ -0,0 +1,122 @@
+package qp.storage;
+
+import qp.utils.Attribute;
+import qp.utils.BloomFilter;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+
+import java.io.Serializable;
+
+/**
+ * The partitioning of a table into multiple table files by the range or
+ * the hash of the values of a column, recorded with the schema of the
+ * table. Partition {@code i} of table {@code T} is the file
+ * {@code T.p<i>.tbl}, in the format of an unpartitioned table file.
+ * <p>
+ * A range partitioning with bounds {@code b[0] < ... < b[n-2]} puts the
+ * values below {@code b[0]} in partition 0, the values in
+ * {@code [b[i-1], b[i])} in partition {@code i}, and the values from
+ * {@code b[n-2]} on in partition {@code n-1}.
+ */
+public class Partitioning implements Serializable {
+    public static final int RANGE = 0;
+    public static final int HASH = 1;
+
+    private final int type;
+    private final Attribute attribute;  // The partitioning column
+    private final int numPartitions;
+    private final Object[] bounds;      // Lower bounds of the range partitions after the first
+
+    private Partitioning(int type, Attribute attribute, int numPartitions, Object[] bounds) {
+        this.type = type;
+        this.attribute = attribute;
+        this.numPartitions = numPartitions;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Creates a range partitioning.
+     *
+     * @param bounds The lower bounds of the partitions after the first, in increasing order
+     */
+    public static Partitioning byRange(Attribute attribute, Object[] bounds) {
+        return new Partitioning(RANGE, attribute, bounds.length + 1, bounds);
+    }
+
+    public static Partitioning byHash(Attribute attribute, int numPartitions) {
+        return new Partitioning(HASH, attribute, numPartitions, new Object[0]);
+    }
+
+    public static String getFileName(String tabname, int partition) {
+        return tabname + ".p" + partition + ".tbl";
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public Attribute getAttribute() {
+        return attribute;
+    }
+
+    public int getNumPartitions() {
+        return numPartitions;
+    }
+
+    /**
+     * Gets the partition holding a value of the partitioning column.
+     */
+    public int getPartition(Object value) {
+        if (type == HASH) {
+            return (int) Math.floorMod(BloomFilter.hash(value), (long) numPartitions);
+        }
+        // the number of bounds not above the value, found by binary search
+        int low = 0;
+        int high = bounds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Tuple.compareValues(bounds[mid], value) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Checks whether a value of the partitioning column in a partition
+     * might satisfy a comparison. A hash partition can only rule out
+     * equalities with values hashed to other partitions.
+     *
+     * @param partition The number of the partition
+     * @param exprtype The comparison type of {@code Condition}
+     * @param value The value compared against
+     * @return False if no tuple of the partition satisfies the comparison
+     */
+    public boolean mightSatisfy(int partition, int exprtype, Object value) {
+        if (type == HASH) {
+            return exprtype != Condition.EQUAL || getPartition(value) == partition;
+        }
+        Object low = partition > 0 ? bounds[partition - 1] : null;        // inclusive
+        Object high = partition < bounds.length ? bounds[partition] : null; // exclusive
+        switch (exprtype) {
+            case Condition.EQUAL:
+                return getPartition(value) == partition;
+            case Condition.LESSTHAN:
+                return low == null || Tuple.compareValues(low, value) < 0;
+            case Condition.LTOE:
+                return low == null || Tuple.compareValues(low, value) <= 0;
+            case Condition.GREATERTHAN:
+            case Condition.GTOE:
+                return high == null || Tuple.compareValues(high, value) > 0;
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (type == RANGE ? "range" : "hash") + " partitioned by " + attribute + " into " + numPartitions;
+    }
+}
@@ -0,0 +1,34 @@
+package qp.storage;
+
+/**
+ * The address of a tuple in a table file: the number of its page and
+ * its slot within the page.
+ */
+public class RecordId implements Comparable<RecordId> {
+    private final int pageNumber;
+    private final int slot;
+
+    public RecordId(int pageNumber, int slot) {
+        this.pageNumber = pageNumber;
+        this.slot = slot;
+    }
+
+    public int getPageNumber() {
+        return pageNumber;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Orders the records by their position in the file.
+     */
+    @Override
+    public int compareTo(RecordId other) {
+        if (pageNumber != other.pageNumber) {
+            return Integer.compare(pageNumber, other.pageNumber);
+        }
+        return Integer.compare(slot, other.slot);
+    }
+}
@@ -0,0 +1,46 @@
+package qp.storage;
+
+/**
+ * The policy by which the {@code BufferPool} chooses the frame to evict
+ * when a page is brought in and no frame is free.
+ */
+public interface ReplacementPolicy {
+    /**
+     * Records an access to the page held in a frame.
+     *
+     * @param frame The number of the frame
+     * @param isNewPage Whether the page has just been brought into the frame
+     */
+    void recordAccess(int frame, boolean isNewPage);
+
+    /**
+     * Chooses a frame to evict among the frames which are not pinned.
+     *
+     * @param pinCounts The number of pins of each frame
+     * @return The number of the frame, or -1 if all the frames are pinned
+     */
+    int selectVictim(int[] pinCounts);
+
+    /**
+     * Creates a policy by its name, which is {@code clock}, or
+     * {@code lru-<k>} for LRU-K (e.g., {@code lru-2}).
+     *
+     * @param name The name of the policy
+     * @param numFrames The number of frames of the pool
+     * @return The policy, or null if the name is unknown
+     */
+    static ReplacementPolicy create(String name, int numFrames) {
+        if (name.equals("clock")) {
+            return new ClockPolicy(numFrames);
+        }
+        if (name.startsWith("lru-")) {
+            try {
+                int k = Integer.parseInt(name.substring("lru-".length()));
+                return k > 0 ? new LruKPolicy(numFrames, k) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
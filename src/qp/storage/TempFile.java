@@ -0,0 +1,92 @@
+package qp.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * A temporary file of pages addressed by their numbers, which can be
+ * written in any order and written again. Every write appends the page
+ * to the file, and the offset of its latest version is kept in memory,
+ * so the file lives only as long as this object.
+ * <p>
+ * The pages are meant to be written through the {@code BufferPool},
+ * which keeps them as dirty pages and writes them to the file only when
+ * they are evicted.
+ */
+public class TempFile implements PageStore {
+    private final String fileName;
+    private final RandomAccessFile file;
+    private long[] pageOffsets = new long[16];  // Offset of each page, or -1 if it is not in the file
+    private int numPages = 0;
+
+    public TempFile(String fileName) throws IOException {
+        this.fileName = fileName;
+        file = new RandomAccessFile(fileName, "rw");
+        file.setLength(0);
+    }
+
+    @Override
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Allocates a page at the end of the file, to be written.
+     *
+     * @return The number of the page
+     */
+    public int allocatePage() {
+        if (numPages == pageOffsets.length) {
+            pageOffsets = Arrays.copyOf(pageOffsets, 2 * numPages);
+        }
+        pageOffsets[numPages] = -1;
+        return numPages++;
+    }
+
+    @Override
+    public Object readPage(int pageNumber) throws IOException {
+        if (pageOffsets[pageNumber] < 0) {
+            throw new IOException("Page " + pageNumber + " of " + fileName + " is not written");
+        }
+        file.seek(pageOffsets[pageNumber]);
+        byte[] bytes = new byte[file.readInt()];
+        file.readFully(bytes);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void writePage(int pageNumber, Object page) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(page);
+        }
+        long offset = file.length();
+        file.seek(offset);
+        file.writeInt(bytes.size());
+        file.write(bytes.toByteArray());
+        pageOffsets[pageNumber] = offset;
+    }
+
+    /**
+     * Closes and deletes the file, dropping its pages from the buffer pool.
+     */
+    public void delete() throws IOException {
+        BufferPool.getInstance().discard(fileName);
+        file.close();
+        new File(fileName).delete();
+    }
+}
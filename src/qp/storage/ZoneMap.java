@@ -0,0 +1,89 @@
+package qp.storage;
+
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+
+import java.io.Serializable;
+
+/**
+ * The smallest and largest values and the number of nulls of each column
+ * of a page of a table. The zone maps of all the pages are kept in the
+ * table file, so that a scan can skip the pages which cannot hold any
+ * tuple satisfying a condition without reading them.
+ */
+public class ZoneMap implements Serializable {
+    private final Object[] mins;      // Smallest value of each column, or null if it has none
+    private final Object[] maxs;      // Largest value of each column, or null if it has none
+    private final int[] nullCounts;   // Number of nulls of each column
+
+    private ZoneMap(Object[] mins, Object[] maxs, int[] nullCounts) {
+        this.mins = mins;
+        this.maxs = maxs;
+        this.nullCounts = nullCounts;
+    }
+
+    /**
+     * Computes the zone map of a page.
+     *
+     * @param page The page of tuples
+     * @param numCols The number of columns of the tuples
+     * @return The zone map of the page
+     */
+    public static ZoneMap of(Batch page, int numCols) {
+        Object[] mins = new Object[numCols];
+        Object[] maxs = new Object[numCols];
+        int[] nullCounts = new int[numCols];
+        for (Tuple tuple : page.getRecords()) {
+            for (int i = 0; i < numCols; ++i) {
+                Object value = tuple.getData(i);
+                if (value == null) {
+                    nullCounts[i]++;
+                    continue;
+                }
+                if (mins[i] == null || Tuple.compareValues(value, mins[i]) < 0) {
+                    mins[i] = value;
+                }
+                if (maxs[i] == null || Tuple.compareValues(value, maxs[i]) > 0) {
+                    maxs[i] = value;
+                }
+            }
+        }
+        return new ZoneMap(mins, maxs, nullCounts);
+    }
+
+    public Object getMin(int column) {
+        return mins[column];
+    }
+
+    public Object getMax(int column) {
+        return maxs[column];
+    }
+
+    public int getNullCount(int column) {
+        return nullCounts[column];
+    }
+
+    /**
+     * Checks whether a value of a column of the page might satisfy a
+     * comparison, i.e., some value between the smallest and the largest
+     * values of the column satisfies it. Nulls never satisfy a comparison.
+     *
+     * @param column The index of the column
+     * @param exprtype The comparison type of {@code Condition}
+     * @param value The value compared against
+     * @return False if no tuple of the page satisfies the comparison
+     */
+    public boolean mightSatisfy(int column, int exprtype, Object value) {
+        if (mins[column] == null) {
+            return false;
+        }
+        int compareMin = Tuple.compareValues(mins[column], value);
+        int compareMax = Tuple.compareValues(maxs[column], value);
+        if (Condition.isSatisfied(exprtype, compareMin) || Condition.isSatisfied(exprtype, compareMax)) {
+            return true;
+        }
+        // a value strictly between the bounds may be equal
+        return exprtype == Condition.EQUAL && compareMin < 0 && compareMax > 0;
+    }
+}
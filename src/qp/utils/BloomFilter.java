@@ -0,0 +1,72 @@
+/**
+ * A Bloom filter over a set of values
+ **/
+
+package qp.utils;
+
+/**
+ * A set of values which answers membership with no false negatives and
+ * a small rate of false positives, in a fixed number of bits per value.
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final int numBits;
+    private final int numHashes;
+
+    /**
+     * Constructs an empty filter sized for the expected number of values.
+     *
+     * @param expectedValues The number of values to be added
+     * @param bitsPerValue The number of bits per value, which sets the false positive rate
+     */
+    public BloomFilter(int expectedValues, int bitsPerValue) {
+        numBits = Math.max(64, expectedValues * bitsPerValue);
+        bits = new long[(numBits + 63) / 64];
+        // the false positive rate is lowest with ln 2 hashes per bit of each value
+        numHashes = Math.max(1, (int) Math.round(bitsPerValue * Math.log(2)));
+    }
+
+    /**
+     * Hashes a value to 64 bits, from which all the bit positions
+     * of the value are derived.
+     */
+    public static long hash(Object value) {
+        long h = value.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public void add(Object value) {
+        addHash(hash(value));
+    }
+
+    /**
+     * Adds a value given by its hash from {@code hash(Object)}.
+     */
+    public void addHash(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; ++i) {
+            int position = Math.floorMod(h1 + i * h2, numBits);
+            bits[position >>> 6] |= 1L << position;
+        }
+    }
+
+    public boolean mightContain(Object value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; ++i) {
+            int position = Math.floorMod(h1 + i * h2, numBits);
+            if ((bits[position >>> 6] & (1L << position)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -37,17 +37,70 @@ public class Condition {
             System.exit(1);
         }
         Attribute r = (Attribute) rhs;
-        int op = getExprType();
-        if (op == LESSTHAN) op = GREATERTHAN;
-        else if (op == GREATERTHAN) op = LESSTHAN;
-        else if (op == LTOE) op = GTOE;
-        else if (op == GTOE) op = LTOE;
-
-        Condition flippedCondition = new Condition(r, op, lhs);
+        Condition flippedCondition = new Condition(r, getFlippedExprType(exprtype), lhs);
         flippedCondition.setOpType(getOpType());
         return flippedCondition;
     }
 
+    /**
+     * Gets the comparison type which holds after the operands are swapped.
+     **/
+    public static int getFlippedExprType(int op) {
+        if (op == LESSTHAN) return GREATERTHAN;
+        else if (op == GREATERTHAN) return LESSTHAN;
+        else if (op == LTOE) return GTOE;
+        else if (op == GTOE) return LTOE;
+        else return op;
+    }
+
+    /**
+     * Checks whether the comparison type holds for the result of
+     * comparing the left hand side with the right hand side.
+     **/
+    public static boolean isSatisfied(int exprtype, int compareResult) {
+        switch (exprtype) {
+            case LESSTHAN:
+                return compareResult < 0;
+            case GREATERTHAN:
+                return compareResult > 0;
+            case LTOE:
+                return compareResult <= 0;
+            case GTOE:
+                return compareResult >= 0;
+            case EQUAL:
+                return compareResult == 0;
+            case NOTEQUAL:
+                return compareResult != 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Gets the constant of a selection condition as a value of the
+     * specified attribute type.
+     **/
+    public Object getRhsValue(int datatype) {
+        String value = (String) rhs;
+        if (datatype == Attribute.INT) {
+            return Integer.valueOf(value);
+        } else if (datatype == Attribute.REAL) {
+            return Float.valueOf(value);
+        } else {
+            return value;
+        }
+    }
+
+    /** Whether this condition compares by equality **/
+    public boolean isEquality() {
+        return exprtype == EQUAL;
+    }
+
+    /** Whether this condition compares by ordering, i.e., one of <, >, <= and >= **/
+    public boolean isInequality() {
+        return exprtype == LESSTHAN || exprtype == GREATERTHAN || exprtype == LTOE || exprtype == GTOE;
+    }
+
     public Attribute getLhs() {
         return lhs;
     }
@@ -85,6 +138,7 @@ public class Condition {
             Object temp = lhs;
             lhs = (Attribute) rhs;
             rhs = temp;
+            exprtype = getFlippedExprType(exprtype);
         }
     }
 
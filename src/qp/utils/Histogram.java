@@ -0,0 +1,282 @@
+/**
+ * An equi-depth histogram of the values of a column
+ **/
+
+package qp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The distribution of the values of a column: its most common values
+ * with their frequencies, and an equi-depth histogram of the rest, whose
+ * buckets each hold the same number of values between two bounds. It
+ * estimates the fraction of the tuples satisfying a comparison, where
+ * the values within a bucket are assumed spread uniformly.
+ */
+public class Histogram {
+
+    private final Object[] mostCommonValues;
+    private final double[] mostCommonFrequencies;  // Fraction of the tuples holding each most common value
+    private final Object[] bounds;                 // The bounds of the buckets, in ascending order
+    private final double otherFrequency;           // Fraction of the tuples holding any other value
+
+    public Histogram(Object[] mostCommonValues, double[] mostCommonFrequencies, Object[] bounds) {
+        this.mostCommonValues = mostCommonValues;
+        this.mostCommonFrequencies = mostCommonFrequencies;
+        this.bounds = bounds;
+        double frequency = 1;
+        for (double mostCommonFrequency : mostCommonFrequencies) {
+            frequency -= mostCommonFrequency;
+        }
+        otherFrequency = Math.max(0, frequency);
+    }
+
+    /**
+     * Builds the histogram of a sample of the values of a column.
+     *
+     * @param sample The sampled values, which are sorted in place
+     * @param numBuckets The most buckets of the histogram
+     * @param numMostCommon The most values kept apart as most common
+     */
+    public static Histogram build(List<Object> sample, int numBuckets, int numMostCommon) {
+        if (sample.isEmpty()) {
+            return new Histogram(new Object[0], new double[0], new Object[0]);
+        }
+        sample.sort(Tuple::compareValues);
+        Map<Object, Integer> counts = new HashMap<>();
+        for (Object value : sample) {
+            counts.merge(value, 1, Integer::sum);
+        }
+
+        // a value is most common if it occurs more than once, and more often than the average
+        // value unless all the values can be kept
+        double averageCount = counts.size() <= numMostCommon ? 0 : sample.size() / (double) counts.size();
+        List<Object> candidates = new ArrayList<>();
+        for (Map.Entry<Object, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1 && entry.getValue() > averageCount) {
+                candidates.add(entry.getKey());
+            }
+        }
+        candidates.sort((first, second) -> Integer.compare(counts.get(second), counts.get(first)));
+        int numKept = Math.min(numMostCommon, candidates.size());
+        Object[] mostCommonValues = candidates.subList(0, numKept).toArray();
+        double[] mostCommonFrequencies = new double[numKept];
+        for (int i = 0; i < numKept; ++i) {
+            mostCommonFrequencies[i] = counts.get(mostCommonValues[i]) / (double) sample.size();
+        }
+
+        List<Object> others = new ArrayList<>();
+        Set<Object> kept = new HashSet<>(Arrays.asList(mostCommonValues));
+        for (Object value : sample) {
+            if (!kept.contains(value)) {
+                others.add(value);
+            }
+        }
+        Object[] bounds;
+        if (others.isEmpty()) {
+            bounds = new Object[0];
+        } else {
+            int buckets = Math.min(numBuckets, others.size());
+            bounds = new Object[buckets + 1];
+            for (int i = 0; i <= buckets; ++i) {
+                bounds[i] = others.get((int) ((long) i * (others.size() - 1) / buckets));
+            }
+        }
+        return new Histogram(mostCommonValues, mostCommonFrequencies, bounds);
+    }
+
+    public Object[] getMostCommonValues() {
+        return mostCommonValues;
+    }
+
+    public double[] getMostCommonFrequencies() {
+        return mostCommonFrequencies;
+    }
+
+    public Object[] getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Estimates the fraction of the tuples whose value satisfies a
+     * comparison with a given value.
+     *
+     * @param exprtype The comparison type of {@code Condition}
+     * @param value The value compared against
+     * @param numDistinct The number of distinct values of the column
+     */
+    public double getSelectivity(int exprtype, Object value, long numDistinct) {
+        double selectivity;
+        switch (exprtype) {
+            case Condition.EQUAL:
+                selectivity = getEqualSelectivity(value, numDistinct);
+                break;
+            case Condition.NOTEQUAL:
+                selectivity = 1 - getEqualSelectivity(value, numDistinct);
+                break;
+            case Condition.LESSTHAN:
+                selectivity = getLessSelectivity(value);
+                break;
+            case Condition.LTOE:
+                selectivity = getLessSelectivity(value) + getEqualSelectivity(value, numDistinct);
+                break;
+            case Condition.GREATERTHAN:
+                selectivity = 1 - getLessSelectivity(value) - getEqualSelectivity(value, numDistinct);
+                break;
+            case Condition.GTOE:
+                selectivity = 1 - getLessSelectivity(value);
+                break;
+            default:
+                selectivity = 1;
+        }
+        return Math.min(1, Math.max(0, selectivity));
+    }
+
+    /**
+     * Estimates the fraction of the pairs of tuples of two columns whose
+     * values satisfy a comparison, this column on its left hand side.
+     * <p>
+     * An equality matches the most common values of both columns exactly,
+     * and assumes the rest of the values of the column with fewer
+     * distinct values all occur in the other. Any other comparison
+     * compares each most common value and each bucket of this column,
+     * taken at its middle, with the distribution of the other column.
+     */
+    public double getJoinSelectivity(int exprtype, Histogram other, long numDistinct, long otherNumDistinct) {
+        if (exprtype == Condition.EQUAL) {
+            return getEqualJoinSelectivity(other, numDistinct, otherNumDistinct);
+        } else if (exprtype == Condition.NOTEQUAL) {
+            return 1 - getEqualJoinSelectivity(other, numDistinct, otherNumDistinct);
+        }
+        int flippedExprType = Condition.getFlippedExprType(exprtype);
+        double selectivity = 0;
+        for (int i = 0; i < mostCommonValues.length; ++i) {
+            selectivity += mostCommonFrequencies[i]
+                    * other.getSelectivity(flippedExprType, mostCommonValues[i], otherNumDistinct);
+        }
+        int numBuckets = bounds.length - 1;
+        for (int i = 0; i < numBuckets; ++i) {
+            selectivity += otherFrequency / numBuckets
+                    * other.getSelectivity(flippedExprType, getMiddle(bounds[i], bounds[i + 1]), otherNumDistinct);
+        }
+        if (numBuckets == 0 && bounds.length == 1) {
+            selectivity += otherFrequency * other.getSelectivity(flippedExprType, bounds[0], otherNumDistinct);
+        }
+        return Math.min(1, Math.max(0, selectivity));
+    }
+
+    private double getEqualJoinSelectivity(Histogram other, long numDistinct, long otherNumDistinct) {
+        double matchedProduct = 0;
+        double matched = 0;
+        double otherMatched = 0;
+        int numMatches = 0;
+        for (int i = 0; i < mostCommonValues.length; ++i) {
+            int j = Arrays.asList(other.mostCommonValues).indexOf(mostCommonValues[i]);
+            if (j >= 0) {
+                matchedProduct += mostCommonFrequencies[i] * other.mostCommonFrequencies[j];
+                matched += mostCommonFrequencies[i];
+                otherMatched += other.mostCommonFrequencies[j];
+                numMatches++;
+            }
+        }
+        double unmatched = 1 - otherFrequency - matched;
+        double otherUnmatched = 1 - other.otherFrequency - otherMatched;
+
+        // the unmatched most common values of one column meet the other values of the other
+        double selectivity = matchedProduct;
+        double otherValues = otherNumDistinct - other.mostCommonValues.length;
+        if (otherValues > 0) {
+            selectivity += unmatched * other.otherFrequency / otherValues;
+        }
+        double values = Math.max(numDistinct, otherNumDistinct) - numMatches;
+        if (values > 0) {
+            selectivity += otherFrequency * (other.otherFrequency + otherUnmatched) / values;
+        }
+        return Math.min(1, Math.max(0, selectivity));
+    }
+
+    private double getEqualSelectivity(Object value, long numDistinct) {
+        for (int i = 0; i < mostCommonValues.length; ++i) {
+            if (compare(mostCommonValues[i], value) == 0) {
+                return mostCommonFrequencies[i];
+            }
+        }
+        if (bounds.length == 0 || compare(value, bounds[0]) < 0 || compare(value, bounds[bounds.length - 1]) > 0) {
+            // the value is outside the range of the column
+            return 0;
+        }
+        return otherFrequency / Math.max(1, numDistinct - mostCommonValues.length);
+    }
+
+    /**
+     * Estimates the fraction of the tuples whose value is less than a given value.
+     */
+    private double getLessSelectivity(Object value) {
+        double selectivity = 0;
+        for (int i = 0; i < mostCommonValues.length; ++i) {
+            if (compare(mostCommonValues[i], value) < 0) {
+                selectivity += mostCommonFrequencies[i];
+            }
+        }
+        return selectivity + otherFrequency * getFractionBelow(value);
+    }
+
+    /**
+     * Estimates the fraction of the values in the buckets less than a
+     * given value, interpolated within the bucket of the value.
+     */
+    private double getFractionBelow(Object value) {
+        if (bounds.length == 0 || compare(value, bounds[0]) <= 0) {
+            return 0;
+        } else if (compare(value, bounds[bounds.length - 1]) > 0) {
+            return 1;
+        }
+        // the last bucket whose lower bound is less than the value
+        int low = 0;
+        int high = bounds.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) / 2;
+            if (compare(bounds[mid], value) < 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        double withinBucket = 0.5;
+        if (value instanceof Number && bounds[low] instanceof Number) {
+            double lower = ((Number) bounds[low]).doubleValue();
+            double upper = ((Number) bounds[low + 1]).doubleValue();
+            if (upper > lower) {
+                withinBucket = Math.min(1, (((Number) value).doubleValue() - lower) / (upper - lower));
+            }
+        }
+        return (low + withinBucket) / (bounds.length - 1);
+    }
+
+    /**
+     * Gets the value in the middle of a bucket, or its upper bound if
+     * the values are not numbers.
+     */
+    private static Object getMiddle(Object lower, Object upper) {
+        if (lower instanceof Number && upper instanceof Number) {
+            return (((Number) lower).doubleValue() + ((Number) upper).doubleValue()) / 2;
+        }
+        return upper;
+    }
+
+    /**
+     * Compares two values, which may be numbers of different types.
+     */
+    private static int compare(Object first, Object second) {
+        if (first instanceof Number && second instanceof Number) {
+            return Double.compare(((Number) first).doubleValue(), ((Number) second).doubleValue());
+        }
+        return Tuple.compareValues(first, second);
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * A HyperLogLog sketch of the distinct values of a column
+ **/
+
+package qp.utils;
+
+import java.io.Serializable;
+
+/**
+ * A sketch which estimates the number of distinct values added to it in
+ * a fixed number of registers, with a standard error of about
+ * {@code 1.04 / sqrt(2^PRECISION)}, or 0.8%, of the true number, and no
+ * bias from a single value up to billions of values. Each value is hashed to a register, which keeps the
+ * longest run of leading zeros of the rest of the hashes it is given.
+ * Sketches are merged by keeping the larger of each register, so the
+ * sketches of the parts of a table give the sketch of the whole table.
+ */
+public class HyperLogLog implements Serializable {
+
+    /**
+     * Number of bits of a hash which pick its register, which gives
+     * 16384 registers of a byte each
+     */
+    public static final int PRECISION = 14;
+
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        registers = new byte[1 << PRECISION];
+    }
+
+    public void add(Object value) {
+        long hash = BloomFilter.hash(value);
+        int register = (int) (hash >>> (64 - PRECISION));
+        // the guard bit bounds the run of zeros of a hash whose other bits are all zero
+        long rest = (hash << PRECISION) | (1L << (PRECISION - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[register]) {
+            registers[register] = rank;
+        }
+    }
+
+    /**
+     * Adds the values added to another sketch to this sketch.
+     */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < registers.length; ++i) {
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+    }
+
+    /**
+     * Estimates the number of distinct values added to the sketch, by the
+     * improved estimator of Ertl, "New cardinality estimation algorithms
+     * for HyperLogLog sketches" (2017). It corrects the bias of the raw
+     * estimate from the empty registers, and from the registers at the
+     * largest rank, so it needs neither a switch to counting the empty
+     * registers for few values nor a table of empirical bias corrections
+     * around that switch.
+     */
+    public long estimate() {
+        int numRegisters = registers.length;
+        int maxRank = 64 - PRECISION;
+        int[] counts = new int[maxRank + 2];  // Number of registers of each rank
+        for (byte rank : registers) {
+            counts[rank]++;
+        }
+        double sum = numRegisters * tau(1 - counts[maxRank + 1] / (double) numRegisters);
+        for (int rank = maxRank; rank >= 1; --rank) {
+            sum = 0.5 * (sum + counts[rank]);
+        }
+        sum += numRegisters * sigma(counts[0] / (double) numRegisters);
+        double alpha = 0.5 / Math.log(2);
+        return Math.round(alpha * numRegisters * numRegisters / sum);
+    }
+
+    /**
+     * The sum of {@code x^(2^k) * 2^(k-1)} for k from 0, which accounts for
+     * the fraction {@code x} of empty registers.
+     */
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double y = 1;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    /**
+     * The series accounting for the fraction {@code 1 - x} of registers at
+     * the largest rank, which are only reached by many billions of values.
+     */
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double y = 1;
+        double z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+        return z / 3;
+    }
+}
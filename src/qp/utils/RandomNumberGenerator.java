@@ -1,25 +1,29 @@
 /**
  * functions to get some random numbers
  * useful in random optimizer
+ * each thread draws from a generator of its own, so the
+ * random restarts running in parallel never contend for one
  **/
 
 package qp.utils;
 
-import java.lang.Math;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class RandomNumberGenerator {
 
     /** Get a random number between a and b **/
     public static int randInt(int a, int b) {
-        return ((int) (Math.floor(Math.random() * (b - a + 1)) + a));
+        return ThreadLocalRandom.current().nextInt(a, b + 1);
+    }
+
+    /** Get a random number in [0, 1) **/
+    public static double randDouble() {
+        return ThreadLocalRandom.current().nextDouble();
     }
 
     /** Coin flip **/
     public static boolean flipCoin() {
-        if (Math.random() < 0.5)
-            return true;
-        else
-            return false;
+        return ThreadLocalRandom.current().nextBoolean();
     }
 
 }
@@ -0,0 +1,91 @@
+/**
+ * A filter on an attribute built at run time from the keys of a join
+ **/
+
+package qp.utils;
+
+/**
+ * A filter on the values of an attribute, built from the join keys of
+ * one input of an equi-join and applied to the other input. A value
+ * passes if it lies within the range of the keys and the Bloom filter
+ * of the keys might contain it, so a tuple which can join is never
+ * dropped.
+ */
+public class RuntimeFilter {
+    public static final int BITS_PER_KEY = 10;
+
+    private final Attribute attribute;
+    private final BloomFilter bloomFilter;
+    private final Object min;   // Smallest key, or null if there are no keys
+    private final Object max;   // Largest key, or null if there are no keys
+
+    private RuntimeFilter(Attribute attribute, BloomFilter bloomFilter, Object min, Object max) {
+        this.attribute = attribute;
+        this.bloomFilter = bloomFilter;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * The attribute whose values are filtered.
+     */
+    public Attribute getAttribute() {
+        return attribute;
+    }
+
+    public boolean mightContain(Object value) {
+        if (min == null) {
+            return false;
+        }
+        return Tuple.compareValues(value, min) >= 0
+                && Tuple.compareValues(value, max) <= 0
+                && bloomFilter.mightContain(value);
+    }
+
+    /**
+     * Checks whether a value within the specified bounds might pass.
+     *
+     * @param low The smallest value, or null if there are no values
+     * @param high The largest value, or null if there are no values
+     * @return False if no value within the bounds passes
+     */
+    public boolean mightOverlap(Object low, Object high) {
+        if (min == null || low == null) {
+            return false;
+        }
+        return Tuple.compareValues(high, min) >= 0 && Tuple.compareValues(low, max) <= 0;
+    }
+
+    /**
+     * Adds the keys of a filter to its Bloom filter as they arrive, which
+     * is sized beforehand for the number of distinct keys expected. More
+     * keys than expected raise the rate of false positives, but a key
+     * added always passes.
+     */
+    public static class Builder {
+        private final BloomFilter bloomFilter;
+        private Object min = null;
+        private Object max = null;
+
+        public Builder(int expectedKeys) {
+            bloomFilter = new BloomFilter(expectedKeys, BITS_PER_KEY);
+        }
+
+        public void add(Object key) {
+            if (min == null || Tuple.compareValues(key, min) < 0) {
+                min = key;
+            }
+            if (max == null || Tuple.compareValues(key, max) > 0) {
+                max = key;
+            }
+            bloomFilter.add(key);
+        }
+
+        /**
+         * Builds the filter of the added keys for the specified attribute.
+         */
+        public RuntimeFilter build(Attribute attribute) {
+            return new RuntimeFilter(attribute, bloomFilter, min, max);
+        }
+    }
+}
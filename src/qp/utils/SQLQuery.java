@@ -5,6 +5,8 @@
 package qp.utils;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class SQLQuery {
 
@@ -47,6 +49,14 @@ public class SQLQuery {
         selectionList = new ArrayList<>();
     }
 
+    /**
+     * Replaces the conditions of the where clause, e.g., by rewritten ones
+     **/
+    public void setConditionList(ArrayList<Condition> list) {
+        conditionList = list;
+        splitConditionList(conditionList);
+    }
+
     /**
      * Split the condition list into selection and join list
      **/
@@ -126,9 +136,33 @@ public class SQLQuery {
 
     public ArrayList<Attribute> getOrderByList() { return orderbyList; }
 
+    /**
+     * Groups the join predicates by the pair of tables they relate, as
+     * all the predicates between two tables are evaluated by one join.
+     * The groups follow the order of their first predicates.
+     **/
+    public ArrayList<ArrayList<Condition>> getJoinGroups() {
+        Map<String, ArrayList<Condition>> groups = new LinkedHashMap<>();
+        if (joinList == null)
+            return new ArrayList<>();
+        for (Condition cn : joinList) {
+            String lhsTable = cn.getLhs().getTabName();
+            String rhsTable = ((Attribute) cn.getRhs()).getTabName();
+            String key = lhsTable.compareTo(rhsTable) < 0
+                    ? lhsTable + "," + rhsTable
+                    : rhsTable + "," + lhsTable;
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(cn);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * Gets the number of joins, i.e., the number of pairs of tables
+     * related by join predicates.
+     **/
     public int getNumJoin() {
         if (joinList == null)
             return 0;
-        return joinList.size();
+        return getJoinGroups().size();
     }
 }
@@ -4,6 +4,8 @@
 
 package qp.utils;
 
+import qp.storage.Partitioning;
+
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -11,6 +13,8 @@ import java.util.List;
 public class Schema implements Serializable {
     private final List<Attribute> attributes;  // The attributes belong to this schema
     private int tupleSize;                // Number of bytes required for this tuple (size of record)
+    private List<Attribute> clusteringKey = new ArrayList<>();  // Attributes the table is stored in ascending order of
+    private Partitioning partitioning;    // Partitioning of the table into files, or null if it is one file
 
     public Schema(List<Attribute> colset) {
         attributes = new ArrayList<>();
@@ -31,6 +35,35 @@ public class Schema implements Serializable {
         return attributes.size();
     }
 
+    /**
+     * Gets the attributes on which the tuples of a table are stored in
+     * ascending order, most significant first, as declared and verified
+     * when the table is loaded.
+     *
+     * @return The clustering key, or an empty list if the table is not clustered
+     */
+    public List<Attribute> getClusteringKey() {
+        return clusteringKey;
+    }
+
+    public void setClusteringKey(List<Attribute> clusteringKey) {
+        this.clusteringKey = clusteringKey;
+    }
+
+    /**
+     * Gets the partitioning of a table into multiple files, as declared
+     * when the table is loaded.
+     *
+     * @return The partitioning, or null if the table is a single file
+     */
+    public Partitioning getPartitioning() {
+        return partitioning;
+    }
+
+    public void setPartitioning(Partitioning partitioning) {
+        this.partitioning = partitioning;
+    }
+
     public void add(Attribute attr) {
         attributes.add(attr);
     }
@@ -134,6 +167,12 @@ public class Schema implements Serializable {
         }
         Schema newSchema = new Schema(newVector);
         newSchema.setTupleSize(tupleSize);
+        List<Attribute> newClusteringKey = new ArrayList<>();
+        for (Attribute attribute : clusteringKey) {
+            newClusteringKey.add((Attribute) attribute.clone());
+        }
+        newSchema.setClusteringKey(newClusteringKey);
+        newSchema.setPartitioning(partitioning);
         return newSchema;
     }
 
@@ -57,6 +57,23 @@ public class Tuple implements Serializable {
         return true;
     }
 
+    /**
+     * Checks whether the join conditions, with the given comparison types,
+     * * are satisfied or not before performing actual join operation
+     **/
+    public boolean checkJoin(Tuple right, List<Integer> leftindex, List<Integer> rightindex, List<Integer> exprtypes) {
+        if (leftindex.size() != rightindex.size() || leftindex.size() != exprtypes.size()) {
+            return false;
+        }
+        for (int i = 0; i < leftindex.size(); ++i) {
+            int compareResult = compareTuples(this, right, leftindex.get(i), rightindex.get(i));
+            if (!Condition.isSatisfied(exprtypes.get(i), compareResult)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Joining two tuples without duplicate column elimination
      **/
@@ -97,7 +114,7 @@ public class Tuple implements Serializable {
     /**
      * Comparing tuples in different tables with multiple conditions, used for join condition checking
      **/
-    public static int compareTuples(Tuple left, Tuple right, ArrayList<Integer> leftIndex, ArrayList<Integer> rightIndex) {
+    public static int compareTuples(Tuple left, Tuple right, List<Integer> leftIndex, List<Integer> rightIndex) {
         if (leftIndex.size() != rightIndex.size()) {
             System.out.println("Tuple: Unknown comparison of the tuples");
             System.exit(1);
@@ -116,6 +133,13 @@ public class Tuple implements Serializable {
         return 0;
     }
 
+    /**
+     * Comparing two values of the same type
+     **/
+    public static int compareValues(Object data1, Object data2) {
+        return compareByTypes(data1, data2);
+    }
+
     private static int compareByTypes(Object data1, Object data2) {
         if (data1 instanceof Integer) {
             return ((Integer) data1).compareTo((Integer) data2);